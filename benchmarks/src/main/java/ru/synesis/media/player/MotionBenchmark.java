@@ -0,0 +1,139 @@
+package ru.synesis.media.player;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>Cost of motion detection per frame in microseconds, a stream of N fps costs N times as much per second.</p>
+ * <ul>
+ * <li>{@link #detect} - {@link MotionDetector#detect(Frame)}, what {@link MotionStage} spends on a frame</li>
+ * <li>{@link #lumaDecode} - the subsampled luma decode alone</li>
+ * <li>{@link #countChanged} - the difference kernel alone</li>
+ * <li>{@link #fullDecode} - {@link ImageIO#read(java.io.InputStream)}, what rendering spends, for comparison</li>
+ * </ul>
+ *   <pre>
+ *   java -jar target/benchmarks.jar MotionBenchmark
+ *   java -jar target/benchmarks.jar MotionBenchmark.countChanged -p grid=64 -jvmArgs -XX:-UseSuperWord
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MotionBenchmark {
+
+    // frames of a box moving over a noisy background
+    private static final int FRAMES = 16;
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    /** columns of the luma grid, rows are 3/4 of it */
+    @Param({ "64", "160" })
+    public int grid;
+
+    private Frame[] frames;
+    private int next;
+    private MotionDetector detector;
+    private int[] a;
+    private int[] b;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        frames = new Frame[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] jpeg = encode(width, height, i);
+            frames[i] = new Frame(null, jpeg, jpeg.length);
+        }
+        detector = new MotionDetector(grid, grid * 3 / 4, MotionDetector.DEFAULT_PIXEL_THRESHOLD);
+        Random random = new Random(1);
+        a = new int[grid * grid * 3 / 4];
+        b = new int[a.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(256);
+            b[i] = random.nextInt(256);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.close();
+    }
+
+    private static byte[] encode(int width, int height, int n) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(n);
+        for (int y = 0; y < height; y += 8) {
+            for (int x = 0; x < width; x += 8) {
+                int v = 96 + random.nextInt(16);
+                image.setRGB(x, y, v << 16 | v << 8 | v);
+            }
+        }
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(n * width / FRAMES / 2, height / 3, width / 8, height / 4);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    private Frame nextFrame() {
+        Frame frame = frames[next];
+        next = (next + 1) % FRAMES;
+        return frame;
+    }
+
+    @Benchmark
+    public float detect() {
+        return detector.detect(nextFrame());
+    }
+
+    @Benchmark
+    public int lumaDecode() throws IOException {
+        detector.decodeLuma(nextFrame().inputStream());
+        return detector.getGridWidth();
+    }
+
+    @Benchmark
+    public int countChanged() {
+        return MotionDetector.countChanged(a, b, a.length, MotionDetector.DEFAULT_PIXEL_THRESHOLD);
+    }
+
+    @Benchmark
+    public void fullDecode(Blackhole bh) throws IOException {
+        Frame frame = nextFrame();
+        bh.consume(ImageIO.read(new ByteArrayInputStream(frame.array(), 0, frame.length())));
+    }
+
+}
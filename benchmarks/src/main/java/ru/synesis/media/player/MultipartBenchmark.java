@@ -0,0 +1,146 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>Throughput of multipart parsing over in-memory synthetic streams, one operation is one frame, so the score is
+ * frames/s, and the <code>megabytes</code> counter is MB/s.</p>
+ * <ul>
+ * <li>{@link #videoSourceFrames} - {@link VideoSource#frames()} with pooled frames, the Player path</li>
+ * <li>{@link #videoSourceBytes} - {@link VideoSource#iterator()}, a new array per frame</li>
+ * <li>{@link #ingestParser} - the push parser of {@link IngestEngine}, fed as from a socket</li>
+ * </ul>
+ * Allocation per frame is <code>gc.alloc.rate.norm</code> of the GC profiler:
+ *   <pre>
+ *   java -jar target/benchmarks.jar MultipartBenchmark -prof gc
+ *   java -jar target/benchmarks.jar MultipartBenchmark -p frameSize=102400 -p lf=false -prof gc
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MultipartBenchmark {
+
+    // bytes a socket read returns at most
+    private static final int READ_SIZE = 16 * 1024;
+
+    @Param({ "10240", "102400", "1048576" })
+    public int frameSize;
+
+    /** the boundary parameter with or without the -- prefix */
+    @Param({ "false", "true" })
+    public boolean dashed;
+
+    /** LF or CRLF line ends */
+    @Param({ "false", "true" })
+    public boolean lf;
+
+    @Param({ "1", "4", "8" })
+    public int headers;
+
+    @Param({ "true", "false" })
+    public boolean contentLength;
+
+    private Iterator<Frame> frames;
+    private Iterator<byte[]> images;
+    private SyntheticStream parserStream;
+    private MultipartParser parser;
+    private int parserPos;
+    // a read may complete more than one frame
+    private final ArrayDeque<Frame> parsed = new ArrayDeque<>();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        String contentType = SyntheticStream.contentType(dashed);
+        VideoSource framesSource = VideoSource.fromStream(new SyntheticStream(frameSize, lf, headers, contentLength),
+                contentType);
+        framesSource.setFramePool(new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES));
+        frames = framesSource.frames().iterator();
+        images = VideoSource.fromStream(new SyntheticStream(frameSize, lf, headers, contentLength), contentType)
+                .iterator();
+        parserStream = new SyntheticStream(frameSize, lf, headers, contentLength);
+        parser = new MultipartParser(new MultipartBoundary(VideoSource.boundaryPart(contentType)),
+                new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES), new FrameListener() {
+                    @Override
+                    public void onFrame(Frame frame) {
+                        parsed.add(frame);
+                    }
+
+                    @Override
+                    public void onClose(Exception cause) {
+                    }
+                });
+    }
+
+    @Benchmark
+    public int videoSourceFrames(Bytes bytes) {
+        Frame frame = frames.next();
+        int length = frame.length();
+        frame.release();
+        bytes.megabytes += length / 1e6;
+        return length;
+    }
+
+    @Benchmark
+    public void videoSourceBytes(Bytes bytes, Blackhole bh) {
+        byte[] image = images.next();
+        bytes.megabytes += image.length / 1e6;
+        bh.consume(image);
+    }
+
+    @Benchmark
+    public int ingestParser(Bytes bytes) {
+        byte[] src = parserStream.bytes();
+        while (parsed.isEmpty()) {
+            if (parserPos == src.length)
+                parserPos = 0;
+            ByteBuffer dst = parser.readBuffer();
+            int n = Math.min(Math.min(dst.remaining(), READ_SIZE), src.length - parserPos);
+            dst.put(src, parserPos, n);
+            parserPos += n;
+            parser.advance(n);
+        }
+        Frame frame = parsed.poll();
+        int length = frame.length();
+        frame.release();
+        bytes.megabytes += length / 1e6;
+        return length;
+    }
+
+}
@@ -0,0 +1,105 @@
+package ru.synesis.media.player;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * In-memory multipart/x-mixed-replace stream for benchmarks, which repeats its parts forever.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+class SyntheticStream extends InputStream {
+
+    static final String BOUNDARY = "myboundary";
+    // enough parts for the stream not to fit a CPU cache
+    private static final int MIN_STREAM_SIZE = 8 << 20;
+    private static final String[] EXTRA_HEADERS = { "Content-Type: image/jpeg", "X-Timestamp: 1400000000000",
+            "X-Frame-Rate: 25", "Cache-Control: no-cache", "X-Resolution: 1920x1080", "Pragma: no-cache",
+            "X-Camera: gate", "Expires: 0" };
+
+    private final byte[] bytes;
+    private final int frames;
+    private int pos;
+
+    /**
+     * @param frameSize bytes of a frame body
+     * @param lf true for LF line ends, false for CRLF
+     * @param headers number of part headers besides Content-Length
+     * @param contentLength true if parts have Content-Length
+     */
+    SyntheticStream(int frameSize, boolean lf, int headers, boolean contentLength) {
+        String eol = lf ? "\n" : "\r\n";
+        Random random = new Random(frameSize);
+        byte[] body = new byte[frameSize];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MIN_STREAM_SIZE + frameSize * 2);
+        int n = 0;
+        do {
+            random.nextBytes(body);
+            // a JPEG starts with SOI and ends with EOI, and has no line which looks like a boundary
+            body[0] = (byte) 0xFF;
+            body[1] = (byte) 0xD8;
+            body[frameSize - 2] = (byte) 0xFF;
+            body[frameSize - 1] = (byte) 0xD9;
+            for (int i = 0; i < frameSize - 1; i++) {
+                if (body[i] == '\n' && body[i + 1] == '-')
+                    body[i + 1] = 0;
+            }
+            StringBuilder head = new StringBuilder("--").append(BOUNDARY).append(eol);
+            for (int h = 0; h < headers; h++) {
+                head.append(EXTRA_HEADERS[h % EXTRA_HEADERS.length]).append(eol);
+            }
+            if (contentLength)
+                head.append("Content-Length: ").append(frameSize).append(eol);
+            head.append(eol);
+            byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+            out.write(headBytes, 0, headBytes.length);
+            out.write(body, 0, body.length);
+            byte[] end = eol.getBytes(StandardCharsets.ISO_8859_1);
+            out.write(end, 0, end.length);
+            n++;
+        } while (out.size() < MIN_STREAM_SIZE);
+        this.bytes = out.toByteArray();
+        this.frames = n;
+    }
+
+    /**
+     * @param dashed true if the boundary parameter has the -- prefix, which some cameras send
+     */
+    static String contentType(boolean dashed) {
+        return "multipart/x-mixed-replace; boundary=" + (dashed ? "--" : "") + BOUNDARY;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int frames() {
+        return frames;
+    }
+
+    @Override
+    public int read() {
+        if (pos == bytes.length)
+            pos = 0;
+        return bytes[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (pos == bytes.length)
+            pos = 0;
+        int n = Math.min(len, bytes.length - pos);
+        System.arraycopy(bytes, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return bytes.length - pos;
+    }
+
+}
@@ -0,0 +1,162 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Memory-mapped index of an archive segment: a fixed-size file of (timestamp, offset, length) entries, one per
+ * frame, in the order the frames were written, so timestamps don't decrease and lookups are binary searches.</p>
+ * <p>Layout: a header of magic, version and entry count, then 16-byte entries of a long timestamp in milliseconds,
+ * int offset and int length of the frame in the segment data file. The count is updated after the entry, so a reader
+ * never sees an entry which isn't written yet.</p>
+ *
+ * @see ArchiveWriter
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public final class ArchiveIndex implements Closeable {
+
+    static final int MAGIC = 0x4D4A4958; // MJIX
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 16;
+
+    private static final int COUNT = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int count;
+
+    private ArchiveIndex(FileChannel channel, MappedByteBuffer buffer, int capacity, int count) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    /**
+     * Creates a new index file for <code>capacity</code> entries
+     * @throws IOException
+     */
+    public static ArchiveIndex create(Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(COUNT, 0);
+            return new ArchiveIndex(channel, buffer, capacity, 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an index file read-only. Entries appended by a writer later on aren't seen, see {@link #refresh()}.
+     * @throws IOException if it's not an index file
+     */
+    public static ArchiveIndex open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException("Not an archive index: " + path);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("Not an archive index: " + path);
+            int capacity = (int) ((size - HEADER_SIZE) / ENTRY_SIZE);
+            return new ArchiveIndex(channel, buffer, capacity, Math.min(capacity, buffer.getInt(COUNT)));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends an entry
+     * @return false if the index is full
+     */
+    public boolean append(long timestamp, int offset, int length) {
+        if (count == capacity)
+            return false;
+        int at = HEADER_SIZE + count * ENTRY_SIZE;
+        buffer.putLong(at, timestamp);
+        buffer.putInt(at + 8, offset);
+        buffer.putInt(at + 12, length);
+        buffer.putInt(COUNT, ++count);
+        return true;
+    }
+
+    /**
+     * Re-reads the entry count, which a writer of the same file may have increased
+     * @return number of entries
+     */
+    public int refresh() {
+        count = Math.min(capacity, buffer.getInt(COUNT));
+        return count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return count == capacity;
+    }
+
+    public long getTimestamp(int entry) {
+        return buffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    public int getOffset(int entry) {
+        return buffer.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+    }
+
+    public int getLength(int entry) {
+        return buffer.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 12);
+    }
+
+    /**
+     * @return the last entry with a timestamp not after the given one, or -1 if all entries are after it
+     */
+    public int floor(long timestamp) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) <= timestamp)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    /**
+     * Writes the mapped entries to the storage device
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,326 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javafx.scene.image.Image;
+
+/**
+ * <p>Playback loop of an archive for the Player: plays at 1x to 16x, seeks to a timestamp and steps frame by frame.
+ * Like {@link StreamTask} it's a Runnable, and UI takes the latest decoded image with {@link #pollImage()}.</p>
+ * <p>Frames are decoded straight from mapped segment slices of {@link ArchiveReader}. The loop shows the frame
+ * which is due at the current playback time; it decodes no more often than the screen refreshes, and frames
+ * which become due while a frame is decoded are skipped, so playback keeps its speed when decoding can't.
+ * Like in StreamTask, frames are decoded into a {@link RenderBuffer}, so the view is updated in place.</p>
+ * <p>It owns the reader and closes it when the loop exits.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class ArchivePlayback implements Runnable {
+
+    public static final double MAX_SPEED = 16;
+
+    // no use to decode more frames than the screen shows
+    private static final long RENDER_INTERVAL = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private final ArchiveReader reader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final RenderBuffer renderBuffer = new RenderBuffer();
+    private final AtomicLong decodedFrameCount = new AtomicLong();
+    private final AtomicLong skippedFrameCount = new AtomicLong();
+    private final AtomicLong errorFrameCount = new AtomicLong();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Viewport viewport = new Viewport();
+    // guarded by lock
+    private double speed = 1;
+    private boolean paused;
+    private boolean stopped;
+    private long seekTo;
+    private int stepTo = -1;
+    private long anchorTime;
+    private long anchorNanos;
+    // written by the loop only
+    private volatile int position = -1;
+    private volatile long positionTime;
+    // the next frame is a seek or a step, rather than the next one due
+    private boolean jump;
+
+    /**
+     * Playback starts from the first frame when the loop runs
+     */
+    public ArchivePlayback(ArchiveReader reader) {
+        this.reader = reader;
+        this.seekTo = reader.getStartTime();
+    }
+
+    @Override
+    public void run() {
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+        try {
+            long nextDecode = 0;
+            for (;;) {
+                int frame = next(nextDecode);
+                if (frame < 0)
+                    return;
+                int last = position;
+                if (!jump && last >= 0 && frame > last + 1)
+                    skippedFrameCount.addAndGet(frame - last - 1);
+                show(decoder, frame);
+                nextDecode = System.nanoTime() + RENDER_INTERVAL;
+            }
+        } catch (InterruptedException e) {
+            // stop execution
+        } finally {
+            decoder.close();
+            reader.close();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Waits for the next frame to show
+     * @return the frame or -1 if the playback is stopped
+     */
+    private int next(long nextDecode) throws InterruptedException {
+        int count = reader.getFrameCount();
+        lock.lock();
+        try {
+            for (;;) {
+                if (stopped)
+                    return -1;
+                long now = System.nanoTime();
+                if (count == 0) {
+                    changed.await();
+                    continue;
+                }
+                jump = true;
+                if (stepTo >= 0) {
+                    int frame = stepTo;
+                    stepTo = -1;
+                    anchor(reader.getTimestamp(frame), now);
+                    return frame;
+                }
+                if (seekTo >= 0) {
+                    int frame = Math.max(0, reader.floor(seekTo));
+                    anchor(Math.max(seekTo, reader.getTimestamp(frame)), now);
+                    seekTo = -1;
+                    return frame;
+                }
+                jump = false;
+                if (paused) {
+                    changed.await();
+                    continue;
+                }
+                if (now < nextDecode) {
+                    changed.awaitNanos(nextDecode - now);
+                    continue;
+                }
+                long time = mediaTime(now);
+                int frame = Math.max(0, reader.floor(time));
+                int current = position;
+                if (frame > current)
+                    return frame;
+                if (current >= count - 1) {
+                    // end of the archive
+                    paused = true;
+                    continue;
+                }
+                long wait = (long) ((reader.getTimestamp(current + 1) - time) * 1000000 / speed);
+                changed.awaitNanos(Math.max(wait, 1));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void show(ScaledJpegDecoder decoder, int frame) {
+        try {
+            ByteBuffer jpeg = reader.getFrame(frame);
+            JpegHeader header = JpegHeader.parse(jpeg);
+            if (header == null)
+                throw new IOException("Not a JPEG frame: " + frame);
+            Viewport v = viewport;
+            BufferedImage image = decoder.decode(jpeg, header,
+                    v != null && ScaledJpegDecoder.isReduced(header, v) ? v : null, renderBuffer);
+            renderBuffer.publish(image);
+            decodedFrameCount.incrementAndGet();
+        } catch (IOException e) {
+            errorFrameCount.incrementAndGet();
+        }
+        positionTime = reader.getTimestamp(frame);
+        position = frame;
+    }
+
+    private void anchor(long time, long nanos) {
+        anchorTime = time;
+        anchorNanos = nanos;
+    }
+
+    private long mediaTime(long nanos) {
+        return anchorTime + (long) ((nanos - anchorNanos) * speed / 1000000);
+    }
+
+    /**
+     * Shows the last frame at or before the timestamp, and goes on from there unless paused
+     */
+    public void seek(long timestamp) {
+        lock.lock();
+        try {
+            seekTo = Math.max(0, timestamp);
+            stepTo = -1;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses and shows a frame <code>delta</code> frames away from the current one
+     */
+    public void step(int delta) {
+        lock.lock();
+        try {
+            int count = reader.getFrameCount();
+            if (count == 0)
+                return;
+            paused = true;
+            seekTo = -1;
+            int from = stepTo >= 0 ? stepTo : Math.max(0, position);
+            stepTo = Math.min(count - 1, Math.max(0, from + delta));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setPaused(boolean paused) {
+        lock.lock();
+        try {
+            if (this.paused && !paused) {
+                // resume from the frame on the screen, or from the start at the end of the archive
+                int current = position;
+                if (current >= reader.getFrameCount() - 1)
+                    seekTo = reader.getStartTime();
+                else
+                    anchor(positionTime, System.nanoTime());
+            }
+            this.paused = paused;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isPaused() {
+        lock.lock();
+        try {
+            return paused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param speed from 1 to {@link #MAX_SPEED}
+     */
+    public void setSpeed(double speed) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            // keep the playback time where it is, only its rate changes
+            anchor(mediaTime(now), now);
+            this.speed = Math.min(MAX_SPEED, Math.max(1, speed));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getSpeed() {
+        lock.lock();
+        try {
+            return speed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the loop, it doesn't wait, see {@link #join()}
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the loop to exit. The playback has to be submitted to an executor, otherwise it waits forever.
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Sets the viewport of the view which shows the archive, see {@link StreamTask#setViewport(Viewport)}
+     */
+    public void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Copies the latest decoded frame, which hasn't been shown yet, into the image of the view, see
+     * {@link StreamTask#pollImage()}. It's to be called by the FX thread.
+     * @return the image, the same one while the size of frames stays the same, or null if there is no new frame
+     */
+    public Image pollImage() {
+        return renderBuffer.render();
+    }
+
+    public ArchiveReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return number of the frame on the screen, or -1 before the first one
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return timestamp of the frame on the screen
+     */
+    public long getPositionTime() {
+        return positionTime;
+    }
+
+    public long getDecodedFrameCount() {
+        return decodedFrameCount.get();
+    }
+
+    /**
+     * @return number of frames which weren't decoded, because the playback was too fast for them
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount.get();
+    }
+
+    public long getErrorFrameCount() {
+        return errorFrameCount.get();
+    }
+
+}
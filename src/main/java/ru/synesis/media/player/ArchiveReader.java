@@ -0,0 +1,209 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Read access to the archive of a camera written by {@link ArchiveWriter}. Segment data files and their indexes are
+ * memory-mapped, so a frame is a slice of the mapping, which is never copied to the heap.</p>
+ * <p>Frames of all segments are numbered from 0 in time order. A timestamp is found with two binary searches:
+ * over the first timestamps of segments, then over the index of the segment.</p>
+ * <p>It's a snapshot of segments at the time of {@link #open(Path)}. Not thread safe, but frames it returns
+ * may be used by any thread.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class ArchiveReader implements Closeable {
+
+    private final Path dir;
+    private final Segment[] segments;
+    // number of the first frame of each segment
+    private final int[] bases;
+    private final int frameCount;
+
+    private ArchiveReader(Path dir, Segment[] segments) {
+        this.dir = dir;
+        this.segments = segments;
+        this.bases = new int[segments.length];
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            bases[i] = count;
+            count += segments[i].index.size();
+        }
+        this.frameCount = count;
+    }
+
+    /**
+     * Opens all segments of a camera, see {@link ArchiveWriter#cameraDir(String)}
+     * @throws IOException
+     */
+    public static ArchiveReader open(Path cameraDir) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cameraDir, "*" + ArchiveWriter.INDEX_SUFFIX)) {
+            for (Path idx : files) {
+                String name = idx.getFileName().toString();
+                Path data = idx.resolveSibling(name.substring(0, name.length() - ArchiveWriter.INDEX_SUFFIX.length())
+                        + ArchiveWriter.DATA_SUFFIX);
+                Segment segment = Segment.open(idx, data);
+                if (segment == null)
+                    continue;
+                segments.add(segment);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            throw e;
+        }
+        // names aren't ordered when frames of one millisecond span segments, first timestamps are
+        Collections.sort(segments, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                int c = Long.compare(a.index.getTimestamp(0), b.index.getTimestamp(0));
+                return c != 0 ? c : a.name.length() != b.name.length() ? a.name.length() - b.name.length()
+                        : a.name.compareTo(b.name);
+            }
+        });
+        return new ArchiveReader(cameraDir, segments.toArray(new Segment[segments.size()]));
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return timestamp of the first frame, or 0 if there are no frames
+     */
+    public long getStartTime() {
+        return frameCount > 0 ? getTimestamp(0) : 0;
+    }
+
+    /**
+     * @return timestamp of the last frame, or 0 if there are no frames
+     */
+    public long getEndTime() {
+        return frameCount > 0 ? getTimestamp(frameCount - 1) : 0;
+    }
+
+    /**
+     * @return number of the last frame with a timestamp not after the given one, or -1 if all frames are after it
+     */
+    public int floor(long timestamp) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments[mid].index.getTimestamp(0) <= timestamp)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        if (high < 0)
+            return -1;
+        return bases[high] + segments[high].index.floor(timestamp);
+    }
+
+    public long getTimestamp(int frame) {
+        int s = segment(frame);
+        return segments[s].index.getTimestamp(frame - bases[s]);
+    }
+
+    /**
+     * @return read-only slice of the mapped segment with bytes of the frame, it's not copied
+     */
+    public ByteBuffer getFrame(int frame) {
+        int s = segment(frame);
+        Segment segment = segments[s];
+        int entry = frame - bases[s];
+        ByteBuffer slice = segment.data.duplicate();
+        int offset = segment.index.getOffset(entry);
+        slice.limit(offset + segment.index.getLength(entry)).position(offset);
+        return slice.slice();
+    }
+
+    private int segment(int frame) {
+        if (frame < 0 || frame >= frameCount)
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        int low = 0;
+        int high = bases.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (bases[mid] <= frame)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private static class Segment {
+
+        final String name;
+        final ArchiveIndex index;
+        final ByteBuffer data;
+
+        private Segment(String name, ArchiveIndex index, ByteBuffer data) {
+            this.name = name;
+            this.index = index;
+            this.data = data;
+        }
+
+        /**
+         * @return the segment or null if it has no frames
+         */
+        static Segment open(Path idx, Path data) throws IOException {
+            ArchiveIndex index = ArchiveIndex.open(idx);
+            try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+                if (index.size() == 0) {
+                    index.close();
+                    return null;
+                }
+                // the index never points past written data, but the file may be longer after a crash
+                int last = index.size() - 1;
+                long end = (long) index.getOffset(last) + index.getLength(last);
+                if (end > channel.size())
+                    throw new IOException("Segment is shorter than its index: " + data);
+                // the mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, end);
+                return new Segment(idx.getFileName().toString(), index, buffer.asReadOnlyBuffer());
+            } catch (IOException | RuntimeException e) {
+                index.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,464 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Recorder of many streams into a segmented append-only archive:</p>
+ *   <pre>
+ *   dir/camera/0001400000000000.mjpg   frames one after another, as they came from the camera
+ *   dir/camera/0001400000000000.idx    {@link ArchiveIndex} of the segment
+ *   </pre>
+ * <p>A segment is named after the timestamp of its first frame and is closed when it reaches the segment size or
+ * its index is full. Frames are only appended, so writes are sequential, and there is no file per frame.</p>
+ * <p>Cameras are spread over a few I/O threads. A thread takes all frames queued for it and writes the frames of
+ * a camera with one gathering write (group commit); the storage is synced once per sync interval rather than per
+ * frame. If the storage doesn't keep up and the queue of a thread is full, new frames are dropped, so recording
+ * never blocks the readers.</p>
+ *   <pre>
+ *   ArchiveWriter archive = new ArchiveWriter(Paths.get("/var/archive"), 4);
+ *   engine.open(url, username, password, archive.recorder("gate"));
+ *   </pre>
+ * <p>With {@link #setMotionGate(float, long, long)} recorders keep frames of still scenes once in a while only.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class ArchiveWriter implements Closeable {
+
+    public static final String DATA_SUFFIX = ".mjpg";
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final long DEFAULT_SEGMENT_SIZE = 256L << 20;
+    public static final int DEFAULT_INDEX_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000; /* milliseconds */
+    /** A duplicate frame is still written this often, so the archive keeps covering a static scene */
+    public static final long DUPLICATE_INTERVAL = 1000; /* milliseconds */
+
+    private static final int QUEUE_SIZE = 4096;
+    private static final int MAX_BATCH = 512;
+    private static final Entry CLOSE = new Entry(null, 0, null);
+
+    private final Path dir;
+    private final Lane[] lanes;
+    private final Map<String, Track> tracks = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong duplicateFrameCount = new AtomicLong();
+    private volatile long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private volatile int indexCapacity = DEFAULT_INDEX_CAPACITY;
+    private volatile long syncInterval = DEFAULT_SYNC_INTERVAL;
+    private volatile boolean skipDuplicates;
+    // a gate of recorders, off if the threshold is NaN
+    private volatile float motionThreshold = Float.NaN;
+    private volatile long motionHold;
+    private volatile long motionIdleInterval;
+    private volatile boolean closed;
+
+    /**
+     * @param ioThreads number of threads writing to the storage
+     */
+    public ArchiveWriter(Path dir, int ioThreads) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.lanes = new Lane[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            lanes[i] = new Lane("ArchiveWriter-" + i);
+            lanes[i].start();
+        }
+    }
+
+    /**
+     * Sets maximum size of a segment data file, applies to new segments
+     */
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segment size must be in (0, 2GB)");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets maximum number of frames of a segment, applies to new segments
+     */
+    public void setIndexCapacity(int indexCapacity) {
+        this.indexCapacity = indexCapacity;
+    }
+
+    /**
+     * Sets how often written frames are synced to the storage device, 0 syncs after every group commit,
+     * a negative value leaves it to the OS
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Skips frames byte-identical to the previous one of the camera, but one per {@link #DUPLICATE_INTERVAL}.
+     * Playback shows the previous frame for the time of skipped ones, so it looks the same.
+     */
+    public void setSkipDuplicates(boolean skipDuplicates) {
+        this.skipDuplicates = skipDuplicates;
+    }
+
+    /**
+     * Makes recorders keep frames by motion, see {@link MotionGate}: all of them while there's motion and for
+     * the hold time after it, and one per idle interval of a still scene. It's off by default, and applies to
+     * recorders created after the call. Frames are scored by a {@link MotionStage} per recorder, so a gated
+     * recorder belongs to one stream and stops when the stream is closed.
+     */
+    public void setMotionGate(float threshold, long holdMillis, long idleIntervalMillis) {
+        this.motionHold = holdMillis;
+        this.motionIdleInterval = idleIntervalMillis;
+        this.motionThreshold = threshold;
+    }
+
+    /**
+     * Records every frame again, which applies to recorders created after the call
+     */
+    public void clearMotionGate() {
+        this.motionThreshold = Float.NaN;
+    }
+
+    /**
+     * @return a listener, which records frames of a stream as they arrive, or the frames kept by the motion gate
+     *  if it's set
+     */
+    public FrameListener recorder(final String camera) {
+        float threshold = motionThreshold;
+        if (Float.isNaN(threshold))
+            return plainRecorder(camera);
+        MotionGate gate = new MotionGate(threshold, motionHold, motionIdleInterval);
+        return new MotionStage(new MotionDetector(), gate.filter(plainRecorder(camera)));
+    }
+
+    private FrameListener plainRecorder(final String camera) {
+        return new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                append(camera, System.currentTimeMillis(), frame);
+            }
+
+            @Override
+            public void onClose(Exception cause) {
+                // segments stay open until the archive is closed, the stream may be reopened
+            }
+        };
+    }
+
+    /**
+     * Queues a frame for writing, the archive owns the frame and releases it when it's written.
+     * It never blocks, the frame is dropped if the storage doesn't keep up.
+     * @param timestamp milliseconds since epoch, must not decrease for a camera
+     */
+    public void append(String camera, long timestamp, Frame frame) {
+        Track track = tracks.get(camera);
+        if (track == null) {
+            Track t = new Track(camera, lanes[Math.abs(nextLane.getAndIncrement() % lanes.length)]);
+            track = tracks.putIfAbsent(camera, t);
+            if (track == null)
+                track = t;
+        }
+        if (skipDuplicates && track.isDuplicate(timestamp, frame)) {
+            duplicateFrameCount.incrementAndGet();
+            frame.release();
+            return;
+        }
+        if (closed || !track.lane.queue.offer(new Entry(track, timestamp, frame))) {
+            droppedFrameCount.incrementAndGet();
+            frame.release();
+        }
+    }
+
+    /**
+     * @return directory with segments of a camera
+     */
+    public Path cameraDir(String camera) {
+        return dir.resolve(fileName(camera));
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * @return frames skipped as duplicates, see {@link #setSkipDuplicates(boolean)}
+     */
+    public long getDuplicateFrameCount() {
+        return duplicateFrameCount.get();
+    }
+
+    /**
+     * @return number of write calls, which is much less than the number of frames when group commit works
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Writes queued frames, syncs and closes all segments
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+    }
+
+    static String fileName(String camera) {
+        return camera.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    static String segmentName(long timestamp) {
+        return String.format("%016d", timestamp);
+    }
+
+    private static class Entry {
+        final Track track;
+        final long timestamp;
+        final Frame frame;
+
+        Entry(Track track, long timestamp, Frame frame) {
+            this.track = track;
+            this.timestamp = timestamp;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * I/O thread, which writes frames of its tracks
+     */
+    private class Lane extends Thread {
+
+        final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        private final List<Track> touched = new ArrayList<>();
+        private final List<Track> dirty = new ArrayList<>();
+        private long lastSync = System.currentTimeMillis();
+
+        Lane(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (boolean closing = false; !closing;) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (Entry entry : batch) {
+                        if (entry == CLOSE) {
+                            closing = true;
+                        } else {
+                            if (entry.track.pending.isEmpty())
+                                touched.add(entry.track);
+                            entry.track.pending.add(entry);
+                        }
+                    }
+                    batch.clear();
+                    for (Track track : touched) {
+                        track.commit();
+                        if (!track.dirty) {
+                            track.dirty = true;
+                            dirty.add(track);
+                        }
+                    }
+                    touched.clear();
+                    long interval = syncInterval;
+                    long now = System.currentTimeMillis();
+                    if (closing || (interval >= 0 && now - lastSync >= interval)) {
+                        for (Track track : dirty) {
+                            track.sync();
+                        }
+                        dirty.clear();
+                        lastSync = now;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // exit
+            } finally {
+                // frames appended while closing
+                for (Entry entry; (entry = queue.poll()) != null;) {
+                    if (entry != CLOSE)
+                        entry.frame.release();
+                }
+                for (Track track : tracks.values()) {
+                    if (track.lane == this)
+                        track.closeSegment();
+                }
+            }
+        }
+
+        void close() {
+            try {
+                queue.put(CLOSE);
+                join();
+            } catch (InterruptedException e) {
+                interrupt();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    /**
+     * Segments of a camera, touched by its lane only
+     */
+    private class Track {
+
+        final String camera;
+        final Lane lane;
+        final List<Entry> pending = new ArrayList<>();
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private FileChannel data;
+        private ArchiveIndex index;
+        private long position;
+        private long segmentLimit;
+        boolean dirty;
+        // touched by the appending thread only, frames of a camera come from one stream
+        private long lastHash;
+        private long lastHashTime;
+
+        Track(String camera, Lane lane) {
+            this.camera = camera;
+            this.lane = lane;
+        }
+
+        /**
+         * @return true if the frame is the same as the last appended one, which isn't too old
+         */
+        boolean isDuplicate(long timestamp, Frame frame) {
+            long hash = frame.hash();
+            if (hash == lastHash && timestamp - lastHashTime < DUPLICATE_INTERVAL)
+                return true;
+            lastHash = hash;
+            lastHashTime = timestamp;
+            return false;
+        }
+
+        /**
+         * Writes pending frames with as few gathering writes as segment boundaries allow
+         */
+        void commit() {
+            int from = 0;
+            try {
+                while (from < pending.size()) {
+                    Entry first = pending.get(from);
+                    if (data == null || (position > 0 && position + first.frame.length() > segmentLimit)
+                            || index.isFull()) {
+                        closeSegment();
+                        openSegment(first.timestamp);
+                    }
+                    int to = from;
+                    long end = position;
+                    int room = index.capacity() - index.size();
+                    // a frame bigger than a segment gets a segment of its own
+                    do {
+                        end += pending.get(to++).frame.length();
+                    } while (to < pending.size() && to - from < room
+                            && end + pending.get(to).frame.length() <= segmentLimit);
+                    write(from, to);
+                    from = to;
+                }
+            } catch (IOException e) {
+                System.err.println("Archive " + camera + ": " + e);
+                closeSegment();
+            } finally {
+                for (Entry entry : pending) {
+                    entry.frame.release();
+                }
+                pending.clear();
+            }
+        }
+
+        private void write(int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                Frame frame = pending.get(i).frame;
+                buffers.add(frame.buffer());
+            }
+            ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[buffers.size()]);
+            buffers.clear();
+            ByteBuffer last = srcs[srcs.length - 1];
+            while (last.hasRemaining()) {
+                data.write(srcs);
+                writeCount.incrementAndGet();
+            }
+            // entries go after the data, so the index never points to bytes which aren't written
+            for (int i = from; i < to; i++) {
+                Entry entry = pending.get(i);
+                index.append(entry.timestamp, (int) position, entry.frame.length());
+                position += entry.frame.length();
+            }
+            frameCount.addAndGet(to - from);
+        }
+
+        private void openSegment(long timestamp) throws IOException {
+            Path cameraDir = Files.createDirectories(cameraDir(camera));
+            String name = segmentName(timestamp);
+            // frames of the same millisecond may not fit a segment
+            for (int n = 1; Files.exists(cameraDir.resolve(name + DATA_SUFFIX)); n++) {
+                name = segmentName(timestamp) + "-" + n;
+            }
+            FileChannel channel = FileChannel.open(cameraDir.resolve(name + DATA_SUFFIX), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            try {
+                index = ArchiveIndex.create(cameraDir.resolve(name + INDEX_SUFFIX), indexCapacity);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            data = channel;
+            position = 0;
+            segmentLimit = segmentSize;
+        }
+
+        void sync() {
+            dirty = false;
+            if (data == null)
+                return;
+            try {
+                data.force(false);
+                index.force();
+            } catch (IOException e) {
+                System.err.println("Archive " + camera + ": " + e);
+            }
+        }
+
+        void closeSegment() {
+            if (data == null)
+                return;
+            try {
+                data.force(false);
+                index.force();
+                data.close();
+                index.close();
+            } catch (IOException e) {
+                System.err.println("Archive " + camera + ": " + e);
+            }
+            data = null;
+            index = null;
+        }
+
+    }
+
+}
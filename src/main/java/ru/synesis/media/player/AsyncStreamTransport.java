@@ -0,0 +1,25 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>Transport, which also pushes frames of a stream to a {@link FrameListener} as they arrive, like
+ * {@link IngestEngine} does, without a thread blocked per stream.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface AsyncStreamTransport extends StreamTransport {
+
+    /**
+     * Starts connecting to a stream. The method doesn't wait for the connection, errors come to
+     * {@link FrameListener#onClose(Exception)}.
+     *
+     * @param username user for HTTP Basic authentication, or null
+     * @return handle, which closes the stream, {@link FrameListener#onClose(Exception)} is called with null then
+     * @throws IOException if the URL is malformed
+     */
+    Closeable open(String url, String username, String password, FrameListener listener) throws IOException;
+
+}
@@ -0,0 +1,350 @@
+package ru.synesis.media.player;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <p>Synthetic MJPEG camera for tests at scale without cameras and network. It listens on the loopback interface only
+ * and serves multipart/x-mixed-replace at a set frame rate, resolution and jitter to any number of clients.</p>
+ * <p>It covers quirks of real cameras, which {@link VideoSource} handles: a boundary parameter which already starts
+ * with <code>--</code>, Basic authentication, parts without Content-Length, LF line ends; and it may inject faults: parts cut short
+ * and stalls of the stream.</p>
+ * <p>Frames are encoded once at start. Each frame carries the {@link System#nanoTime()} it was sent at in a JPEG
+ * comment, see {@link #sentNanos(byte[], int, int)}, so a consumer in the same JVM gets end to end latency.</p>
+ *   <pre>
+ *   CameraSimulator camera = new CameraSimulator();
+ *   camera.setFps(25);
+ *   camera.setCredentials("admin", "secret");
+ *   camera.start();
+ *   VideoSource src = new VideoSource(camera.getUrl(), "admin", "secret");
+ *   </pre>
+ *
+ * @see LoadGenerator
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class CameraSimulator implements Closeable {
+
+    public static final String PATH = "/video.mjpg";
+
+    private static final String BOUNDARY = "simboundary";
+    private static final int FRAME_VARIANTS = 16;
+    // COM segment right after SOI: marker, length, 8 bytes of System.nanoTime()
+    private static final int STAMP_OFFSET = 6;
+    private static final int STAMP_SEGMENT = 12;
+
+    private volatile double fps = 25;
+    private volatile int width = 640;
+    private volatile int height = 480;
+    private volatile long jitterMillis;
+    private volatile boolean dashedBoundary;
+    private volatile boolean contentLength = true;
+    private volatile boolean bareLineFeeds;
+    private volatile String username;
+    private volatile String password;
+    private volatile double truncateProbability;
+    private volatile double stallProbability;
+    private volatile long stallMillis = 5000;
+
+    private final ExecutorService executor = StreamExecutors.newPerTaskExecutor("CameraSimulator");
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final AtomicLong frameCount = new AtomicLong();
+    private ServerSocket serverSocket;
+    private byte[][] frames;
+    private volatile boolean closed;
+
+    /**
+     * Frame rate of every client
+     */
+    public void setFps(double fps) {
+        this.fps = fps;
+    }
+
+    public void setResolution(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * A frame is sent up to <code>jitterMillis</code> earlier or later than it's due, the average rate stays the same
+     */
+    public void setJitter(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Sends the boundary parameter with the <code>--</code> prefix, like some cameras do
+     */
+    public void setDashedBoundary(boolean dashedBoundary) {
+        this.dashedBoundary = dashedBoundary;
+    }
+
+    /**
+     * Sends parts with or without Content-Length, without it a part lasts up to the next boundary
+     */
+    public void setContentLength(boolean contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Ends lines of part heads with LF instead of CRLF, like some cameras do
+     */
+    public void setBareLineFeeds(boolean bareLineFeeds) {
+        this.bareLineFeeds = bareLineFeeds;
+    }
+
+    /**
+     * Requires Basic authentication, null for none
+     */
+    public void setCredentials(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Part of frames which are cut short, their Content-Length is still the full length
+     */
+    public void setTruncateProbability(double truncateProbability) {
+        this.truncateProbability = truncateProbability;
+    }
+
+    /**
+     * Part of frames before which the stream stalls for <code>stallMillis</code>
+     */
+    public void setStall(double stallProbability, long stallMillis) {
+        this.stallProbability = stallProbability;
+        this.stallMillis = stallMillis;
+    }
+
+    /**
+     * Encodes frames and starts listening on a free port of the loopback interface
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        frames = encodeFrames(width, height);
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return URL of the stream, with user:password if authentication is required
+     */
+    public String getUrl() {
+        String userInfo = username != null ? username + ":" + password + "@" : "";
+        return "http://" + userInfo + "127.0.0.1:" + getPort() + PATH;
+    }
+
+    public int getClientCount() {
+        return clientCount.get();
+    }
+
+    /**
+     * @return frames sent to all clients
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null)
+                serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame was sent, or -1 if it's not a frame of a simulator
+     */
+    public static long sentNanos(byte[] a, int offset, int length) {
+        return sentNanos(ByteBuffer.wrap(a, offset, length));
+    }
+
+    /**
+     * Reads the stamp of the remaining bytes of a buffer, e.g. of an off-heap {@link Frame#buffer()}
+     */
+    public static long sentNanos(ByteBuffer b) {
+        int offset = b.position();
+        if (b.remaining() < STAMP_OFFSET + 8 || (b.get(offset + 2) & 0xFF) != 0xFF
+                || (b.get(offset + 3) & 0xFF) != 0xFE || b.get(offset + 4) != 0
+                || b.get(offset + 5) != STAMP_SEGMENT - 2)
+            return -1;
+        long nanos = 0;
+        for (int i = offset + STAMP_OFFSET; i < offset + STAMP_OFFSET + 8; i++) {
+            nanos = (nanos << 8) | (b.get(i) & 0xFF);
+        }
+        return nanos;
+    }
+
+    /**
+     * Encodes frames with a box, which moves from frame to frame, and a stamp segment after SOI
+     */
+    private static byte[][] encodeFrames(int width, int height) throws IOException {
+        byte[][] frames = new byte[FRAME_VARIANTS][];
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            for (int i = 0; i < FRAME_VARIANTS; i++) {
+                g.setColor(Color.DARK_GRAY);
+                g.fillRect(0, 0, width, height);
+                g.setColor(Color.ORANGE);
+                int box = Math.max(1, Math.min(width, height) / 4);
+                g.fillRect((width - box) * i / FRAME_VARIANTS, (height - box) / 2, box, box);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "jpeg", out);
+                byte[] jpeg = out.toByteArray();
+                byte[] frame = new byte[jpeg.length + STAMP_SEGMENT];
+                frame[0] = (byte) 0xFF;
+                frame[1] = (byte) 0xD8;
+                frame[2] = (byte) 0xFF;
+                frame[3] = (byte) 0xFE;
+                frame[4] = 0;
+                frame[5] = STAMP_SEGMENT - 2;
+                System.arraycopy(jpeg, 2, frame, 2 + STAMP_SEGMENT, jpeg.length - 2);
+                frames[i] = frame;
+            }
+        } finally {
+            g.dispose();
+        }
+        return frames;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed)
+                    e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        clientCount.incrementAndGet();
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            String authorization = readAuthorization(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            String user = username;
+            if (user != null && !StreamTransports.basicAuthorization(user, password).equals(authorization)) {
+                out.write(("HTTP/1.0 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"simulator\"\r\n"
+                        + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            out.write(("HTTP/1.0 200 OK\r\nCache-Control: no-cache\r\nContent-Type: multipart/x-mixed-replace; boundary="
+                    + (dashedBoundary ? "--" : "") + BOUNDARY + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            stream(out);
+        } catch (IOException e) {
+            // client has gone
+        } catch (InterruptedException e) {
+            // simulator is closing
+        } finally {
+            clientCount.decrementAndGet();
+        }
+    }
+
+    private void stream(OutputStream out) throws IOException, InterruptedException {
+        Random random = new Random();
+        // a copy per client, so stamps don't race
+        byte[][] own = new byte[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            own[i] = frames[i].clone();
+        }
+        long next = System.nanoTime();
+        for (int i = 0; !closed; i++) {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+            next += interval;
+            long jitter = jitterMillis > 0
+                    ? TimeUnit.MILLISECONDS.toNanos((long) ((random.nextDouble() * 2 - 1) * jitterMillis)) : 0;
+            long sleep = next + jitter - System.nanoTime();
+            if (sleep > 0)
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            if (stallProbability > 0 && random.nextDouble() < stallProbability) {
+                TimeUnit.MILLISECONDS.sleep(stallMillis);
+                next = System.nanoTime();
+            }
+            byte[] frame = own[i % own.length];
+            long now = System.nanoTime();
+            for (int b = 7; b >= 0; b--) {
+                frame[STAMP_OFFSET + 7 - b] = (byte) (now >>> (b * 8));
+            }
+            int length = frame.length;
+            if (truncateProbability > 0 && random.nextDouble() < truncateProbability)
+                length = length / 2;
+            String eol = bareLineFeeds ? "\n" : "\r\n";
+            StringBuilder head = new StringBuilder("--").append(BOUNDARY).append(eol);
+            head.append("Content-Type: image/jpeg").append(eol);
+            if (contentLength)
+                head.append("Content-Length: ").append(frame.length).append(eol);
+            head.append(eol);
+            out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(frame, 0, length);
+            out.write(eol.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            frameCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads the request head
+     * @return value of Authorization header or null
+     */
+    private static String readAuthorization(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        String authorization = null;
+        for (int b; (b = in.read()) >= 0;) {
+            if (b == '\n') {
+                String s = line.toString().trim();
+                if (s.isEmpty())
+                    break;
+                if (s.regionMatches(true, 0, "Authorization:", 0, 14))
+                    authorization = s.substring(14).trim();
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+        return authorization;
+    }
+
+}
@@ -0,0 +1,91 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Decode thread pool shared by many streams, e.g. by all tiles of {@link GridView}, sized to the number of cores.</p>
+ * <p>A stream is a {@link Job}, which is queued at most once at a time, and jobs run in the order they become due,
+ * so streams are served round robin and a fast stream can't starve the others. A job may ask to run later,
+ * that's how per-stream fps caps are done, without holding a thread.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class DecodeScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public DecodeScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public DecodeScheduler(int threads) {
+        this.executor = new ScheduledThreadPoolExecutor(threads, StreamExecutors.daemonThreadFactory("DecodeScheduler"));
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Unit of work of one stream, like decoding its latest frame
+     */
+    public abstract static class Job implements Runnable {
+
+        private final DecodeScheduler scheduler;
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        protected Job(DecodeScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        /**
+         * Queues the job, if it's not queued or running yet
+         */
+        public void schedule() {
+            schedule(0);
+        }
+
+        private void schedule(long delayNanos) {
+            if (queued.compareAndSet(false, true)) {
+                if (delayNanos > 0) {
+                    scheduler.executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    scheduler.executor.execute(this);
+                }
+            }
+        }
+
+        @Override
+        public final void run() {
+            long delay;
+            try {
+                delay = execute();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                delay = -1;
+            } finally {
+                queued.set(false);
+            }
+            // work may have come after execute() and before the flag was reset
+            if (delay >= 0 || hasWork())
+                schedule(Math.max(0, delay));
+        }
+
+        /**
+         * Does one unit of work
+         * @return delay in nanoseconds to run again, or -1 if there is nothing to do till the next {@link #schedule()}
+         */
+        protected abstract long execute();
+
+        /**
+         * @return true if there is work for {@link #execute()}
+         */
+        protected abstract boolean hasWork();
+
+    }
+
+}
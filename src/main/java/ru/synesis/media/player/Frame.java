@@ -0,0 +1,185 @@
+package ru.synesis.media.player;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>JPEG frame got from a motion jpeg (multipart/x-mixed-replace) stream, which wraps a buffer taken
+ * from {@link FramePool}, or an off-heap block of a {@link FrameStore}.</p>
+ * <p>The buffer is usually larger than the frame, so use {@link #length()} rather than the length of {@link #array()}.
+ * An off-heap frame has no array, {@link #buffer()} reads any frame in place, and so does {@link #inputStream()}.
+ * Frames are reference counted: one who got a frame owns a reference and has to {@link #release()} it
+ * when done, the one who passes a frame to another thread has to {@link #retain()} it before. The buffer goes back
+ * to the pool on the last release, so it must not be touched after that.</p>
+ *
+ * @see VideoSource#frames()
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public final class Frame {
+
+    private final FramePool pool;
+    private final byte[] buffer;
+    // off-heap block, when buffer is null
+    private final ByteBuffer block;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private int length;
+    // 0 until computed, see hash()
+    private volatile long hash;
+    private volatile float motionScore = Float.NaN;
+
+    Frame(FramePool pool, byte[] buffer, int length) {
+        this(pool, buffer, null, length);
+    }
+
+    Frame(FrameStore store, ByteBuffer block, int length) {
+        this(store, null, block, length);
+    }
+
+    private Frame(FramePool pool, byte[] buffer, ByteBuffer block, int length) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.block = block;
+        this.length = length;
+    }
+
+    /**
+     * @return backing buffer, valid bytes are from 0 to {@link #length()}
+     * @throws UnsupportedOperationException if the frame is off-heap, see {@link #isDirect()}
+     */
+    public byte[] array() {
+        if (buffer == null)
+            throw new UnsupportedOperationException("Frame is off-heap, use buffer()");
+        return buffer;
+    }
+
+    /**
+     * @return true if the frame is in off-heap memory of a {@link FrameStore}, so it has no {@link #array()}
+     */
+    public boolean isDirect() {
+        return block != null;
+    }
+
+    /**
+     * @return read-only view of the frame bytes, from 0 to {@link #length()}, e.g. for a gathering write to
+     *  a channel. It's not a copy, so it's valid until the frame is released.
+     */
+    public ByteBuffer buffer() {
+        ByteBuffer b = buffer != null ? ByteBuffer.wrap(buffer) : block.duplicate();
+        b.limit(length).position(0);
+        return b.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return writable view of the whole backing buffer, for the reader which fills the frame
+     */
+    ByteBuffer writeBuffer() {
+        return buffer != null ? ByteBuffer.wrap(buffer) : block.duplicate();
+    }
+
+    /**
+     * @return size of the backing buffer
+     */
+    int capacity() {
+        return buffer != null ? buffer.length : block.capacity();
+    }
+
+    /**
+     * @return number of bytes of the JPEG
+     */
+    public int length() {
+        return length;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+        this.hash = 0;
+    }
+
+    /**
+     * @return stream over the frame bytes, e.g. for javafx.scene.image.Image or ImageIO
+     */
+    public InputStream inputStream() {
+        return buffer != null ? new ByteArrayInputStream(buffer, 0, length) : new ByteBufferInputStream(buffer());
+    }
+
+    /**
+     * @return copy of the frame bytes, which is safe to keep after release
+     */
+    public byte[] toByteArray() {
+        if (buffer != null)
+            return Arrays.copyOf(buffer, length);
+        byte[] a = new byte[length];
+        buffer().get(a);
+        return a;
+    }
+
+    /**
+     * @return {@link FrameHash} of the frame bytes, computed once, so the ingest loop and the archive share it
+     */
+    public long hash() {
+        long h = hash;
+        if (h == 0) {
+            h = buffer != null ? FrameHash.hash(buffer, 0, length) : FrameHash.hash(block, 0, length);
+            // 0 means not computed
+            if (h == 0)
+                h = 1;
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return motion score set by a {@link MotionStage}, or NaN if the frame wasn't scored
+     */
+    public float getMotionScore() {
+        return motionScore;
+    }
+
+    void setMotionScore(float motionScore) {
+        this.motionScore = motionScore;
+    }
+
+    /**
+     * Adds a reference to the frame
+     * @return this frame
+     */
+    public Frame retain() {
+        for (;;) {
+            int count = refCount.get();
+            if (count <= 0)
+                throw new IllegalStateException("Frame is already released");
+            if (refCount.compareAndSet(count, count + 1))
+                return this;
+        }
+    }
+
+    /**
+     * Drops a reference to the frame, the last one returns the buffer to the pool
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            if (pool == null)
+                return;
+            if (block != null)
+                pool.recycle(block);
+            else
+                pool.recycle(buffer);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame is already released");
+        }
+    }
+
+    /**
+     * @return current number of references, for diagnostics only
+     */
+    public int refCount() {
+        return refCount.get();
+    }
+
+}
@@ -0,0 +1,84 @@
+package ru.synesis.media.player;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Fast non-cryptographic 64-bit hash of frames to find byte-identical JPEGs, which cameras resend when the scene
+ * is static or the encoder stalls. Words are mixed like xxHash64 does, 8 bytes at a time.</p>
+ * <p>Frames up to {@value #FULL_HASH_LIMIT} bytes are hashed whole. Of larger ones the length, the head, the tail and
+ * {@value #SAMPLES} blocks spread over the middle are hashed, so a hash costs about the same for any frame size.
+ * Any change of entropy coded data shifts the bits up to the end of the scan, so it shows in the length or
+ * the tail.</p>
+ *
+ * @see Frame#hash()
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public final class FrameHash {
+
+    static final int FULL_HASH_LIMIT = 16 * 1024;
+    static final int EDGE = 4 * 1024;
+    static final int SAMPLES = 32;
+    static final int SAMPLE = 64;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+
+    private FrameHash() {
+    }
+
+    /**
+     * @return hash of <code>a[offset, offset + length)</code>
+     */
+    public static long hash(byte[] a, int offset, int length) {
+        return hash(ByteBuffer.wrap(a), offset, length);
+    }
+
+    /**
+     * @return hash of bytes from <code>offset</code> to <code>offset + length</code> of a buffer, which may be
+     *  off-heap, it's the same as of the same bytes in an array
+     */
+    public static long hash(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long h = PRIME3 + length * PRIME1;
+        if (length <= FULL_HASH_LIMIT) {
+            h = mix(b, h, offset, length);
+        } else {
+            h = mix(b, h, offset, EDGE);
+            h = mix(b, h, offset + length - EDGE, EDGE);
+            long stride = (length - 2 * EDGE - SAMPLE) / SAMPLES;
+            for (int i = 0; i < SAMPLES; i++) {
+                h = mix(b, h, offset + EDGE + (int) (i * stride), SAMPLE);
+            }
+        }
+        // final avalanche
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long mix(ByteBuffer b, long h, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            h ^= round(b.getLong(i));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME2;
+        }
+        for (; i < end; i++) {
+            h ^= (b.get(i) & 0xFF) * PRIME3;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+        return h;
+    }
+
+    private static long round(long k) {
+        return Long.rotateLeft(k * PRIME2, 31) * PRIME1;
+    }
+
+}
@@ -0,0 +1,386 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Push view of one stream for several subscribers, e.g. a display, a recorder and analytics on one connection.
+ * Subscribers get frames as they request them, every one has its own queue and {@link OverflowPolicy}, so a slow
+ * subscriber never stalls a fast one, unless it chose {@link OverflowPolicy#BLOCK_UPSTREAM}.</p>
+ * <p>Frames aren't copied: each queue holds a {@link Frame#retain() reference} to the same frame.</p>
+ * <p>The hub is a {@link FrameListener}, so frames come from {@link IngestEngine} or an {@link AsyncStreamTransport},
+ * or {@link #readFrom(VideoSource)} pumps a blocking source. Subscribers are called on the executor, serially for
+ * each of them.</p>
+ *   <pre>
+ *   FrameHub hub = new FrameHub();
+ *   hub.subscribe(display, OverflowPolicy.KEEP_LATEST, 1);
+ *   hub.subscribe(recorder, OverflowPolicy.BUFFER, 256);
+ *   src.connect();
+ *   hub.readFrom(src);
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class FrameHub implements FrameListener, Closeable {
+
+    // a drain task may block in a slow subscriber, so tasks never wait for each other's threads
+    private static final Executor DEFAULT_EXECUTOR = StreamExecutors.newPerTaskExecutor("FrameHub");
+
+    private final Executor executor;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // written under the lock of subscriptions, so a late subscriber sees the cause
+    private volatile boolean closed;
+    private Exception closeCause;
+
+    /**
+     * Hub, which calls subscribers on threads of {@link StreamExecutors#newPerTaskExecutor(String)}, shared by all
+     * hubs, so a subscriber which blocks holds back no other one
+     */
+    public FrameHub() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param executor runs drain tasks of subscribers, a bounded pool lets a blocking subscriber hold back others
+     */
+    public FrameHub(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes to the stream. A subscriber which comes after the stream ended gets onComplete or onError at once.
+     * @param capacity frames queued for the subscriber before the policy applies, it's 1 for KEEP_LATEST
+     * @return the subscription, the same one the subscriber gets in onSubscribe
+     */
+    public Subscription subscribe(FrameSubscriber subscriber, OverflowPolicy policy, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        Subscription s = new Subscription(subscriber, policy, policy == OverflowPolicy.KEEP_LATEST ? 1 : capacity);
+        Exception cause;
+        boolean late;
+        synchronized (subscriptions) {
+            subscriptions.add(s);
+            late = closed;
+            cause = closeCause;
+        }
+        if (late)
+            s.terminate(cause);
+        s.drain();
+        return s;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Offers the frame to every subscriber and releases it
+     */
+    @Override
+    public void onFrame(Frame frame) {
+        try {
+            if (!closed) {
+                for (Subscription s : subscriptions) {
+                    s.offer(frame);
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Ends the stream: subscribers get onComplete after their queued frames, or onError at once
+     */
+    @Override
+    public void onClose(Exception cause) {
+        synchronized (subscriptions) {
+            if (closed)
+                return;
+            closeCause = cause;
+            closed = true;
+        }
+        for (Subscription s : subscriptions) {
+            s.terminate(cause);
+        }
+    }
+
+    /**
+     * Completes the stream, {@link #readFrom(VideoSource)} stops at the next frame
+     */
+    @Override
+    public void close() {
+        onClose(null);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Reads frames of a connected source into the hub until the stream ends, or the hub is closed.
+     * The hub is closed on return, with the error of the stream if it failed.
+     */
+    public void readFrom(VideoSource src) {
+        Exception cause = null;
+        try {
+            for (Frame frame : src.frames()) {
+                if (closed || frame.length() == 0) {
+                    frame.release();
+                    if (closed)
+                        break;
+                    continue;
+                }
+                onFrame(frame);
+            }
+        } catch (RuntimeException e) {
+            // see VideoSource how it wraps IOException and InterruptedException
+            cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        onClose(cause);
+    }
+
+    /**
+     * Subscription of one subscriber: its demand, queue and policy. The stream thread offers frames under the lock,
+     * and a drain task on the executor passes them to the subscriber, a single task at a time.
+     */
+    public final class Subscription {
+
+        private final FrameSubscriber subscriber;
+        private final OverflowPolicy policy;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final LongAdder dropped = new LongAdder();
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        };
+        // guarded by lock
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        private long demand;
+        private boolean cancelled;
+        private boolean done;
+        private Throwable error;
+        // touched by the drain task only
+        private boolean subscribed;
+        private boolean terminated;
+
+        Subscription(FrameSubscriber subscriber, OverflowPolicy policy, int capacity) {
+            this.subscriber = subscriber;
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Adds demand for <code>n</code> frames, Long.MAX_VALUE means unbounded
+         */
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            lock.lock();
+            try {
+                demand = Long.MAX_VALUE - demand < n ? Long.MAX_VALUE : demand + n;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        /**
+         * Stops frames, queued ones are released. No more signals come to the subscriber, though one already
+         * being delivered may still arrive.
+         */
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            subscriptions.remove(this);
+        }
+
+        public OverflowPolicy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return frames dropped by the policy
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        public int getQueuedCount() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void offer(Frame frame) {
+            lock.lock();
+            try {
+                if (cancelled || done)
+                    return;
+                if (queue.size() >= capacity) {
+                    switch (policy) {
+                    case KEEP_LATEST:
+                    case DROP_OLDEST:
+                        queue.poll().release();
+                        dropped.increment();
+                        break;
+                    case BUFFER:
+                        dropped.increment();
+                        fail(new IllegalStateException("Buffer of " + capacity + " frames overflowed"));
+                        return;
+                    case BLOCK_UPSTREAM:
+                        while (queue.size() >= capacity && !cancelled && !done) {
+                            notFull.await();
+                        }
+                        if (cancelled || done)
+                            return;
+                        break;
+                    }
+                }
+                queue.add(frame.retain());
+            } catch (InterruptedException e) {
+                // the stream is being stopped, the frame isn't queued
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        /**
+         * Ends the subscription because the stream ended, with an error or normally
+         */
+        void terminate(Exception cause) {
+            if (cause != null) {
+                fail(cause);
+                return;
+            }
+            lock.lock();
+            try {
+                done = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        /**
+         * Drops queued frames and signals onError as soon as the drain task runs
+         */
+        private void fail(Throwable t) {
+            lock.lock();
+            try {
+                if (done && error != null)
+                    return;
+                done = true;
+                error = t;
+                clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            subscriptions.remove(this);
+            drain();
+        }
+
+        private void clear() {
+            for (Frame f; (f = queue.poll()) != null;) {
+                f.release();
+            }
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                wip.set(0);
+                cancel();
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            for (;;) {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!terminated) {
+                    Frame frame = null;
+                    Throwable failure = null;
+                    boolean complete = false;
+                    lock.lock();
+                    try {
+                        if (cancelled)
+                            break;
+                        if (error != null) {
+                            failure = error;
+                            terminated = true;
+                        } else if (!queue.isEmpty() && demand > 0) {
+                            frame = queue.poll();
+                            if (demand != Long.MAX_VALUE)
+                                demand--;
+                            notFull.signal();
+                        } else if (queue.isEmpty() && done) {
+                            complete = true;
+                            terminated = true;
+                        } else {
+                            break;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (frame != null) {
+                        try {
+                            subscriber.onNext(frame);
+                        } catch (RuntimeException e) {
+                            // a broken subscriber is dropped, rather than stalling the drain
+                            e.printStackTrace();
+                            cancel();
+                        }
+                    } else if (failure != null) {
+                        subscriptions.remove(this);
+                        subscriber.onError(failure);
+                    } else if (complete) {
+                        subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package ru.synesis.media.player;
+
+/**
+ * Callbacks of a stream, which pushes frames as they arrive, e.g. a stream of {@link IngestEngine}.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface FrameListener {
+
+    /**
+     * Called for every complete frame. The listener owns the frame and has to release it.
+     * Note! It's called from an I/O thread, so it must not block.
+     */
+    void onFrame(Frame frame);
+
+    /**
+     * Called once when the stream ends, <code>cause</code> is null if it was closed normally
+     */
+    void onClose(Exception cause);
+
+}
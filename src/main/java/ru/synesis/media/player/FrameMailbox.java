@@ -0,0 +1,135 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Single slot mailbox between a stream reader and a slow consumer, like a JPEG decoder, where the latest frame wins.</p>
+ * <p>{@link #put(Frame)} never blocks: a frame, which hasn't been taken yet, is released and counted as dropped.
+ * So the reader keeps draining the socket at line rate, and the consumer always gets the newest frame, whatever
+ * its speed is.</p>
+ * <p>Uses a lock rather than synchronized, so it may be used from virtual threads.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class FrameMailbox {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+    private Frame frame;
+    private boolean closed;
+    // length of the frame in the slot, readable without the lock
+    private volatile int bufferedBytes;
+
+    /**
+     * Puts a frame, overwriting the previous one. The mailbox takes over the reference of the caller.
+     * A frame put into a closed mailbox is released.
+     * @return true if a frame, which hasn't been taken, was dropped
+     */
+    public boolean put(Frame f) {
+        Frame old;
+        lock.lock();
+        try {
+            if (closed) {
+                f.release();
+                return false;
+            }
+            old = frame;
+            frame = f;
+            bufferedBytes = f.length();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (old != null) {
+            old.release();
+            dropped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a frame, the caller owns the frame and has to release it.
+     * @return the latest frame or null if the mailbox is closed
+     * @throws InterruptedException
+     */
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frame == null && !closed) {
+                notEmpty.await();
+            }
+            Frame f = frame;
+            frame = null;
+            bufferedBytes = 0;
+            return f;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the latest frame or null if there is none, the caller has to release it
+     */
+    public Frame poll() {
+        lock.lock();
+        try {
+            Frame f = frame;
+            frame = null;
+            bufferedBytes = 0;
+            return f;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if there is a frame, which hasn't been taken yet
+     */
+    public boolean hasFrame() {
+        lock.lock();
+        try {
+            return frame != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the mailbox, releases a frame in it and wakes up the consumer
+     */
+    public void close() {
+        Frame old;
+        lock.lock();
+        try {
+            closed = true;
+            old = frame;
+            frame = null;
+            bufferedBytes = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (old != null)
+            old.release();
+    }
+
+    /**
+     * @return number of frames overwritten before they were taken
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return length of the frame waiting in the mailbox, it doesn't take the lock
+     */
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+}
@@ -0,0 +1,161 @@
+package ru.synesis.media.player;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Size classed and bounded pool of frame buffers.</p>
+ * <p>Buffers are grouped by power of two size classes, from {@link #MIN_CLASS_SIZE} to {@link #MAX_CLASS_SIZE},
+ * so a buffer of one class serves any frame of that class. Idle buffers are kept up to <code>maxIdleBytes</code>
+ * in total, everything above is left to GC. Frames larger than {@link #MAX_CLASS_SIZE} are never pooled.</p>
+ * <p>The pool counts bytes of heap buffers held by frames not released yet, see {@link #getUsedBytes()}, so
+ * {@link MemoryGovernor} knows how much memory frames of all streams take, wherever they're queued.</p>
+ * <p>The pool is thread safe, {@link #shared()} one is used by all VideoSource instances of the JVM by default.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class FramePool {
+
+    public static final int MIN_CLASS_SIZE = 16 * 1024;
+    public static final int MAX_CLASS_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_IDLE_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final FramePool SHARED = new FramePool(DEFAULT_MAX_IDLE_BYTES);
+
+    private final List<Queue<byte[]>> classes;
+    private final long maxIdleBytes;
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FramePool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+        this.classes = new ArrayList<>(sizeClass(MAX_CLASS_SIZE) + 1);
+        for (int i = 0; i <= sizeClass(MAX_CLASS_SIZE); i++) {
+            classes.add(new ConcurrentLinkedQueue<byte[]>());
+        }
+    }
+
+    /**
+     * @return pool shared by all VideoSource instances of the JVM
+     */
+    public static FramePool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a frame with a buffer of at least <code>length</code> bytes, the frame has one reference.
+     */
+    public Frame acquire(int length) {
+        return acquireHeap(length);
+    }
+
+    /**
+     * Takes a frame with a heap buffer, for readers which fill {@link Frame#array()}, e.g. a blocking VideoSource
+     */
+    Frame acquireHeap(int length) {
+        if (length > MAX_CLASS_SIZE) {
+            misses.incrementAndGet();
+            usedBytes.addAndGet(length);
+            return new Frame(this, new byte[length], length);
+        }
+        int sizeClass = sizeClass(length);
+        byte[] buffer = classes.get(sizeClass).poll();
+        if (buffer != null) {
+            idleBytes.addAndGet(-buffer.length);
+            hits.incrementAndGet();
+        } else {
+            buffer = new byte[MIN_CLASS_SIZE << sizeClass];
+            misses.incrementAndGet();
+        }
+        usedBytes.addAndGet(buffer.length);
+        return new Frame(this, buffer, length);
+    }
+
+    /**
+     * Returns a buffer to the pool, it's called by the last {@link Frame#release()}
+     */
+    void recycle(byte[] buffer) {
+        usedBytes.addAndGet(-buffer.length);
+        if (buffer.length > MAX_CLASS_SIZE)
+            return;
+        for (;;) {
+            long idle = idleBytes.get();
+            if (idle + buffer.length > maxIdleBytes)
+                return;
+            if (idleBytes.compareAndSet(idle, idle + buffer.length))
+                break;
+        }
+        classes.get(sizeClass(buffer.length)).offer(buffer);
+    }
+
+    /**
+     * Returns an off-heap block, it's called by the last {@link Frame#release()} of a {@link FrameStore} frame
+     */
+    void recycle(ByteBuffer block) {
+    }
+
+    /**
+     * Leaves idle buffers to GC, e.g. when memory is short
+     * @return bytes of the buffers
+     */
+    public long trim() {
+        long trimmed = 0;
+        for (Queue<byte[]> q : classes) {
+            for (byte[] buffer; (buffer = q.poll()) != null;) {
+                idleBytes.addAndGet(-buffer.length);
+                trimmed += buffer.length;
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * @return bytes held by idle buffers
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * @return bytes of heap buffers held by frames, which haven't been released yet
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return bytes of memory the pool takes: buffers of frames in use and idle ones
+     */
+    public long getAllocatedBytes() {
+        return usedBytes.get() + idleBytes.get();
+    }
+
+    /**
+     * @return number of frames served with a pooled buffer
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of frames which needed a new buffer
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    static int sizeClass(int length) {
+        if (length <= MIN_CLASS_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+    }
+
+}
@@ -0,0 +1,176 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Off-heap frame pool: frames are blocks of direct memory, so with hundreds of streams the frames in flight don't
+ * live on the Java heap, and its size doesn't depend on the number of cameras and their resolution.</p>
+ * <p>The store is an arena. It reserves direct memory in slabs of {@value #SLAB_SIZE} bytes up to its capacity,
+ * and cuts them into blocks of the same power of two size classes as {@link FramePool}. A released block goes
+ * back to its class, the memory is given back only when the store is {@link #close() closed}. A frame, which is
+ * still in use then, stays valid, since its block holds the slab, the memory goes away with the last of them.</p>
+ * <p>{@link IngestEngine} reads bodies with Content-Length from the socket straight into the block, and consumers
+ * read it in place through {@link Frame#buffer()} or {@link Frame#inputStream()}. Frames which don't fit, because
+ * they're larger than {@link #MAX_CLASS_SIZE} or the store is full, are taken on the heap, see
+ * {@link #getSpillCount()}.</p>
+ *   <pre>
+ *   FrameStore store = new FrameStore(512L &lt;&lt; 20);
+ *   IngestEngine engine = new IngestEngine(4, store);
+ *   </pre>
+ * <p>An engine adds its store to {@link MemoryGovernor#shared()}, so the reserved memory counts against
+ * the global cap.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class FrameStore extends FramePool implements Closeable {
+
+    public static final int SLAB_SIZE = 2 * MAX_CLASS_SIZE;
+    public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+    // heap frames are the exception, so few of them are kept for reuse
+    private static final long MAX_IDLE_HEAP_BYTES = 8L * 1024 * 1024;
+
+    private final long capacity;
+    private final List<Queue<ByteBuffer>> blocks;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    // guarded by lock, blocks are cut from its position
+    private ByteBuffer slab;
+    private volatile boolean closed;
+
+    public FrameStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity most bytes of direct memory the store reserves, it's rounded up to slabs
+     */
+    public FrameStore(long capacity) {
+        super(MAX_IDLE_HEAP_BYTES);
+        this.capacity = capacity;
+        this.blocks = new ArrayList<>(sizeClass(MAX_CLASS_SIZE) + 1);
+        for (int i = 0; i <= sizeClass(MAX_CLASS_SIZE); i++) {
+            blocks.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Takes an off-heap frame of at least <code>length</code> bytes, or a heap one if it doesn't fit
+     */
+    @Override
+    public Frame acquire(int length) {
+        if (length <= MAX_CLASS_SIZE && !closed) {
+            int sizeClass = sizeClass(length);
+            ByteBuffer block = blocks.get(sizeClass).poll();
+            if (block == null)
+                block = cut(sizeClass);
+            if (block != null)
+                return new Frame(this, block, length);
+        }
+        spills.incrementAndGet();
+        return acquireHeap(length);
+    }
+
+    /**
+     * Cuts a new block from the slab, reserving a new slab if it's used up
+     * @return the block or null if the store is full
+     */
+    private ByteBuffer cut(int sizeClass) {
+        int size = MIN_CLASS_SIZE << sizeClass;
+        lock.lock();
+        try {
+            if (closed)
+                return null;
+            if (slab == null || slab.remaining() < size) {
+                if (reservedBytes.get() >= capacity)
+                    return null;
+                if (slab != null)
+                    cutRest();
+                slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+                reservedBytes.addAndGet(SLAB_SIZE);
+            }
+            return cutBlock(size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the rest of the slab to smaller classes, so no direct memory is wasted
+     */
+    private void cutRest() {
+        while (slab.remaining() >= MIN_CLASS_SIZE) {
+            int size = Integer.highestOneBit(slab.remaining());
+            blocks.get(sizeClass(size)).offer(cutBlock(size));
+        }
+    }
+
+    private ByteBuffer cutBlock(int size) {
+        int at = slab.position();
+        ByteBuffer b = slab.duplicate();
+        b.limit(at + size);
+        slab.position(at + size);
+        return b.slice();
+    }
+
+    @Override
+    void recycle(ByteBuffer block) {
+        if (!closed)
+            blocks.get(sizeClass(block.capacity())).offer(block);
+    }
+
+    /**
+     * @return bytes of direct memory reserved by the store
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return reserved direct memory, plus heap buffers of spilled frames in use and idle ones
+     */
+    @Override
+    public long getAllocatedBytes() {
+        return reservedBytes.get() + super.getAllocatedBytes();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of frames which didn't fit the store and were taken on the heap
+     */
+    public long getSpillCount() {
+        return spills.get();
+    }
+
+    /**
+     * Gives up the slabs, new frames are taken on the heap. Direct memory is freed by the JVM once the slabs and
+     * the blocks of frames still in use are unreachable.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            slab = null;
+            for (Queue<ByteBuffer> q : blocks) {
+                q.clear();
+            }
+            reservedBytes.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package ru.synesis.media.player;
+
+/**
+ * <p>Subscriber of a {@link FrameHub}. It has the contract of java.util.concurrent.Flow.Subscriber, which
+ * the project can't refer to while it's built for Java 8, see FramePublisher of the java11 profile for
+ * the Flow view.</p>
+ * <p>Methods of a subscriber are called serially by the hub's executor. A frame passed to {@link #onNext(Frame)}
+ * is owned by the subscriber, so it has to be released.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface FrameSubscriber {
+
+    /**
+     * Called first, no frames come before {@link FrameHub.Subscription#request(long)}
+     */
+    void onSubscribe(FrameHub.Subscription subscription);
+
+    void onNext(Frame frame);
+
+    /**
+     * Called once if the stream failed, or the subscription overflowed
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called once when the stream ended and all queued frames were delivered
+     */
+    void onComplete();
+
+}
@@ -0,0 +1,314 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.scene.image.Image;
+
+/**
+ * <p>One stream of {@link GridView}. It's read by the shared {@link IngestEngine} and decoded by the shared
+ * {@link DecodeScheduler}, so a tile holds no threads of its own.</p>
+ * <p>Frames go to a latest-frame-wins mailbox, the tile decodes no more than <code>maxFps</code> frames per second,
+ * only visible pixels (see {@link ScaledJpegDecoder}), and only while it's visible. A hidden tile keeps
+ * its connection alive, but drops frames without decoding. Frames are decoded into the {@link RenderBuffer} of
+ * the tile, so its image is updated in place.</p>
+ * <p>With a {@link MotionGate}, see {@link #setMotionGate(MotionGate)}, frames of a still scene are thinned out
+ * before they get to the mailbox. They're scored by a {@link MotionStage} off the I/O thread.</p>
+ * <p>When memory is short, {@link MemoryGovernor} makes the tile decode at a lower resolution, then skip every other
+ * frame, and finally closes its stream with an error.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class GridTile extends DecodeScheduler.Job implements FrameListener, StreamMetrics, LoadShedder {
+
+    private final String url;
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+    private final Viewport viewport = new Viewport();
+    private final RenderBuffer renderBuffer = new RenderBuffer();
+    private final StreamStats stats = new StreamStats();
+    private final long minIntervalNanos;
+    // set once the decoder is closed, by the decode job after the tile is closed
+    private final AtomicBoolean decoderClosed = new AtomicBoolean();
+    private volatile boolean visible = true;
+    private volatile IngestStream stream;
+    private volatile Exception error;
+    private volatile boolean closed;
+    private volatile ShedLevel shedLevel = ShedLevel.NONE;
+    private volatile String metricsName;
+    private volatile MotionStage motionStage;
+    // touched by the decode job only, it never runs concurrently with itself
+    private long nextDecodeNanos;
+    // hash of the last frame passed to the mailbox, touched by the I/O thread only
+    private long lastHash;
+    private long frameIndex;
+
+    public GridTile(String url, DecodeScheduler scheduler, double maxFps) {
+        super(scheduler);
+        this.url = url;
+        this.minIntervalNanos = maxFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxFps) : 0;
+    }
+
+    /**
+     * Connects to the stream, user:password may be given in the URL
+     * @throws IOException
+     */
+    public void open(IngestEngine engine) throws IOException {
+        String username = null;
+        String password = null;
+        String userInfo = new URL(url).getUserInfo();
+        if (userInfo != null) {
+            String[] up = userInfo.split(":", 2);
+            username = up[0];
+            password = up.length > 1 ? up[1] : null;
+        }
+        stats.start();
+        metricsName = MetricsRegistry.shared().register(MetricsRegistry.streamName(url), this);
+        stream = engine.open(url, username, password, this);
+    }
+
+    public void close() {
+        closed = true;
+        unregister();
+        IngestStream s = stream;
+        if (s != null)
+            s.close();
+        closeMotionStage();
+        mailbox.close();
+        closeDecoder();
+    }
+
+    /**
+     * Sets the gate, which decides by motion scores what frames the tile decodes, e.g. a still scene once
+     * a second. It's off by default, and it's to be set before the tile is opened.
+     */
+    public void setMotionGate(MotionGate gate) {
+        motionStage = gate == null ? null : new MotionStage(new MotionDetector(), gate.filter(new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                queueForDecode(frame);
+            }
+            @Override
+            public void onClose(Exception cause) {
+            }
+        }));
+    }
+
+    private void closeMotionStage() {
+        MotionStage m = motionStage;
+        if (m != null)
+            m.onClose(null);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Hidden tiles don't decode, a frame waiting for decode is dropped
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        if (!visible) {
+            Frame frame = mailbox.poll();
+            if (frame != null) {
+                frame.release();
+                stats.frameDropped();
+            }
+        } else {
+            schedule();
+        }
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Copies the latest decoded frame, which hasn't been shown yet, into the image of the tile, it's called by
+     * the FX thread on a pulse
+     * @return the image, the same one while the size of frames stays the same, or null
+     */
+    public Image pollImage() {
+        return renderBuffer.render();
+    }
+
+    /**
+     * @return the error the stream has been closed with, or null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getFrameCount() {
+        return stats.getFrameCount();
+    }
+
+    public long getErrorFrameCount() {
+        return stats.getErrorFrameCount();
+    }
+
+    /**
+     * @return number of frames which weren't decoded, because a newer one came first or the tile was hidden
+     */
+    public long getDroppedFrameCount() {
+        return stats.getDroppedFrameCount();
+    }
+
+    /**
+     * @return number of frames which weren't decoded, because they were the same as the previous one
+     */
+    public long getDuplicateFrameCount() {
+        return stats.getDuplicateFrameCount();
+    }
+
+    @Override
+    public StreamStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        IngestStream s = stream;
+        MotionStage m = motionStage;
+        return mailbox.getBufferedBytes() + (s != null ? s.getBufferedBytes() : 0) + renderBuffer.getBufferedBytes()
+                + (m != null ? m.getBufferedBytes() : 0);
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        stats.frameRead(frame.length());
+        if (!visible || closed) {
+            stats.frameDropped();
+            frame.release();
+            return;
+        }
+        // cameras resend the same JPEG on static scenes, it's already shown
+        long hash = frame.hash();
+        if (hash == lastHash) {
+            stats.frameDuplicate();
+            frame.release();
+            return;
+        }
+        lastHash = hash;
+        if (shedLevel.atLeast(ShedLevel.SKIP_FRAMES) && (frameIndex++ & 1) != 0) {
+            stats.frameDropped();
+            frame.release();
+            return;
+        }
+        MotionStage m = motionStage;
+        if (m != null)
+            m.onFrame(frame);
+        else
+            queueForDecode(frame);
+    }
+
+    private void queueForDecode(Frame frame) {
+        if (mailbox.put(frame))
+            stats.frameDropped();
+        schedule();
+    }
+
+    /**
+     * Called by {@link MemoryGovernor}, the stream is closed at {@link ShedLevel#DISCONNECT}
+     */
+    @Override
+    public void setShedLevel(ShedLevel level) {
+        shedLevel = level;
+        if (level == ShedLevel.DISCONNECT) {
+            IngestStream s = stream;
+            if (s != null)
+                s.close();
+        }
+    }
+
+    @Override
+    public void onClose(Exception cause) {
+        if (cause == null && shedLevel == ShedLevel.DISCONNECT)
+            cause = new IOException("Disconnected by MemoryGovernor, memory is over the budget: "
+                    + MetricsRegistry.streamName(url));
+        error = cause;
+        closed = true;
+        unregister();
+        closeMotionStage();
+        mailbox.close();
+        closeDecoder();
+    }
+
+    /**
+     * The decoder is closed by the decode job, so it's never closed under a decode which is running
+     */
+    private void closeDecoder() {
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            // the scheduler is shut down, the job doesn't run anymore
+            if (decoderClosed.compareAndSet(false, true))
+                decoder.close();
+        }
+    }
+
+    private void unregister() {
+        String name = metricsName;
+        metricsName = null;
+        if (name != null)
+            MetricsRegistry.shared().unregister(name);
+    }
+
+    @Override
+    protected long execute() {
+        if (closed) {
+            if (decoderClosed.compareAndSet(false, true))
+                decoder.close();
+            return -1;
+        }
+        long now = System.nanoTime();
+        if (now < nextDecodeNanos)
+            return nextDecodeNanos - now;
+        Frame frame = mailbox.poll();
+        if (frame == null)
+            return -1;
+        try {
+            if (!visible) {
+                stats.frameDropped();
+                return -1;
+            }
+            nextDecodeNanos = now + minIntervalNanos;
+            JpegHeader header = JpegHeader.parse(frame.buffer());
+            if (header == null || !header.isComplete()) {
+                stats.frameError();
+                return -1;
+            }
+            decoder.setMinSubsampling(shedLevel.atLeast(ShedLevel.REDUCE_RESOLUTION)
+                    ? MemoryGovernor.REDUCED_SUBSAMPLING : 1);
+            BufferedImage image = decoder.decode(frame, header,
+                    ScaledJpegDecoder.isReduced(header, viewport) ? viewport : null, renderBuffer);
+            stats.frameDecoded(System.nanoTime() - now);
+            renderBuffer.publish(image);
+        } catch (IOException e) {
+            stats.frameError();
+        } finally {
+            frame.release();
+        }
+        return -1;
+    }
+
+    @Override
+    protected boolean hasWork() {
+        return closed ? !decoderClosed.get() : visible && mailbox.hasFrame();
+    }
+
+}
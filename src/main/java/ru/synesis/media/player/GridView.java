@@ -0,0 +1,150 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Bounds;
+import javafx.geometry.Pos;
+import javafx.scene.Parent;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+
+/**
+ * <p>Grid of many motion jpeg (multipart/x-mixed-replace) streams, like 16 - 64 cameras on one screen.</p>
+ * <p>Tiles don't have threads of their own: they are read by a shared {@link IngestEngine} and decoded by a shared
+ * {@link DecodeScheduler}. One AnimationTimer shows the latest images of all tiles, and checks which tiles are
+ * scrolled out of sight or in a minimized window, so those stop decoding and the CPU goes to what is visible.</p>
+ *
+ * @see GridTile
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class GridView {
+
+    private static final double TILE_WIDTH = 320;
+    private static final double TILE_HEIGHT = 240;
+    private static final long VISIBILITY_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final List<GridTile> tiles = new ArrayList<>();
+    private final List<StackPane> panes = new ArrayList<>();
+    private final List<ImageView> views = new ArrayList<>();
+    private final List<Label> labels = new ArrayList<>();
+    private final ScrollPane scrollPane;
+    private final Stage stage;
+    private long lastVisibilityCheck;
+
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (now - lastVisibilityCheck >= VISIBILITY_INTERVAL) {
+                lastVisibilityCheck = now;
+                updateVisibility();
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                GridTile tile = tiles.get(i);
+                Image image = tile.pollImage();
+                if (image != null)
+                    views.get(i).setImage(image);
+            }
+        }
+    };
+
+    /**
+     * @param maxFps per tile decode rate cap, 0 means no cap
+     */
+    public GridView(Stage stage, List<String> urls, DecodeScheduler scheduler, double maxFps) {
+        this.stage = stage;
+        GridPane grid = new GridPane();
+        grid.getStyleClass().add("grid");
+        int columns = (int) Math.ceil(Math.sqrt(urls.size()));
+        for (int i = 0; i < urls.size(); i++) {
+            GridTile tile = new GridTile(urls.get(i), scheduler, maxFps);
+            ImageView view = new ImageView();
+            view.setPreserveRatio(true);
+            view.setFitWidth(TILE_WIDTH);
+            view.setFitHeight(TILE_HEIGHT);
+            Label label = new Label(urls.get(i));
+            label.getStyleClass().add("tileLabel");
+            StackPane pane = new StackPane();
+            pane.getChildren().addAll(view, label);
+            StackPane.setAlignment(label, Pos.BOTTOM_LEFT);
+            pane.setPrefSize(TILE_WIDTH, TILE_HEIGHT);
+            pane.getStyleClass().add("tile");
+            tile.getViewport().setSize(TILE_WIDTH, TILE_HEIGHT);
+            grid.add(pane, i % columns, i / columns);
+            tiles.add(tile);
+            panes.add(pane);
+            views.add(view);
+            labels.add(label);
+        }
+        scrollPane = new ScrollPane();
+        scrollPane.setContent(grid);
+        scrollPane.getStyleClass().add("gridScroll");
+    }
+
+    /**
+     * Thins out frames of still scenes in every tile, see {@link MotionGate}. It's to be called before
+     * {@link #start(IngestEngine)}.
+     */
+    public void setMotionGate(float threshold, long holdMillis, long idleIntervalMillis) {
+        for (GridTile tile : tiles) {
+            tile.setMotionGate(new MotionGate(threshold, holdMillis, idleIntervalMillis));
+        }
+    }
+
+    public Parent getNode() {
+        return scrollPane;
+    }
+
+    public List<GridTile> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Connects all tiles and starts showing them, an error of a tile is shown in its label
+     */
+    public void start(IngestEngine engine) {
+        for (int i = 0; i < tiles.size(); i++) {
+            try {
+                tiles.get(i).open(engine);
+            } catch (IOException e) {
+                labels.get(i).setText(tiles.get(i).getUrl() + ": " + e.getMessage());
+            }
+        }
+        pulse.start();
+    }
+
+    public void close() {
+        pulse.stop();
+        for (GridTile tile : tiles) {
+            tile.close();
+        }
+    }
+
+    /**
+     * Tiles which are out of the scroll pane viewport or in a minimized window stop decoding
+     */
+    private void updateVisibility() {
+        boolean showing = stage.isShowing() && !stage.isIconified();
+        Bounds view = scrollPane.localToScene(scrollPane.getLayoutBounds());
+        for (int i = 0; i < tiles.size(); i++) {
+            StackPane pane = panes.get(i);
+            GridTile tile = tiles.get(i);
+            boolean visible = showing && view.intersects(pane.localToScene(pane.getLayoutBounds()));
+            if (visible != tile.isVisible())
+                tile.setVisible(visible);
+            if (tile.isClosed() && tile.getError() != null)
+                labels.get(i).setText(tile.getUrl() + ": " + tile.getError().getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Non-blocking engine, which reads hundreds of motion jpeg (multipart/x-mixed-replace) streams with a small fixed
+ * set of event loop threads, instead of a thread and a blocking connection per stream, like VideoSource does.</p>
+ * <p>Every event loop has its own Selector, streams are spread between loops round robin. Parts are parsed
+ * incrementally by {@link MultipartParser} as bytes arrive, complete frames are passed to the stream's
+ * {@link FrameListener} right from the event loop thread.</p>
+ *   <pre>
+ *   IngestEngine engine = new IngestEngine(2);
+ *   IngestStream stream = engine.open("http://camera/video.cgi", null, null, listener);
+ *   ...
+ *   stream.close();
+ *   engine.close();
+ *   </pre>
+ * <p>Only plain http is supported.</p>
+ *
+ * @see IngestStream
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class IngestEngine implements Closeable {
+
+    /** Stream is closed if no bytes come for this time, 0 means no timeout */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final FramePool framePool;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    public IngestEngine(int threads) throws IOException {
+        this(threads, FramePool.shared());
+    }
+
+    /**
+     * @param framePool pool of frames, e.g. a {@link FrameStore}, it's added to {@link MemoryGovernor#shared()}
+     * until the engine is closed
+     */
+    public IngestEngine(int threads, FramePool framePool) throws IOException {
+        this.framePool = framePool;
+        MemoryGovernor.shared().addPool(framePool);
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread t = new Thread(loops[i], "IngestEngine-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Sets read timeout in milliseconds for streams opened after this call, 0 means no timeout
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Starts connecting to a stream. The method doesn't wait for the connection, errors come to
+     * {@link FrameListener#onClose(Exception)}.
+     *
+     * @param username user for HTTP Basic authentication, or null
+     * @throws IOException if the URL is malformed or the host is unknown
+     */
+    public IngestStream open(String urlString, String username, String password, FrameListener listener) throws IOException {
+        URL url = new URL(urlString);
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            throw new IOException("Unsupported protocol: " + url.getProtocol());
+        InetSocketAddress address = new InetSocketAddress(url.getHost(), url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+        if (address.isUnresolved())
+            throw new IOException("Unknown host: " + url.getHost());
+        EventLoop loop = loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+        final IngestStream stream = new IngestStream(loop, url, address, username, password, framePool, listener, readTimeout);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                stream.connect();
+            }
+        });
+        return stream;
+    }
+
+    /**
+     * Closes all streams and stops event loops
+     */
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+        MemoryGovernor.shared().removePool(framePool);
+    }
+
+    /**
+     * Thread with a Selector, which serves I/O of its streams. Tasks of other threads, like connecting or closing
+     * a stream, are queued and run on the loop thread.
+     */
+    static class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT);
+                    for (Runnable task; (task = tasks.poll()) != null;) {
+                        task.run();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        ((IngestStream) key.attachment()).handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.nanoTime();
+                    for (SelectionKey key : selector.keys()) {
+                        ((IngestStream) key.attachment()).checkTimeout(now);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((IngestStream) key.attachment()).closeNow(null);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+    }
+
+}
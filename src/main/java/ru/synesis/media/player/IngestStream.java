@@ -0,0 +1,199 @@
+package ru.synesis.media.player;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>One motion jpeg (multipart/x-mixed-replace) stream of {@link IngestEngine}.</p>
+ * <p>All I/O happens on the event loop thread the stream belongs to: it connects, sends HTTP request, reads and checks
+ * the response head in the same way as VideoSource.connect() does, and then feeds {@link MultipartParser}.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class IngestStream {
+
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+
+    private final IngestEngine.EventLoop loop;
+    private final URL url;
+    // URL without user info, for messages
+    private final String name;
+    private final InetSocketAddress address;
+    private final String username;
+    private final String password;
+    private final FramePool framePool;
+    private final FrameListener listener;
+    private final long readTimeoutNanos;
+
+    // state below is touched by the event loop thread only
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer request;
+    private ByteBuffer head = ByteBuffer.allocate(1024);
+    private MultipartParser parser;
+    private long lastReadNanos;
+    private volatile boolean closed;
+
+    IngestStream(IngestEngine.EventLoop loop, URL url, InetSocketAddress address, String username, String password,
+            FramePool framePool, FrameListener listener, int readTimeout) {
+        this.loop = loop;
+        this.url = url;
+        this.name = MetricsRegistry.streamName(url.toString());
+        this.address = address;
+        this.username = username;
+        this.password = password;
+        this.framePool = framePool;
+        this.listener = listener;
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+    }
+
+    public String getUrl() {
+        return url.toString();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the stream asynchronously, {@link FrameListener#onClose(Exception)} is called with null
+     */
+    public void close() {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeNow(null);
+            }
+        });
+    }
+
+    void connect() {
+        if (closed)
+            return;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            request = ByteBuffer.wrap(SocketTransport.request(url, username, password).getBytes(StandardCharsets.ISO_8859_1));
+            lastReadNanos = System.nanoTime();
+            if (channel.connect(address)) {
+                key = channel.register(loop.selector(), SelectionKey.OP_WRITE, this);
+            } else {
+                key = channel.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            closeNow(e);
+        }
+    }
+
+    void handle(SelectionKey key) {
+        try {
+            if (!key.isValid())
+                return;
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                channel.write(request);
+                if (!request.hasRemaining()) {
+                    request = null;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                read();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeNow(e);
+        }
+    }
+
+    void checkTimeout(long now) {
+        if (!closed && readTimeoutNanos > 0 && now - lastReadNanos > readTimeoutNanos)
+            closeNow(new SocketTimeoutException("Read timed out: " + name));
+    }
+
+    /**
+     * @return bytes buffered by the stream parser
+     */
+    long getBufferedBytes() {
+        MultipartParser p = parser;
+        return p != null ? p.getBufferedBytes() : 0;
+    }
+
+    void closeNow(Exception cause) {
+        if (closed)
+            return;
+        closed = true;
+        if (parser != null)
+            parser.close();
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        listener.onClose(cause);
+    }
+
+    private void read() throws IOException {
+        int bytes;
+        if (parser == null) {
+            bytes = channel.read(head);
+            if (bytes > 0)
+                parseHead();
+        } else {
+            ByteBuffer buffer = parser.readBuffer();
+            bytes = channel.read(buffer);
+            if (bytes > 0)
+                parser.advance(bytes);
+        }
+        if (bytes < 0)
+            throw new EOFException("End of stream: " + name);
+        if (bytes > 0)
+            lastReadNanos = System.nanoTime();
+        if (parser != null && parser.isDone())
+            closeNow(null);
+    }
+
+    /**
+     * Waits for the complete response head, then checks status and Content-Type,
+     * the rest of the bytes go to the parser
+     */
+    private void parseHead() throws IOException {
+        byte[] a = head.array();
+        int end = -1;
+        for (int lf = MultipartBoundary.indexOfLF(a, 0, head.position()); lf >= 0;
+                lf = MultipartBoundary.indexOfLF(a, lf + 1, head.position())) {
+            int next = MultipartBoundary.indexOfLF(a, lf + 1, head.position());
+            if (next >= 0 && MultipartBoundary.isBlank(a, lf + 1, next)) {
+                end = next + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!head.hasRemaining()) {
+                if (head.capacity() >= MAX_HEAD_SIZE)
+                    throw new IOException("Response head is too large: " + name);
+                ByteBuffer b = ByteBuffer.allocate(head.capacity() * 2);
+                head.flip();
+                head = b.put(head);
+            }
+            return;
+        }
+        String contentType = SocketTransport.checkHead(new String(a, 0, end, StandardCharsets.ISO_8859_1), url);
+        parser = new MultipartParser(new MultipartBoundary(VideoSource.boundaryPart(contentType)), framePool, listener);
+        parser.setMaxPartSize(MemoryGovernor.shared().getMaxFrameSize());
+        parser.feed(a, end, head.position() - end);
+        head = null;
+    }
+
+}
@@ -0,0 +1,235 @@
+package ru.synesis.media.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Lightweight JPEG marker parser, which gets frame dimensions and component info straight from frame bytes,
+ * without decoding the image.</p>
+ * <p>It walks marker segments from SOI up to SOS, takes SOFn and DQT segments, and checks that the frame ends with EOI,
+ * so truncated or corrupt frames may be rejected in microseconds, before they get to the expensive decode.</p>
+ *   <pre>
+ *   JpegHeader header = JpegHeader.parse(frame.buffer());
+ *   if (header == null || !header.isComplete()) {
+ *       // corrupt frame
+ *   }
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public final class JpegHeader {
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int TEM = 0x01;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF2 = 0xC2;
+    private static final int DHT = 0xC4;
+    private static final int JPG = 0xC8;
+    private static final int DAC = 0xCC;
+    // bytes some cameras send after EOI, besides padding, see isPadding()
+    private static final int MAX_TRAILER = 16;
+
+    private int sofMarker;
+    private int precision;
+    private int width;
+    private int height;
+    private int componentCount;
+    private final int[] componentIds = new int[4];
+    private final int[] hSampling = new int[4];
+    private final int[] vSampling = new int[4];
+    private final int[] quantTables = new int[4];
+    private int dqtCount;
+    private boolean eoi;
+
+    private JpegHeader() {
+    }
+
+    /**
+     * Parses JPEG markers of <code>a[offset, offset + length)</code>
+     * @return header or null if it's not a JPEG, or it has no SOFn before SOS, or a segment is broken
+     */
+    public static JpegHeader parse(byte[] a, int offset, int length) {
+        return parse(ByteBuffer.wrap(a), offset, length);
+    }
+
+    /**
+     * Parses JPEG markers of the remaining bytes of a buffer, e.g. of {@link Frame#buffer()}, which may be
+     * off-heap. The position of the buffer doesn't change.
+     */
+    public static JpegHeader parse(ByteBuffer b) {
+        return parse(b, b.position(), b.remaining());
+    }
+
+    /**
+     * Parses JPEG markers of bytes from <code>offset</code> to <code>offset + length</code> of a buffer
+     */
+    public static JpegHeader parse(ByteBuffer a, int offset, int length) {
+        int end = offset + length;
+        if (length < 4 || (a.get(offset) & 0xFF) != 0xFF || (a.get(offset + 1) & 0xFF) != SOI)
+            return null;
+        JpegHeader h = new JpegHeader();
+        int i = offset + 2;
+        for (;;) {
+            // markers may be preceded by any number of fill bytes 0xFF
+            if (i >= end || (a.get(i) & 0xFF) != 0xFF)
+                return null;
+            while (i < end && (a.get(i) & 0xFF) == 0xFF)
+                i++;
+            if (i >= end)
+                return null;
+            int marker = a.get(i++) & 0xFF;
+            if (marker == TEM || (marker >= 0xD0 && marker <= 0xD7))
+                continue;
+            if (marker == EOI || marker == 0)
+                return null;
+            if (i + 2 > end)
+                return null;
+            int segment = ((a.get(i) & 0xFF) << 8) | (a.get(i + 1) & 0xFF);
+            if (segment < 2 || i + segment > end)
+                return null;
+            if (marker >= SOF0 && marker <= 0xCF && marker != DHT && marker != JPG && marker != DAC) {
+                if (!h.parseSof(marker, a, i + 2, segment - 2))
+                    return null;
+            } else if (marker == DQT) {
+                h.parseDqt(a, i + 2, segment - 2);
+            } else if (marker == SOS) {
+                if (h.sofMarker == 0)
+                    return null;
+                h.eoi = endsWithEoi(a, i + segment, end);
+                return h;
+            }
+            i += segment;
+        }
+    }
+
+    private boolean parseSof(int marker, ByteBuffer a, int i, int length) {
+        if (length < 6)
+            return false;
+        sofMarker = marker;
+        precision = a.get(i) & 0xFF;
+        height = ((a.get(i + 1) & 0xFF) << 8) | (a.get(i + 2) & 0xFF);
+        width = ((a.get(i + 3) & 0xFF) << 8) | (a.get(i + 4) & 0xFF);
+        componentCount = a.get(i + 5) & 0xFF;
+        if (componentCount == 0 || componentCount > 4 || length < 6 + componentCount * 3 || width == 0)
+            return false;
+        for (int c = 0, j = i + 6; c < componentCount; c++, j += 3) {
+            componentIds[c] = a.get(j) & 0xFF;
+            hSampling[c] = (a.get(j + 1) & 0xFF) >> 4;
+            vSampling[c] = a.get(j + 1) & 0x0F;
+            quantTables[c] = a.get(j + 2) & 0xFF;
+        }
+        return true;
+    }
+
+    private void parseDqt(ByteBuffer a, int i, int length) {
+        // a segment may hold several tables: Pq/Tq byte and 64 entries of 8 or 16 bits
+        for (int end = i + length; i < end; dqtCount++) {
+            i += 1 + ((a.get(i) & 0xF0) == 0 ? 64 : 128);
+        }
+    }
+
+    private static boolean endsWithEoi(ByteBuffer a, int from, int end) {
+        // cameras pad parts after EOI with any number of zeros or line breaks
+        while (end > from && isPadding(a.get(end - 1)))
+            end--;
+        int stop = Math.max(from + 1, end - MAX_TRAILER);
+        for (int i = end - 1; i >= stop; i--) {
+            if ((a.get(i) & 0xFF) == EOI && (a.get(i - 1) & 0xFF) == 0xFF)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isPadding(byte b) {
+        return b == 0 || b == '\r' || b == '\n';
+    }
+
+    /**
+     * @return true if the frame has a SOFn and ends with EOI
+     */
+    public boolean isComplete() {
+        return eoi;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return sample precision in bits, usually 8
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return SOFn marker, e.g. 0xC0 for baseline
+     */
+    public int getSofMarker() {
+        return sofMarker;
+    }
+
+    public boolean isProgressive() {
+        return sofMarker == SOF2 || sofMarker == 0xC6 || sofMarker == 0xCA || sofMarker == 0xCE;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    public int getComponentId(int component) {
+        return componentIds[component];
+    }
+
+    public int getHorizontalSampling(int component) {
+        return hSampling[component];
+    }
+
+    public int getVerticalSampling(int component) {
+        return vSampling[component];
+    }
+
+    public int getQuantTable(int component) {
+        return quantTables[component];
+    }
+
+    /**
+     * @return number of quantization tables defined before SOS
+     */
+    public int getQuantTableCount() {
+        return dqtCount;
+    }
+
+    /**
+     * @return chroma subsampling like 4:2:0, 4:2:2 or 4:4:4 for YCbCr, or null for other component layouts
+     */
+    public String getSubsampling() {
+        if (componentCount == 1)
+            return "4:0:0";
+        if (componentCount != 3 || hSampling[1] != 1 || vSampling[1] != 1 || hSampling[2] != 1 || vSampling[2] != 1)
+            return null;
+        if (hSampling[0] == 1 && vSampling[0] == 1)
+            return "4:4:4";
+        if (hSampling[0] == 2 && vSampling[0] == 1)
+            return "4:2:2";
+        if (hSampling[0] == 2 && vSampling[0] == 2)
+            return "4:2:0";
+        if (hSampling[0] == 4 && vSampling[0] == 1)
+            return "4:1:1";
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("JPEG %1$dx%2$d, SOF%3$d, %4$d components, %5$s%6$s", width, height, sofMarker - SOF0,
+                componentCount, getSubsampling(), eoi ? "" : ", truncated");
+    }
+
+}
@@ -0,0 +1,117 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free histogram of durations in nanoseconds with fixed memory: every power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so a value is kept with at most 12.5% error, from 1 ns to about
+ * a minute. Longer durations go to the last bucket.</p>
+ * <p>{@link #record(long)} is a couple of shifts and an atomic increment, so it may be called per frame from any
+ * thread. Percentiles are computed on read.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    // 2^36 ns is about 68 seconds
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2); // count, sum
+    private volatile long max;
+
+    /**
+     * Adds a duration
+     * @param nanos duration in nanoseconds, negative ones are taken as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, value);
+        // racy, but max only grows
+        if (value > max)
+            max = value;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value of a bucket
+     */
+    static long bucketValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    /**
+     * @return mean in nanoseconds, 0 if there are no values
+     */
+    public long getMean() {
+        long count = totals.get(0);
+        return count == 0 ? 0 : totals.get(1) / count;
+    }
+
+    /**
+     * @return sum of all values in nanoseconds
+     */
+    public long getSum() {
+        return totals.get(1);
+    }
+
+    /**
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the value in nanoseconds not less than the percentile of values, 0 if there are no values
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(bucketValue(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * @return the percentile in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        return (double) getPercentile(percentile) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
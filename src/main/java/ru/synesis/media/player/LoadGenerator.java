@@ -0,0 +1,328 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Load driver, which opens N consumers of a stream, usually of a {@link CameraSimulator}, and reports aggregate
+ * throughput, end to end latency and CPU of the process.</p>
+ * <p>A consumer is either a blocking {@link VideoSource} reader on a thread of
+ * {@link StreamExecutors#newPerTaskExecutor(String)}, which is how {@link StreamTask} and StreamThread read, or
+ * a stream of {@link IngestEngine} or of an {@link AsyncStreamTransport}. Blocking consumers connect with
+ * the given {@link StreamTransport}, so transports may be compared under the same load. Consumers parse frames and
+ * check their JPEG markers, they don't decode, so the numbers are of ingest alone.</p>
+ *   <pre>
+ *   java ru.synesis.media.player.LoadGenerator --streams=500 --fps=25 --width=1280 --height=720 --seconds=60
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class LoadGenerator implements Closeable {
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errorFrames = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final List<VideoSource> sources = new ArrayList<>();
+    private final List<IngestStream> streams = new ArrayList<>();
+    private final List<Closeable> asyncStreams = new ArrayList<>();
+    private StreamTransport transport = StreamTransports.getDefault();
+    private FramePool framePool = FramePool.shared();
+    private ExecutorService executor;
+    private IngestEngine engine;
+    private volatile boolean stopped;
+    private long startNanos;
+    private long startCpuNanos;
+
+    public LoadGenerator(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Sets the transport of blocking consumers, by default it's {@link StreamTransports#getDefault()}
+     */
+    public void setTransport(StreamTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the pool of IngestEngine consumers, e.g. an off-heap {@link FrameStore}, by default it's
+     * {@link FramePool#shared()}
+     */
+    public void setFramePool(FramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * Opens blocking VideoSource consumers, a thread per consumer
+     */
+    public void startBlocking(int count) {
+        start();
+        executor = StreamExecutors.newPerTaskExecutor("LoadGenerator");
+        for (int i = 0; i < count; i++) {
+            final VideoSource src = new VideoSource(url, username, password);
+            src.setTransport(transport);
+            synchronized (sources) {
+                sources.add(src);
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    consume(src);
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens consumers on an IngestEngine with the given number of event loops
+     */
+    public void startEngine(int count, int threads) throws IOException {
+        start();
+        engine = new IngestEngine(threads, framePool);
+        for (int i = 0; i < count; i++) {
+            streams.add(engine.open(url, username, password, listener()));
+        }
+    }
+
+    /**
+     * Opens consumers, which get frames pushed by the transport
+     */
+    public void startAsync(int count, AsyncStreamTransport transport) throws IOException {
+        start();
+        for (int i = 0; i < count; i++) {
+            asyncStreams.add(transport.open(url, username, password, listener()));
+        }
+    }
+
+    private FrameListener listener() {
+        return new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                try {
+                    count(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            @Override
+            public void onClose(Exception cause) {
+                if (cause != null && !stopped)
+                    failures.increment();
+            }
+        };
+    }
+
+    private void start() {
+        startNanos = System.nanoTime();
+        startCpuNanos = processCpuTime();
+    }
+
+    private void consume(VideoSource src) {
+        try {
+            src.connect();
+            for (Frame frame : src.frames()) {
+                try {
+                    if (stopped)
+                        break;
+                    if (frame.length() == 0)
+                        continue;
+                    count(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!stopped)
+                failures.increment();
+        } finally {
+            src.disconnect();
+        }
+    }
+
+    private void count(Frame frame) {
+        long now = System.nanoTime();
+        frames.increment();
+        bytes.add(frame.length());
+        JpegHeader header = JpegHeader.parse(frame.buffer());
+        if (header == null || !header.isComplete()) {
+            errorFrames.increment();
+            return;
+        }
+        long sent = CameraSimulator.sentNanos(frame.buffer());
+        if (sent >= 0)
+            latency.record(now - sent);
+    }
+
+    public long getFrameCount() {
+        return frames.sum();
+    }
+
+    public long getErrorFrameCount() {
+        return errorFrames.sum();
+    }
+
+    /**
+     * @return consumers which failed to connect or lost the connection
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return one line with totals since start
+     */
+    public String report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long cpu = processCpuTime();
+        String cpuLoad = cpu < 0 || startCpuNanos < 0 ? "n/a" : String.format(Locale.ROOT, "%.0f%% of %d cores",
+                (cpu - startCpuNanos) / 1e9 / seconds * 100, Runtime.getRuntime().availableProcessors());
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        return String.format(Locale.ROOT,
+                "%.0fs: %.0f frames/s, %.1f MB/s, errors %d, failures %d, latency p50 %.1f p99 %.1f max %.1f ms, cpu %s,"
+                        + " heap %d MB",
+                seconds, frames.sum() / seconds, bytes.sum() / seconds / (1024 * 1024), errorFrames.sum(),
+                failures.sum(), latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                latency.getMax() / 1e6, cpuLoad, heap >> 20);
+    }
+
+    /**
+     * @return CPU time of the process in nanoseconds, or -1 if the JVM doesn't tell
+     */
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        synchronized (sources) {
+            for (VideoSource src : sources) {
+                src.disconnect();
+            }
+        }
+        for (IngestStream stream : streams) {
+            stream.close();
+        }
+        for (Closeable stream : asyncStreams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (executor != null)
+            executor.shutdownNow();
+        if (engine != null)
+            engine.close();
+    }
+
+    /**
+     * Runs a simulator and consumers in the same JVM, options are <code>--streams=N --fps=F --width=W --height=H
+     * --jitter=MS --seconds=S --engine=THREADS --offheap=MB --transport=NAME --async --nolength --dashed --lf --auth
+     * --truncate=P --stall=P</code>, frames of --engine are kept in a {@link FrameStore} of --offheap megabytes
+     */
+    public static void main(String... args) throws Exception {
+        int count = 100;
+        int seconds = 30;
+        int engineThreads = 0;
+        long offHeap = 0;
+        StreamTransport transport = StreamTransports.getDefault();
+        boolean async = false;
+        CameraSimulator camera = new CameraSimulator();
+        String username = null;
+        String password = null;
+        int width = 640;
+        int height = 480;
+        for (String arg : args) {
+            String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+            if (arg.startsWith("--streams="))
+                count = Integer.parseInt(value);
+            else if (arg.startsWith("--fps="))
+                camera.setFps(Double.parseDouble(value));
+            else if (arg.startsWith("--width="))
+                width = Integer.parseInt(value);
+            else if (arg.startsWith("--height="))
+                height = Integer.parseInt(value);
+            else if (arg.startsWith("--jitter="))
+                camera.setJitter(Long.parseLong(value));
+            else if (arg.startsWith("--seconds="))
+                seconds = Integer.parseInt(value);
+            else if (arg.startsWith("--engine="))
+                engineThreads = Integer.parseInt(value);
+            else if (arg.startsWith("--offheap="))
+                offHeap = Long.parseLong(value) << 20;
+            else if (arg.startsWith("--transport=")) {
+                transport = StreamTransports.get(value);
+                if (transport == null)
+                    throw new IllegalArgumentException("Unknown transport " + value + ", available are "
+                            + StreamTransports.getNames());
+            } else if (arg.equals("--async"))
+                async = true;
+            else if (arg.equals("--nolength"))
+                camera.setContentLength(false);
+            else if (arg.equals("--dashed"))
+                camera.setDashedBoundary(true);
+            else if (arg.equals("--lf"))
+                camera.setBareLineFeeds(true);
+            else if (arg.equals("--auth")) {
+                username = "admin";
+                password = "admin";
+            } else if (arg.startsWith("--truncate="))
+                camera.setTruncateProbability(Double.parseDouble(value));
+            else if (arg.startsWith("--stall="))
+                camera.setStall(Double.parseDouble(value), 2000);
+            else
+                throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+        camera.setResolution(width, height);
+        camera.setCredentials(username, password);
+        camera.start();
+        try (LoadGenerator load = new LoadGenerator(camera.getUrl(), username, password)) {
+            if (engineThreads > 0) {
+                if (offHeap > 0)
+                    load.setFramePool(new FrameStore(offHeap));
+                load.startEngine(count, engineThreads);
+            } else if (async) {
+                if (!(transport instanceof AsyncStreamTransport))
+                    throw new IllegalArgumentException("Transport " + transport.getName() + " isn't async");
+                load.startAsync(count, (AsyncStreamTransport) transport);
+            } else {
+                load.setTransport(transport);
+                load.startBlocking(count);
+            }
+            for (int i = 0; i < seconds; i++) {
+                TimeUnit.SECONDS.sleep(1);
+                if ((i + 1) % 5 == 0)
+                    System.out.println(load.report());
+            }
+            System.out.println(count + " streams from " + camera.getUrl() + " with " + camera.getClientCount()
+                    + " clients: " + load.report());
+        } finally {
+            camera.close();
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package ru.synesis.media.player;
+
+/**
+ * A stream, which sheds load when memory is short. {@link MemoryGovernor} finds it among the {@link StreamMetrics}
+ * registered with {@link MetricsRegistry}, so the stream implements both.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface LoadShedder {
+
+    /**
+     * Called by the governor when the level of the stream changes. It's called by the thread of the governor,
+     * after it has released its lock, but it must not block anyway, so the governor gets to the other streams
+     * at once. E.g. a connection is closed by another thread, see {@link VideoSource#disconnectLater()}.
+     */
+    void setShedLevel(ShedLevel level);
+
+}
@@ -0,0 +1,298 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Memory budget of the node: it keeps frames of all streams within a global cap, and every stream within its own
+ * cap, so the node degrades step by step under pressure rather than fails with OutOfMemoryError.</p>
+ * <p>Memory is what the pools of frames count, see {@link FramePool#getAllocatedBytes()}: buffers of frames in use,
+ * wherever they're queued, in mailboxes, pre-roll, decoders or the archive, plus idle pooled buffers and
+ * the direct memory of {@link FrameStore}s. Pools other than the shared one are added with
+ * {@link #addPool(FramePool)}, e.g. by {@link IngestEngine}. A stream is measured by
+ * {@link StreamMetrics#getBufferedBytes()}, which counts decoded pixels of the stream as well. Every {@link #DEFAULT_INTERVAL} ms the governor compares them with
+ * the caps, and asks the streams, which are {@link LoadShedder}s registered with {@link MetricsRegistry}, to shed
+ * load in the order of {@link ShedLevel}: drop pre-roll at {@link #PRE_ROLL_RATIO} of a cap, decode at a lower
+ * resolution at {@link #RESOLUTION_RATIO}, skip frames at {@link #SKIP_RATIO}, and disconnect over the cap.
+ * Over the global cap the largest stream is disconnected, one per run, while the others skip frames.
+ * The level of a stream goes down one step per run, so it doesn't flap.</p>
+ * <p>Besides, a single part can't be larger than {@link #getMaxFrameSize()}, so a camera which sends a huge
+ * Content-Length is disconnected by the stream reader before anything is allocated.</p>
+ *   <pre>
+ *   MemoryGovernor governor = MemoryGovernor.shared();
+ *   governor.setCapacity(512L &lt;&lt; 20);
+ *   governor.setStreamCapacity(32L &lt;&lt; 20);
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class MemoryGovernor implements Closeable {
+
+    public static final long DEFAULT_INTERVAL = 500; /* milliseconds */
+    public static final long DEFAULT_STREAM_CAPACITY = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 2 * FramePool.MAX_CLASS_SIZE;
+    /** Subsampling of decoded frames at {@link ShedLevel#REDUCE_RESOLUTION} */
+    public static final int REDUCED_SUBSAMPLING = 2;
+
+    public static final double PRE_ROLL_RATIO = 0.6;
+    public static final double RESOLUTION_RATIO = 0.75;
+    public static final double SKIP_RATIO = 0.9;
+
+    private static final MemoryGovernor SHARED = startShared();
+
+    private final MetricsRegistry registry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong shedCount = new AtomicLong();
+    // guarded by lock, a pool is there as many times as it was added
+    private final List<FramePool> pools = new ArrayList<>();
+    private Map<LoadShedder, ShedLevel> levels = new IdentityHashMap<>();
+    private ScheduledThreadPoolExecutor executor;
+    private volatile long capacity;
+    private volatile long streamCapacity = DEFAULT_STREAM_CAPACITY;
+    private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private volatile long usedBytes;
+    private volatile ShedLevel level = ShedLevel.NONE;
+
+    /**
+     * @param capacity global cap of frame memory
+     */
+    public MemoryGovernor(MetricsRegistry registry, FramePool pool, long capacity) {
+        this.registry = registry;
+        pools.add(pool);
+        setCapacity(capacity);
+    }
+
+    /**
+     * @return governor of the shared registry and pool, it runs from the start with a quarter of the max heap
+     */
+    public static MemoryGovernor shared() {
+        return SHARED;
+    }
+
+    private static MemoryGovernor startShared() {
+        MemoryGovernor governor = new MemoryGovernor(MetricsRegistry.shared(), FramePool.shared(),
+                Runtime.getRuntime().maxMemory() / 4);
+        governor.start(DEFAULT_INTERVAL);
+        return governor;
+    }
+
+    public void setCapacity(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the cap of a single stream, 64MB by default
+     */
+    public void setStreamCapacity(long streamCapacity) {
+        if (streamCapacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + streamCapacity);
+        this.streamCapacity = streamCapacity;
+    }
+
+    public long getStreamCapacity() {
+        return streamCapacity;
+    }
+
+    /**
+     * Sets the largest part a stream reader accepts, it applies to streams connected after the call
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Counts memory of the pool against the global cap, until it's removed as many times as it was added
+     */
+    public void addPool(FramePool pool) {
+        lock.lock();
+        try {
+            pools.add(pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void removePool(FramePool pool) {
+        lock.lock();
+        try {
+            pools.remove(pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@link #evaluate()} periodically on a daemon thread
+     */
+    public void start(long intervalMillis) {
+        lock.lock();
+        try {
+            if (executor != null)
+                return;
+            executor = new ScheduledThreadPoolExecutor(1, StreamExecutors.daemonThreadFactory("MemoryGovernor"));
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluate();
+                    } catch (RuntimeException e) {
+                        // a broken stream must not stop the governor
+                        e.printStackTrace();
+                    }
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Measures memory and changes the levels of streams, it's called periodically after {@link #start(long)}
+     * @return global level
+     */
+    public ShedLevel evaluate() {
+        ShedLevel global;
+        // streams are told their levels off the lock
+        Map<LoadShedder, ShedLevel> changes = new IdentityHashMap<>();
+        lock.lock();
+        try {
+            Set<FramePool> distinct = Collections.newSetFromMap(new IdentityHashMap<FramePool, Boolean>());
+            distinct.addAll(pools);
+            long used = 0;
+            for (FramePool pool : distinct) {
+                used += pool.getAllocatedBytes();
+            }
+            global = level(used, capacity);
+            // idle buffers are the cheapest memory to give back
+            if (global.atLeast(ShedLevel.DROP_PRE_ROLL)) {
+                for (FramePool pool : distinct) {
+                    used -= pool.trim();
+                }
+            }
+            usedBytes = used;
+            level = global;
+            Map<LoadShedder, ShedLevel> next = new IdentityHashMap<>();
+            List<StreamMetrics> streams = registry.streams();
+            LoadShedder largest = null;
+            long largestBytes = -1;
+            for (StreamMetrics stream : streams) {
+                if (!(stream instanceof LoadShedder))
+                    continue;
+                LoadShedder shedder = (LoadShedder) stream;
+                long bytes = stream.getBufferedBytes();
+                ShedLevel previous = levels.get(shedder);
+                ShedLevel target = level(bytes, streamCapacity);
+                if (global == ShedLevel.DISCONNECT) {
+                    // streams disconnected before stay so, the others skip frames
+                    target = max(target, previous == ShedLevel.DISCONNECT ? previous : ShedLevel.SKIP_FRAMES);
+                    if (target != ShedLevel.DISCONNECT && bytes > largestBytes) {
+                        largest = shedder;
+                        largestBytes = bytes;
+                    }
+                } else {
+                    target = max(target, global);
+                }
+                next.put(shedder, target);
+            }
+            if (largest != null)
+                next.put(largest, ShedLevel.DISCONNECT);
+            for (Map.Entry<LoadShedder, ShedLevel> e : next.entrySet()) {
+                ShedLevel previous = levels.get(e.getKey());
+                if (previous == null)
+                    previous = ShedLevel.NONE;
+                ShedLevel target = e.getValue();
+                // one step down per run
+                if (target.compareTo(previous) < 0)
+                    target = ShedLevel.values()[previous.ordinal() - 1];
+                e.setValue(target);
+                if (target != previous) {
+                    if (target.compareTo(previous) > 0)
+                        shedCount.incrementAndGet();
+                    changes.put(e.getKey(), target);
+                }
+            }
+            // unregistered streams are forgotten
+            levels = next;
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<LoadShedder, ShedLevel> e : changes.entrySet()) {
+            e.getKey().setShedLevel(e.getValue());
+        }
+        return global;
+    }
+
+    static ShedLevel level(long used, long capacity) {
+        double ratio = (double) used / capacity;
+        if (ratio > 1)
+            return ShedLevel.DISCONNECT;
+        if (ratio >= SKIP_RATIO)
+            return ShedLevel.SKIP_FRAMES;
+        if (ratio >= RESOLUTION_RATIO)
+            return ShedLevel.REDUCE_RESOLUTION;
+        if (ratio >= PRE_ROLL_RATIO)
+            return ShedLevel.DROP_PRE_ROLL;
+        return ShedLevel.NONE;
+    }
+
+    private static ShedLevel max(ShedLevel a, ShedLevel b) {
+        return a.atLeast(b) ? a : b;
+    }
+
+    /**
+     * @return frame memory measured by the last run
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return global level of the last run
+     */
+    public ShedLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * @return number of times a stream was asked to shed more
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    /**
+     * Stops the periodic runs, levels of streams stay as they are
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (executor != null)
+                executor.shutdownNow();
+            executor = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+package ru.synesis.media.player;
+
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Registry of active streams for monitoring from outside the process. Every registered stream gets a
+ * {@link StreamMXBean}, the registry itself is the {@link MetricsRegistryMXBean} with totals, and
+ * {@link #toPrometheus()} renders all of them in Prometheus text format, see {@link MetricsHttpServer}.</p>
+ * <p>Reading metrics takes no locks: streams are kept in a ConcurrentHashMap, and their statistics are
+ * LongAdders and atomics, so a scrape never holds back the ingest threads.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class MetricsRegistry implements MetricsRegistryMXBean {
+
+    public static final String DOMAIN = "ru.synesis.media.player";
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+    private final MBeanServer server;
+    private final ConcurrentMap<String, Entry> streams = new ConcurrentHashMap<>();
+    private final FramePool framePool = FramePool.shared();
+
+    /**
+     * @param server MBean server to register streams with, or null for no JMX
+     */
+    public MetricsRegistry(MBeanServer server) {
+        this.server = server;
+        if (server != null) {
+            try {
+                server.registerMBean(this, objectName("Global", null));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return registry of the JVM, which registers MBeans with the platform MBean server
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers a stream. Names are unique, a name taken by another stream gets a suffix.
+     * @return the name the stream is registered with, to be passed to {@link #unregister(String)}
+     */
+    public String register(String name, StreamMetrics metrics) {
+        String key = name;
+        Entry entry = new Entry(key, metrics);
+        for (int n = 2; streams.putIfAbsent(key, entry) != null; n++) {
+            key = name + "#" + n;
+            entry = new Entry(key, metrics);
+        }
+        if (server != null) {
+            try {
+                server.registerMBean(entry, entry.objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        return key;
+    }
+
+    public void unregister(String name) {
+        Entry entry = streams.remove(name);
+        if (entry != null && server != null) {
+            try {
+                server.unregisterMBean(entry.objectName);
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
+    }
+
+    /**
+     * @return registered streams, a snapshot
+     */
+    List<StreamMetrics> streams() {
+        List<StreamMetrics> list = new ArrayList<>(streams.size());
+        for (Entry entry : streams.values()) {
+            list.add(entry.metrics);
+        }
+        return list;
+    }
+
+    /**
+     * @return name of a stream without user:password
+     */
+    public static String streamName(String url) {
+        try {
+            URL u = new URL(url);
+            return u.getProtocol() + "://" + u.getHost() + (u.getPort() >= 0 ? ":" + u.getPort() : "") + u.getFile();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) {
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", type);
+        if (name != null)
+            properties.put("name", ObjectName.quote(name));
+        try {
+            return new ObjectName(DOMAIN, properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    @Override
+    public long getFrames() {
+        long sum = 0;
+        for (Entry entry : streams.values()) {
+            sum += entry.getFrames();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getBytes() {
+        long sum = 0;
+        for (Entry entry : streams.values()) {
+            sum += entry.getBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public double getFps() {
+        double sum = 0;
+        for (Entry entry : streams.values()) {
+            sum += entry.getFps();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        long sum = 0;
+        for (Entry entry : streams.values()) {
+            sum += entry.getBufferedBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getFramePoolIdleBytes() {
+        return framePool.getIdleBytes();
+    }
+
+    @Override
+    public long getFramePoolUsedBytes() {
+        return framePool.getUsedBytes();
+    }
+
+    @Override
+    public long getFramePoolHits() {
+        return framePool.getHitCount();
+    }
+
+    @Override
+    public long getFramePoolMisses() {
+        return framePool.getMissCount();
+    }
+
+    /**
+     * @return all metrics in Prometheus text exposition format, version 0.0.4
+     */
+    public String toPrometheus() {
+        List<String> names = new ArrayList<>();
+        List<StreamStats.Snapshot> snapshots = new ArrayList<>();
+        List<Long> buffered = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : streams.entrySet()) {
+            names.add(escape(e.getKey()));
+            snapshots.add(e.getValue().metrics.getStats().snapshot(new StreamStats.Snapshot()));
+            buffered.add(e.getValue().metrics.getBufferedBytes());
+        }
+        StringBuilder out = new StringBuilder(256 + names.size() * 1024);
+        family(out, "mjpeg_streams", "gauge", "Registered streams.");
+        out.append("mjpeg_streams ").append(names.size()).append('\n');
+        family(out, "mjpeg_frame_pool_idle_bytes", "gauge", "Bytes held by idle frame buffers.");
+        out.append("mjpeg_frame_pool_idle_bytes ").append(framePool.getIdleBytes()).append('\n');
+        family(out, "mjpeg_frame_pool_used_bytes", "gauge", "Bytes held by frame buffers in use.");
+        out.append("mjpeg_frame_pool_used_bytes ").append(framePool.getUsedBytes()).append('\n');
+        family(out, "mjpeg_frame_pool_hits_total", "counter", "Frame buffers taken from the pool.");
+        out.append("mjpeg_frame_pool_hits_total ").append(framePool.getHitCount()).append('\n');
+        family(out, "mjpeg_frame_pool_misses_total", "counter", "Frame buffers allocated.");
+        out.append("mjpeg_frame_pool_misses_total ").append(framePool.getMissCount()).append('\n');
+
+        family(out, "mjpeg_frames_total", "counter", "Frames read from the stream.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_frames_total", names.get(i), null).append(snapshots.get(i).frameCount).append('\n');
+        }
+        family(out, "mjpeg_dropped_frames_total", "counter", "Frames replaced by newer ones before use.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_dropped_frames_total", names.get(i), null).append(snapshots.get(i).droppedFrameCount)
+                    .append('\n');
+        }
+        family(out, "mjpeg_duplicate_frames_total", "counter", "Frames identical to the previous one, not decoded.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_duplicate_frames_total", names.get(i), null).append(snapshots.get(i).duplicateFrameCount)
+                    .append('\n');
+        }
+        family(out, "mjpeg_error_frames_total", "counter", "Truncated, corrupt or undecodable frames.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_error_frames_total", names.get(i), null).append(snapshots.get(i).errorFrameCount)
+                    .append('\n');
+        }
+        family(out, "mjpeg_bytes_total", "counter", "Bytes of frames read from the stream.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_bytes_total", names.get(i), null).append(snapshots.get(i).bytesRead).append('\n');
+        }
+        family(out, "mjpeg_fps", "gauge", "Frame rate over the last " + StreamStats.WINDOW_SECONDS + " seconds.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_fps", names.get(i), null).append(snapshots.get(i).fps).append('\n');
+        }
+        family(out, "mjpeg_reconnects_total", "counter", "Reconnects to the camera.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_reconnects_total", names.get(i), null).append(snapshots.get(i).reconnectCount)
+                    .append('\n');
+        }
+        family(out, "mjpeg_decode_seconds", "summary", "Time to decode a frame.");
+        for (int i = 0; i < names.size(); i++) {
+            StreamStats.Snapshot s = snapshots.get(i);
+            sample(out, "mjpeg_decode_seconds", names.get(i), "0.5").append(s.decodeP50 / 1e9).append('\n');
+            sample(out, "mjpeg_decode_seconds", names.get(i), "0.99").append(s.decodeP99 / 1e9).append('\n');
+        }
+        family(out, "mjpeg_buffered_bytes", "gauge", "Bytes of frames read, but not yet used.");
+        for (int i = 0; i < names.size(); i++) {
+            sample(out, "mjpeg_buffered_bytes", names.get(i), null).append(buffered.get(i)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static StringBuilder sample(StringBuilder out, String name, String stream, String quantile) {
+        out.append(name).append("{stream=\"").append(stream).append('"');
+        if (quantile != null)
+            out.append(",quantile=\"").append(quantile).append('"');
+        return out.append("} ");
+    }
+
+    static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A registered stream, which is its MXBean as well
+     */
+    private static class Entry implements StreamMXBean {
+
+        final String name;
+        final StreamMetrics metrics;
+        final ObjectName objectName;
+
+        Entry(String name, StreamMetrics metrics) {
+            this.name = name;
+            this.metrics = metrics;
+            this.objectName = objectName("Stream", name);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getFrames() {
+            return metrics.getStats().getFrameCount();
+        }
+
+        @Override
+        public long getDroppedFrames() {
+            return metrics.getStats().getDroppedFrameCount();
+        }
+
+        @Override
+        public long getDuplicateFrames() {
+            return metrics.getStats().getDuplicateFrameCount();
+        }
+
+        @Override
+        public long getErrorFrames() {
+            return metrics.getStats().getErrorFrameCount();
+        }
+
+        @Override
+        public long getBytes() {
+            return metrics.getStats().getBytesRead();
+        }
+
+        @Override
+        public double getFps() {
+            return metrics.getStats().getFps();
+        }
+
+        @Override
+        public double getBitrate() {
+            return metrics.getStats().getBitrate();
+        }
+
+        @Override
+        public long getReconnects() {
+            return metrics.getStats().getReconnectCount();
+        }
+
+        @Override
+        public double getDecodeP50Millis() {
+            return metrics.getStats().getDecodeLatency().getPercentileMillis(50);
+        }
+
+        @Override
+        public double getDecodeP99Millis() {
+            return metrics.getStats().getDecodeLatency().getPercentileMillis(99);
+        }
+
+        @Override
+        public long getBufferedBytes() {
+            return metrics.getBufferedBytes();
+        }
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package ru.synesis.media.player;
+
+/**
+ * JMX view of the metrics of the whole process
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface MetricsRegistryMXBean {
+
+    int getStreamCount();
+
+    long getFrames();
+
+    long getBytes();
+
+    double getFps();
+
+    long getBufferedBytes();
+
+    long getFramePoolIdleBytes();
+
+    long getFramePoolUsedBytes();
+
+    long getFramePoolHits();
+
+    long getFramePoolMisses();
+
+}
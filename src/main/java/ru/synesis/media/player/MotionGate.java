@@ -0,0 +1,85 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Decides by motion scores of {@link MotionDetector} which frames a consumer keeps: all frames while there's
+ * motion and for the hold time after it, and while the scene is still either one frame per idle interval, to thin
+ * them out, or none.</p>
+ *   <pre>
+ *   // records motion with 3 seconds after it, and a frame per 10 seconds of a still scene
+ *   FrameListener recorder = new MotionGate(0.01f, 3000, 10000).filter(archive.recorder("gate"));
+ *   engine.open(url, null, null, new MotionStage(new MotionDetector(), recorder));
+ *   </pre>
+ * <p>Not thread safe, a gate belongs to one stream.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class MotionGate {
+
+    private final float threshold;
+    private final long holdNanos;
+    private final long idleIntervalNanos;
+    private long lastMotionNanos;
+    private long lastKeptNanos;
+    private boolean started;
+
+    /**
+     * @param threshold least motion score which is motion
+     * @param holdMillis frames are kept for this time after the last motion
+     * @param idleIntervalMillis a frame of a still scene is kept this often, 0 drops all of them
+     */
+    public MotionGate(float threshold, long holdMillis, long idleIntervalMillis) {
+        this.threshold = threshold;
+        this.holdNanos = TimeUnit.MILLISECONDS.toNanos(holdMillis);
+        this.idleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(idleIntervalMillis);
+    }
+
+    /**
+     * @param nanos {@link System#nanoTime()} of the frame
+     * @param score motion score of the frame, NaN is taken as motion, so nothing is lost when it's unknown
+     * @return true if the frame is to be kept
+     */
+    public boolean accept(long nanos, float score) {
+        if (!started) {
+            started = true;
+            // no hold before the first motion, and the first still frame is kept
+            lastMotionNanos = nanos - holdNanos;
+            lastKeptNanos = nanos - idleIntervalNanos;
+        }
+        boolean keep;
+        if (Float.isNaN(score) || score >= threshold) {
+            lastMotionNanos = nanos;
+            keep = true;
+        } else if (nanos - lastMotionNanos < holdNanos) {
+            keep = true;
+        } else {
+            keep = idleIntervalNanos > 0 && nanos - lastKeptNanos >= idleIntervalNanos;
+        }
+        if (keep)
+            lastKeptNanos = nanos;
+        return keep;
+    }
+
+    /**
+     * @return a listener, which passes kept frames to <code>downstream</code> and releases others. Frames must be
+     *  scored by a {@link MotionStage} before.
+     */
+    public FrameListener filter(final FrameListener downstream) {
+        return new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                if (accept(System.nanoTime(), frame.getMotionScore()))
+                    downstream.onFrame(frame);
+                else
+                    frame.release();
+            }
+            @Override
+            public void onClose(Exception cause) {
+                downstream.onClose(cause);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,18 @@
+package ru.synesis.media.player;
+
+/**
+ * Listener of motion scores published by a {@link MotionStage}, e.g. a motion meter or an alarm.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface MotionListener {
+
+    /**
+     * Called for every scored frame from the thread of the {@link MotionStage}, so it must not block. The frame
+     * is valid for the time of the call only, unless the listener retains it.
+     * @param score motion score, see {@link MotionDetector#detect(Frame)}
+     */
+    void onMotion(Frame frame, float score);
+
+}
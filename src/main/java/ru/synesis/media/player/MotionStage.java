@@ -0,0 +1,149 @@
+package ru.synesis.media.player;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Stage of the frame path, which scores motion of every frame, see {@link MotionDetector}, sets the score on
+ * the frame, publishes it to {@link MotionListener}s and passes the frame on. Consumers downstream, like
+ * a {@link MotionGate} of a recorder or of a display, decide by the score what to keep.</p>
+ *   <pre>
+ *   // a tile which renders a still scene once a second
+ *   MotionStage motion = new MotionStage(new MotionDetector(), new MotionGate(0.01f, 1000, 1000).filter(tile));
+ *   motion.addMotionListener(meter);
+ *   engine.open(url, null, null, motion);
+ *   </pre>
+ * <p>A luma grid decode still entropy decodes the whole JPEG, so it takes about half of a full decode, see
+ * MotionBenchmark of the benchmarks module. So frames aren't scored on the thread of the stream, which may be
+ * an event loop of {@link IngestEngine}: {@link #onFrame(Frame)} puts the frame into a latest-frame-wins
+ * {@link FrameMailbox} and returns, and a task on the executor scores it and calls the listeners and downstream.
+ * A frame, which comes before the previous one is scored, replaces it, see {@link #getDroppedCount()}.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class MotionStage implements FrameListener {
+
+    // detection is CPU bound, so all streams share a thread per core
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), StreamExecutors.daemonThreadFactory("MotionStage"));
+
+    private final Executor executor;
+    private final MotionDetector detector;
+    private final FrameListener downstream;
+    private final List<MotionListener> listeners = new CopyOnWriteArrayList<>();
+    private final FrameMailbox mailbox = new FrameMailbox();
+    // true while a task scores frames, so the detector is used by one thread at a time
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private volatile float lastScore = Float.NaN;
+    private volatile boolean closed;
+    private volatile Exception closeCause;
+
+    /**
+     * Stage, which scores frames on a thread per core pool shared by all streams
+     */
+    public MotionStage(MotionDetector detector, FrameListener downstream) {
+        this(DEFAULT_EXECUTOR, detector, downstream);
+    }
+
+    public MotionStage(Executor executor, MotionDetector detector, FrameListener downstream) {
+        this.executor = executor;
+        this.detector = detector;
+        this.downstream = downstream;
+    }
+
+    public void addMotionListener(MotionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeMotionListener(MotionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return score of the last frame, NaN if there's none
+     */
+    public float getLastScore() {
+        return lastScore;
+    }
+
+    /**
+     * @return number of frames replaced by a newer one before they were scored, they don't go downstream
+     */
+    public long getDroppedCount() {
+        return mailbox.getDroppedCount();
+    }
+
+    /**
+     * @return length of the frame waiting to be scored
+     */
+    public int getBufferedBytes() {
+        return mailbox.getBufferedBytes();
+    }
+
+    /**
+     * Queues the frame for scoring, it never blocks
+     */
+    @Override
+    public void onFrame(Frame frame) {
+        mailbox.put(frame);
+        schedule();
+    }
+
+    /**
+     * Drops a frame waiting to be scored, downstream is closed after the frame being scored
+     */
+    @Override
+    public void onClose(Exception cause) {
+        closeCause = cause;
+        closed = true;
+        mailbox.close();
+        schedule();
+    }
+
+    private void schedule() {
+        if (running.compareAndSet(false, true))
+            executor.execute(drain);
+    }
+
+    private void drain() {
+        for (;;) {
+            Frame frame = mailbox.poll();
+            if (frame != null) {
+                score(frame);
+                continue;
+            }
+            if (closed) {
+                // running stays set, nothing is scored anymore
+                detector.close();
+                downstream.onClose(closeCause);
+                return;
+            }
+            running.set(false);
+            // a frame may have come after the poll and before the flag was reset
+            if (!(mailbox.hasFrame() || closed) || !running.compareAndSet(false, true))
+                return;
+        }
+    }
+
+    private void score(Frame frame) {
+        float score = detector.detect(frame);
+        frame.setMotionScore(score);
+        lastScore = score;
+        for (MotionListener l : listeners) {
+            l.onMotion(frame, score);
+        }
+        downstream.onFrame(frame);
+    }
+
+}
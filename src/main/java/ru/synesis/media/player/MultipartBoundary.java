@@ -0,0 +1,196 @@
+package ru.synesis.media.player;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>Byte level matcher of a multipart delimiter (<code>--boundary</code>) and helpers to parse part headers
+ * straight from a byte buffer, without creating any Strings.</p>
+ * <p>The search uses Boyer-Moore-Horspool skip table built over the delimiter bytes, so scanning a part body
+ * touches roughly every n-th byte, where n is the delimiter length.</p>
+ * <p>Instances are immutable and can be shared between streams.</p>
+ *
+ * @see MultipartStreamReader
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+final class MultipartBoundary {
+
+    static final byte LF = 0x0A;
+    static final byte CR = 0x0D;
+    private static final byte DASH = '-';
+
+    static final int DELIMITER = 1;
+    static final int CLOSE_DELIMITER = 0;
+    static final int NOT_DELIMITER = -1;
+    static final int INCOMPLETE = -2;
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] delimiter;
+    private final int[] skip = new int[256];
+
+    /**
+     * @param boundaryPart value of the boundary parameter of Content-Type header
+     */
+    MultipartBoundary(String boundaryPart) {
+        String b = boundaryPart.trim();
+        int semicolon = b.indexOf(';');
+        if (semicolon >= 0)
+            b = b.substring(0, semicolon).trim();
+        if (b.length() > 1 && b.charAt(0) == '"' && b.charAt(b.length() - 1) == '"')
+            b = b.substring(1, b.length() - 1);
+        // Some cameras provide Content-Type header with ; boundary=--myboundary,
+        // then they use it as is without prefixing it with --
+        this.delimiter = (b.startsWith("--") ? b : "--" + b).getBytes(StandardCharsets.ISO_8859_1);
+        int last = delimiter.length - 1;
+        Arrays.fill(skip, delimiter.length);
+        for (int i = 0; i < last; i++) {
+            skip[delimiter[i] & 0xFF] = last - i;
+        }
+    }
+
+    /**
+     * @return length of the delimiter in bytes, including leading --
+     */
+    int length() {
+        return delimiter.length;
+    }
+
+    /**
+     * Finds the first occurrence of the delimiter in <code>a[from, to)</code>
+     * @return index of the delimiter or -1
+     */
+    int indexOf(byte[] a, int from, int to) {
+        int last = delimiter.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (a[i + j] == delimiter[j]) {
+                if (j == 0)
+                    return i;
+                j--;
+            }
+            i += skip[a[i + last] & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first occurrence of the delimiter between absolute indexes <code>from</code> and <code>to</code>
+     * of a buffer, e.g. an off-heap frame
+     * @return index of the delimiter or -1
+     */
+    int indexOf(ByteBuffer b, int from, int to) {
+        int last = delimiter.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (b.get(i + j) == delimiter[j]) {
+                if (j == 0)
+                    return i;
+                j--;
+            }
+            i += skip[b.get(i + last) & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the rest of the delimiter line, i.e. bytes which follow a delimiter found at <code>at</code>
+     * up to the line feed or <code>to</code>.
+     *
+     * @return {@link #DELIMITER} for a delimiter line, {@link #CLOSE_DELIMITER} for <code>--boundary--</code>,
+     *  {@link #NOT_DELIMITER} if it's not a delimiter at all (like <code>--boundaryX</code>) and
+     *  {@link #INCOMPLETE} if there is no line feed yet to decide
+     */
+    int delimiterLine(byte[] a, int at, int to) {
+        int i = at + delimiter.length;
+        int lf = indexOfLF(a, i, to);
+        int end = lf < 0 ? to : lf;
+        if (end - i >= 2 && a[i] == DASH && a[i + 1] == DASH)
+            return CLOSE_DELIMITER;
+        if (end - i == 1 && a[i] == DASH)
+            return lf < 0 ? INCOMPLETE : NOT_DELIMITER;
+        if (!isBlank(a, i, end))
+            return NOT_DELIMITER;
+        return lf < 0 ? INCOMPLETE : DELIMITER;
+    }
+
+    /**
+     * Tells whether a delimiter found at <code>at</code> starts a line. Delimiters inside of a body are always
+     * preceded by CRLF (or LF), so anything else is a part of the body.
+     */
+    static boolean startsLine(byte[] a, int from, int at) {
+        return at == from || a[at - 1] == LF;
+    }
+
+    /**
+     * @return index of the first line feed in <code>a[from, to)</code> or -1
+     */
+    static int indexOfLF(byte[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == LF)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if <code>a[from, to)</code> holds only CR, spaces and tabs
+     */
+    static boolean isBlank(byte[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = a[i];
+            if (b != CR && b != ' ' && b != '\t')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cuts CRLF (or LF) at the end of <code>a[from, to)</code>, which belongs to the next delimiter, not to the body
+     * @return new end
+     */
+    static int trimLineEnd(byte[] a, int from, int to) {
+        if (to > from && a[to - 1] == LF)
+            to--;
+        if (to > from && a[to - 1] == CR)
+            to--;
+        return to;
+    }
+
+    /**
+     * Parses Content-Length header line <code>a[from, to)</code>, header name is case insensitive.
+     *
+     * @return value of the header, or -1 if it's another header or the value is malformed
+     */
+    static long contentLength(byte[] a, int from, int to) {
+        int i = from;
+        if (to - i < CONTENT_LENGTH.length)
+            return -1;
+        for (int j = 0; j < CONTENT_LENGTH.length; j++, i++) {
+            if ((a[i] | 0x20) != CONTENT_LENGTH[j])
+                return -1;
+        }
+        while (i < to && (a[i] == ' ' || a[i] == '\t'))
+            i++;
+        if (i == to || a[i++] != ':')
+            return -1;
+        while (i < to && (a[i] == ' ' || a[i] == '\t'))
+            i++;
+        long value = 0;
+        int digits = 0;
+        for (; i < to && a[i] >= '0' && a[i] <= '9'; i++, digits++) {
+            value = value * 10 + (a[i] - '0');
+            if (value > Integer.MAX_VALUE)
+                return -1;
+        }
+        if (digits == 0 || !isBlank(a, i, to))
+            return -1;
+        return value;
+    }
+
+}
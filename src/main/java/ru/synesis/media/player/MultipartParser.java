@@ -0,0 +1,318 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Incremental multipart/x-mixed-replace parser, which gets bytes as they arrive from a non-blocking channel
+ * and passes complete frames to a {@link FrameListener}.</p>
+ * <p>It has the same boundary and header semantics as {@link MultipartStreamReader}: delimiters are found by
+ * {@link MultipartBoundary}, a part without Content-Length lasts up to the next delimiter, and a wrong Content-Length
+ * is resynced on the next delimiter.</p>
+ * <p>Bytes come either through {@link #feed(ByteBuffer)}, or are read straight into {@link #readBuffer()} and
+ * confirmed with {@link #advance(int)}. In the latter case a part body with Content-Length is read directly into
+ * the frame buffer, which is off-heap memory if the pool is a {@link FrameStore}.</p>
+ * <p>Not thread safe.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+final class MultipartParser {
+
+    private static final int PREAMBLE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int BODY_TO_BOUNDARY = 3;
+    private static final int DONE = 4;
+
+    private final MultipartBoundary boundary;
+    private final FramePool pool;
+    private final FrameListener listener;
+
+    private byte[] buffer;
+    private ByteBuffer bufferView;
+    private int pos;
+    private int limit;
+    private byte[] scratch = new byte[0];
+    private int scratchLength;
+    private int maxPartSize = Integer.MAX_VALUE;
+
+    private int state = PREAMBLE;
+    private long contentLength;
+    private Frame frame;
+    private ByteBuffer frameView;
+    private int bodyRead;
+
+    MultipartParser(MultipartBoundary boundary, FramePool pool, FrameListener listener) {
+        this.boundary = boundary;
+        this.pool = pool;
+        this.listener = listener;
+        this.buffer = new byte[Math.max(MultipartStreamReader.DEFAULT_BUFFER_SIZE, boundary.length() * 4)];
+        this.bufferView = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Sets the largest part body to be parsed, a larger one fails the stream with UncheckedIOException,
+     * see {@link MemoryGovernor#getMaxFrameSize()}
+     */
+    void setMaxPartSize(int maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * Parses bytes from <code>src</code>, consuming all of them
+     */
+    void feed(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer dst = readBuffer();
+            int n = Math.min(dst.remaining(), src.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            src.position(src.position() + n);
+            advance(n);
+        }
+    }
+
+    /**
+     * Parses <code>src[offset, offset + length)</code>
+     */
+    void feed(byte[] src, int offset, int length) {
+        feed(ByteBuffer.wrap(src, offset, length));
+    }
+
+    /**
+     * @return buffer to read the next bytes into, it's either the tail of the internal buffer or
+     *  the rest of the current frame
+     * @throws UncheckedIOException if the buffer is full of a line longer than
+     *  {@link MultipartStreamReader#MAX_LINE_SIZE}
+     */
+    ByteBuffer readBuffer() {
+        if (state == BODY && pos == limit) {
+            frameView.limit(frame.length()).position(bodyRead);
+            return frameView;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            // bodies go to the frame or to scratch, so what's left is a header or delimiter line
+            if (limit >= MultipartStreamReader.MAX_LINE_SIZE)
+                throw new UncheckedIOException(new IOException(
+                        "Part header line is longer than " + MultipartStreamReader.MAX_LINE_SIZE));
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MultipartStreamReader.MAX_LINE_SIZE));
+            bufferView = ByteBuffer.wrap(buffer);
+        }
+        bufferView.limit(buffer.length).position(limit);
+        return bufferView;
+    }
+
+    /**
+     * Confirms <code>bytes</code> read into the last {@link #readBuffer()} and parses them
+     */
+    void advance(int bytes) {
+        if (state == BODY && pos == limit) {
+            bodyRead += bytes;
+            if (bodyRead == frame.length())
+                finishBody();
+        } else {
+            limit += bytes;
+        }
+        parse();
+    }
+
+    /**
+     * @return true when the close delimiter was seen
+     */
+    boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * @return bytes buffered in the parser, including a frame in progress
+     */
+    long getBufferedBytes() {
+        // may be called by a metrics scrape, so the frame is read once
+        Frame f = frame;
+        return buffer.length + scratch.length + (f != null ? f.capacity() : 0);
+    }
+
+    /**
+     * Releases a frame in progress
+     */
+    void close() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+        state = DONE;
+    }
+
+    private void parse() {
+        for (;;) {
+            switch (state) {
+            case PREAMBLE: {
+                int at = boundary.indexOf(buffer, pos, limit);
+                if (at < 0) {
+                    pos = Math.max(pos, limit - boundary.length() + 1);
+                    return;
+                }
+                int line = boundary.delimiterLine(buffer, at, limit);
+                if (line == MultipartBoundary.DELIMITER) {
+                    pos = MultipartBoundary.indexOfLF(buffer, at + boundary.length(), limit) + 1;
+                    contentLength = -1;
+                    state = HEADERS;
+                } else if (line == MultipartBoundary.CLOSE_DELIMITER) {
+                    pos = limit;
+                    state = DONE;
+                } else if (line == MultipartBoundary.INCOMPLETE) {
+                    pos = at;
+                    return;
+                } else {
+                    pos = at + 1;
+                }
+                break;
+            }
+            case HEADERS: {
+                int lf = MultipartBoundary.indexOfLF(buffer, pos, limit);
+                if (lf < 0)
+                    return;
+                if (MultipartBoundary.isBlank(buffer, pos, lf)) {
+                    startBody();
+                } else {
+                    long value = MultipartBoundary.contentLength(buffer, pos, lf);
+                    if (value >= 0)
+                        contentLength = value;
+                }
+                pos = lf + 1;
+                break;
+            }
+            case BODY: {
+                int n = Math.min(frame.length() - bodyRead, limit - pos);
+                frameView.limit(frame.length()).position(bodyRead);
+                frameView.put(buffer, pos, n);
+                pos += n;
+                bodyRead += n;
+                if (bodyRead < frame.length())
+                    return;
+                finishBody();
+                break;
+            }
+            case BODY_TO_BOUNDARY:
+                if (!readToBoundary())
+                    return;
+                break;
+            default:
+                pos = limit;
+                return;
+            }
+        }
+    }
+
+    private void startBody() {
+        if (contentLength < 0) {
+            scratchLength = 0;
+            state = BODY_TO_BOUNDARY;
+        } else {
+            if (contentLength > maxPartSize)
+                throw new UncheckedIOException(
+                        new IOException("Content-Length " + contentLength + " is larger than " + maxPartSize));
+            frame = pool.acquire((int) contentLength);
+            frameView = frame.writeBuffer();
+            bodyRead = 0;
+            state = BODY;
+        }
+    }
+
+    /**
+     * Completes a body with Content-Length, resyncing on a delimiter inside of it
+     */
+    private void finishBody() {
+        int end = frame.length();
+        // an off-heap body is scanned in place, and copied only when it has a delimiter, which is rare
+        byte[] body = !frame.isDirect() ? frame.array()
+                : boundary.indexOf(frameView, 0, end) >= 0 ? frame.toByteArray() : null;
+        for (int from = 0; body != null;) {
+            int at = boundary.indexOf(body, from, end);
+            if (at < 0)
+                break;
+            if (!MultipartBoundary.startsLine(body, 0, at)
+                    || boundary.delimiterLine(body, at, end) == MultipartBoundary.NOT_DELIMITER) {
+                from = at + 1;
+                continue;
+            }
+            unread(body, at, end - at);
+            frame.setLength(MultipartBoundary.trimLineEnd(body, 0, at));
+            break;
+        }
+        deliver(frame);
+        frame = null;
+        frameView = null;
+    }
+
+    /**
+     * Moves bytes up to the next delimiter to scratch
+     * @return true when the delimiter was found and the frame was delivered
+     */
+    private boolean readToBoundary() {
+        for (int from = pos;;) {
+            int at = boundary.indexOf(buffer, from, limit);
+            int line = MultipartBoundary.NOT_DELIMITER;
+            // a line feed right before the delimiter may have been moved to scratch already
+            boolean startsLine = at > pos ? buffer[at - 1] == MultipartBoundary.LF
+                    : scratchLength == 0 || scratch[scratchLength - 1] == MultipartBoundary.LF;
+            if (at >= 0 && startsLine)
+                line = boundary.delimiterLine(buffer, at, limit);
+            if (at >= 0 && line == MultipartBoundary.NOT_DELIMITER) {
+                from = at + 1;
+                continue;
+            }
+            int end = at < 0 ? Math.max(pos, limit - boundary.length() - 1) : at;
+            int n = end - pos;
+            if (scratchLength + n > maxPartSize)
+                throw new UncheckedIOException(new IOException("Part is larger than " + maxPartSize));
+            if (scratchLength + n > scratch.length)
+                scratch = Arrays.copyOf(scratch, Math.max(scratchLength + n, scratch.length * 2));
+            System.arraycopy(buffer, pos, scratch, scratchLength, n);
+            scratchLength += n;
+            pos = end;
+            if (line != MultipartBoundary.DELIMITER && line != MultipartBoundary.CLOSE_DELIMITER)
+                return false;
+            int length = MultipartBoundary.trimLineEnd(scratch, 0, scratchLength);
+            Frame f = pool.acquire(length);
+            f.writeBuffer().put(scratch, 0, length);
+            deliver(f);
+            return true;
+        }
+    }
+
+    private void deliver(Frame f) {
+        state = PREAMBLE;
+        listener.onFrame(f);
+    }
+
+    /**
+     * Pushes bytes back in front of the buffered data
+     */
+    private void unread(byte[] src, int offset, int length) {
+        int buffered = limit - pos;
+        if (length > pos) {
+            byte[] b = buffer.length >= length + buffered ? buffer : new byte[length + buffered];
+            System.arraycopy(buffer, pos, b, length, buffered);
+            if (b != buffer) {
+                buffer = b;
+                bufferView = ByteBuffer.wrap(buffer);
+            }
+            pos = 0;
+        } else {
+            pos -= length;
+        }
+        limit = pos + length + buffered;
+        System.arraycopy(src, offset, buffer, pos, length);
+    }
+
+}
@@ -0,0 +1,256 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * <p>Streaming reader of multipart/x-mixed-replace parts over a blocking InputStream.</p>
+ * <p>Has one reusable buffer per stream, finds part delimiters with {@link MultipartBoundary} and parses
+ * headers in place, so reading a part doesn't create any Strings. Part bodies with Content-Length
+ * are copied directly to the caller's array, large bodies bypass the internal buffer.</p>
+ * <p>Usage is like this:
+ *   <pre>
+ *   while (reader.nextPart()) {
+ *       long length = reader.readHeaders();
+ *       ...
+ *   }
+ *   </pre>
+ * </p>
+ * <p>Not thread safe.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+final class MultipartStreamReader implements Closeable {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+    // the longest header or delimiter line, the buffer doesn't grow beyond it for a line, which never ends
+    static final int MAX_LINE_SIZE = 16 * 1024;
+
+    private final InputStream stream;
+    private final MultipartBoundary boundary;
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+    // grows to the largest frame without Content-Length, then gets reused
+    private byte[] scratch = new byte[0];
+    private int maxPartSize = Integer.MAX_VALUE;
+
+    MultipartStreamReader(InputStream stream, MultipartBoundary boundary) {
+        this(stream, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    MultipartStreamReader(InputStream stream, MultipartBoundary boundary, int bufferSize) {
+        this.stream = stream;
+        this.boundary = boundary;
+        this.buffer = new byte[Math.max(bufferSize, boundary.length() * 4)];
+    }
+
+    /**
+     * Sets the largest part body to be read, a larger one fails the stream, so a broken camera can't make the reader
+     * allocate any amount of memory, see {@link MemoryGovernor#getMaxFrameSize()}
+     */
+    void setMaxPartSize(int maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * Skips everything up to and including the next delimiter line, e.g. a preamble or the rest of
+     * a previous part, which wasn't read because of a wrong Content-Length.
+     *
+     * @return true if a part follows, false on the close delimiter or the end of the stream
+     * @throws IOException
+     */
+    boolean nextPart() throws IOException {
+        for (;;) {
+            int at = boundary.indexOf(buffer, pos, limit);
+            if (at < 0) {
+                // keep the tail, which may hold a beginning of the delimiter
+                pos = Math.max(pos, limit - boundary.length() + 1);
+                if (!fill())
+                    return false;
+                continue;
+            }
+            switch (boundary.delimiterLine(buffer, at, limit)) {
+            case MultipartBoundary.DELIMITER:
+                pos = MultipartBoundary.indexOfLF(buffer, at + boundary.length(), limit) + 1;
+                return true;
+            case MultipartBoundary.CLOSE_DELIMITER:
+                pos = limit;
+                return false;
+            case MultipartBoundary.INCOMPLETE:
+                pos = at;
+                if (!fill())
+                    return false;
+                break;
+            default:
+                pos = at + 1;
+            }
+        }
+    }
+
+    /**
+     * Reads part headers up to the empty line.
+     *
+     * @return value of Content-Length header or -1 if there is none
+     * @throws IOException if Content-Length is larger than the max part size
+     */
+    long readHeaders() throws IOException {
+        long length = -1;
+        for (;;) {
+            int lf = MultipartBoundary.indexOfLF(buffer, pos, limit);
+            if (lf < 0) {
+                if (!fill())
+                    throw new EOFException("End of stream in part headers");
+                continue;
+            }
+            if (MultipartBoundary.isBlank(buffer, pos, lf)) {
+                pos = lf + 1;
+                if (length > maxPartSize)
+                    throw new IOException("Content-Length " + length + " is larger than " + maxPartSize);
+                return length;
+            }
+            long value = MultipartBoundary.contentLength(buffer, pos, lf);
+            if (value >= 0)
+                length = value;
+            pos = lf + 1;
+        }
+    }
+
+    /**
+     * Reads exactly <code>length</code> bytes of a part body
+     * @throws IOException
+     */
+    void readFully(byte[] dst, int offset, int length) throws IOException {
+        int n = Math.min(length, limit - pos);
+        System.arraycopy(buffer, pos, dst, offset, n);
+        pos += n;
+        offset += n;
+        length -= n;
+        while (length > 0) {
+            int bytes = stream.read(dst, offset, length);
+            if (bytes < 0)
+                throw new EOFException("End of stream in part body");
+            offset += bytes;
+            length -= bytes;
+        }
+    }
+
+    /**
+     * Checks a body, which was read with {@link #readFully(byte[], int, int)}, for a delimiter inside of it. It happens
+     * when a camera sends Content-Length greater than the real frame. In that case the tail starting from
+     * the delimiter is pushed back to be read as the next part.
+     *
+     * @return real length of the body
+     */
+    int resync(byte[] body, int offset, int length) {
+        int end = offset + length;
+        for (int from = offset;;) {
+            int at = boundary.indexOf(body, from, end);
+            if (at < 0)
+                return length;
+            if (!MultipartBoundary.startsLine(body, offset, at)
+                    || boundary.delimiterLine(body, at, end) == MultipartBoundary.NOT_DELIMITER) {
+                from = at + 1;
+                continue;
+            }
+            unread(body, at, end - at);
+            return MultipartBoundary.trimLineEnd(body, offset, at) - offset;
+        }
+    }
+
+    /**
+     * Reads a part body without Content-Length, i.e. up to the next delimiter.
+     *
+     * @return length of the body, the body itself is in {@link #scratch()}
+     * @throws IOException
+     */
+    int readToBoundary() throws IOException {
+        int length = 0;
+        for (int from = pos;;) {
+            int at = boundary.indexOf(buffer, from, limit);
+            int state = MultipartBoundary.NOT_DELIMITER;
+            // a line feed right before the delimiter may have been moved to scratch already
+            boolean startsLine = at > pos ? buffer[at - 1] == MultipartBoundary.LF
+                    : length == 0 || scratch[length - 1] == MultipartBoundary.LF;
+            if (at >= 0 && startsLine)
+                state = boundary.delimiterLine(buffer, at, limit);
+            if (at >= 0 && state == MultipartBoundary.NOT_DELIMITER) {
+                from = at + 1;
+                continue;
+            }
+            // everything before a possible delimiter is the body for sure
+            int end = at < 0 ? Math.max(pos, limit - boundary.length() - 1) : at;
+            int n = end - pos;
+            if (length + n > maxPartSize)
+                throw new IOException("Part is larger than " + maxPartSize);
+            if (length + n > scratch.length)
+                scratch = Arrays.copyOf(scratch, Math.max(length + n, scratch.length * 2));
+            System.arraycopy(buffer, pos, scratch, length, n);
+            length += n;
+            pos = end;
+            if (state == MultipartBoundary.DELIMITER || state == MultipartBoundary.CLOSE_DELIMITER)
+                return MultipartBoundary.trimLineEnd(scratch, 0, length);
+            if (!fill())
+                throw new EOFException("End of stream in part body");
+            from = pos;
+        }
+    }
+
+    /**
+     * @return buffer with the last body read by {@link #readToBoundary()}
+     */
+    byte[] scratch() {
+        return scratch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    /**
+     * Pushes bytes back in front of the buffered data.
+     */
+    private void unread(byte[] src, int offset, int length) {
+        int buffered = limit - pos;
+        if (length > pos) {
+            byte[] b = buffer.length >= length + buffered ? buffer : new byte[length + buffered];
+            System.arraycopy(buffer, pos, b, length, buffered);
+            buffer = b;
+            pos = 0;
+        } else {
+            pos -= length;
+        }
+        limit = pos + length + buffered;
+        System.arraycopy(src, offset, buffer, pos, length);
+    }
+
+    /**
+     * Reads more data from the stream, compacting or growing the buffer if needed.
+     * @return false on the end of the stream
+     * @throws IOException if the buffer is full of a line longer than {@link #MAX_LINE_SIZE}
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            // parts are read to the boundary, so what's left is a header or delimiter line
+            if (limit >= MAX_LINE_SIZE)
+                throw new IOException("Part header line is longer than " + MAX_LINE_SIZE);
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_LINE_SIZE));
+        }
+        int bytes = stream.read(buffer, limit, buffer.length - limit);
+        if (bytes < 0)
+            return false;
+        limit += bytes;
+        return true;
+    }
+
+}
@@ -0,0 +1,35 @@
+package ru.synesis.media.player;
+
+/**
+ * What a {@link FrameHub} subscription does with a new frame when its subscriber hasn't requested more
+ * and its queue is full.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Keeps only the newest frame, like {@link FrameMailbox} does, e.g. for a display
+     */
+    KEEP_LATEST,
+
+    /**
+     * Drops the oldest queued frame, so the subscriber gets the newest frames in order
+     */
+    DROP_OLDEST,
+
+    /**
+     * Buffers frames, and fails the subscription with IllegalStateException when the buffer overflows,
+     * e.g. for a recorder which must not lose frames silently
+     */
+    BUFFER,
+
+    /**
+     * Blocks the thread which reads the stream until there's room, so the slow subscriber holds back the connection
+     * and all other subscribers of it. Use it with a blocking source only, like {@link FrameHub#readFrom(VideoSource)},
+     * never on an event loop thread.
+     */
+    BLOCK_UPSTREAM
+
+}
@@ -0,0 +1,443 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * <p>Decode stage, which spreads frames of one stream over a worker pool and delivers decoded images in the order
+ * of the stream. It's for streams, which one core can't decode at their frame rate, like 4K at 15 fps.</p>
+ * <p>The number of frames decoded at once follows the measured decode time and frame interval, so a light stream
+ * takes one worker, and a heavy one as many as it needs, up to the max parallelism. Frames which wait for a worker
+ * longer than a newer one are dropped, the stream is live.</p>
+ * <p>Decoded images wait in a reorder window for older frames still being decoded. The oldest frame is dropped as
+ * late when the window is full, or when a newer image has waited for it longer than the max delay.</p>
+ *   <pre>
+ *   ParallelDecoder&lt;BufferedImage&gt; decoder = new ParallelDecoder&lt;&gt;(8, decoders, listener);
+ *   for (Frame frame : src.frames()) {
+ *       decoder.submit(frame);
+ *   }
+ *   </pre>
+ * <p>Every worker uses its own {@link Decoder}, so decoders needn't be thread safe. The listener is called
+ * by one thread at a time, but for {@link Listener#recycle(Object)}. An image decoded for a frame, which was dropped
+ * meanwhile, goes to the latter, so decoders may take images from a pool.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class ParallelDecoder<T> implements Closeable {
+
+    public static final int DEFAULT_WINDOW = 8;
+    public static final long DEFAULT_MAX_DELAY = 200; /* milliseconds */
+
+    // workers are added when decode time of a frame comes close to the frame interval
+    private static final double HEADROOM = 1.25;
+    // weight of a new sample in the moving averages of decode time and frame interval
+    private static final double ALPHA = 0.125;
+
+    // decode is CPU bound, so all streams share a thread per core
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), StreamExecutors.daemonThreadFactory("ParallelDecoder"));
+
+    private final ExecutorService executor;
+    private final int maxParallelism;
+    private final Supplier<? extends Decoder<T>> decoders;
+    private final Listener<T> listener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean delivering = new AtomicBoolean();
+    private final LongAdder decodedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    // guarded by lock
+    private final ArrayDeque<Slot<T>> window = new ArrayDeque<>();
+    private final ArrayDeque<Slot<T>> pending = new ArrayDeque<>();
+    private final ArrayDeque<Slot<T>> ready = new ArrayDeque<>();
+    private final ArrayDeque<Decoder<T>> idleDecoders = new ArrayDeque<>();
+    private int windowSize = DEFAULT_WINDOW;
+    private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY);
+    private int parallelism = 1;
+    private int running;
+    // bytes of frames queued or being decoded, written under lock, readable without it, e.g. by metrics
+    private volatile long frameBytes;
+    private long lastSubmitNanos;
+    private double intervalNanos;
+    private double decodeNanos;
+    private boolean closed;
+
+    /**
+     * Decoder, which runs workers on a thread per core pool shared by all streams
+     * @param maxParallelism most frames of the stream decoded at once
+     * @param decoders creates a decoder for a worker
+     * @param listener gets decoded images in the order of the stream
+     */
+    public ParallelDecoder(int maxParallelism, Supplier<? extends Decoder<T>> decoders, Listener<T> listener) {
+        this(DEFAULT_EXECUTOR, maxParallelism, decoders, listener);
+    }
+
+    public ParallelDecoder(ExecutorService executor, int maxParallelism, Supplier<? extends Decoder<T>> decoders,
+            Listener<T> listener) {
+        if (maxParallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + maxParallelism);
+        this.executor = executor;
+        this.maxParallelism = maxParallelism;
+        this.decoders = decoders;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the number of frames, which may be submitted and not yet delivered, 8 by default
+     */
+    public void setWindow(int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        lock.lock();
+        try {
+            this.windowSize = window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the time a decoded image waits for older frames, before they are dropped as late
+     */
+    public void setMaxDelay(long maxDelayMillis) {
+        lock.lock();
+        try {
+            this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the frame for decoding, it's called by the thread which reads the stream. The frame is released
+     * by the decoder.
+     */
+    public void submit(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                frame.release();
+                return;
+            }
+            long now = System.nanoTime();
+            if (lastSubmitNanos != 0)
+                intervalNanos = average(intervalNanos, now - lastSubmitNanos);
+            lastSubmitNanos = now;
+            frameBytes += frame.capacity();
+            Slot<T> slot = new Slot<>(frame);
+            window.add(slot);
+            pending.add(slot);
+            // a frame, which still waits for a worker when a newer one comes, would be late anyway
+            while (pending.size() > parallelism) {
+                drop(pending.peek());
+            }
+            while (window.size() > windowSize) {
+                drop(window.peek());
+            }
+            dropLate(now);
+            collectReady();
+            startWorkers();
+        } finally {
+            lock.unlock();
+        }
+        deliver();
+    }
+
+    /**
+     * @return frames decoded at once now, it's between 1 and max parallelism
+     */
+    public int getParallelism() {
+        lock.lock();
+        try {
+            return parallelism;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDecodedCount() {
+        return decodedCount.sum();
+    }
+
+    /**
+     * @return frames dropped as late or stale
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    /**
+     * @return bytes of pooled buffers held by frames, which are queued or being decoded
+     */
+    public long getBufferedBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * Releases queued frames and recycles images not delivered yet. Frames being decoded are recycled when
+     * they're done.
+     */
+    @Override
+    public void close() {
+        ArrayDeque<T> recycled = new ArrayDeque<>();
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            for (Slot<T> slot : pending) {
+                frameBytes -= slot.frame.capacity();
+                slot.frame.release();
+            }
+            pending.clear();
+            window.clear();
+            for (Slot<T> slot : ready) {
+                if (slot.image != null)
+                    recycled.add(slot.image);
+            }
+            ready.clear();
+            for (Decoder<T> decoder : idleDecoders) {
+                decoder.close();
+            }
+            idleDecoders.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (T image : recycled) {
+            listener.recycle(image);
+        }
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + (sample - average) * ALPHA;
+    }
+
+    /**
+     * Removes the frame from the window, it's delivered as dropped. A frame being decoded is released by its worker,
+     * which recycles the image.
+     */
+    private void drop(Slot<T> slot) {
+        slot.dropped = true;
+        window.remove(slot);
+        if (pending.remove(slot)) {
+            frameBytes -= slot.frame.capacity();
+            slot.frame.release();
+        }
+        ready.add(slot);
+    }
+
+    /**
+     * Drops frames still being decoded, which the oldest decoded image has waited for longer than the max delay
+     */
+    private void dropLate(long now) {
+        for (Slot<T> slot : window) {
+            if (slot.done) {
+                if (now - slot.doneNanos > maxDelayNanos) {
+                    while (window.peek() != slot) {
+                        drop(window.peek());
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void collectReady() {
+        while (!window.isEmpty() && window.peek().done) {
+            ready.add(window.poll());
+        }
+    }
+
+    private void startWorkers() {
+        while (running < parallelism && !pending.isEmpty()) {
+            final Slot<T> slot = pending.poll();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decode(slot);
+                    }
+                });
+                running++;
+            } catch (RejectedExecutionException e) {
+                frameBytes -= slot.frame.capacity();
+                slot.frame.release();
+                slot.error = new IOException("Decoder pool is shut down", e);
+                slot.done = true;
+                collectReady();
+            }
+        }
+    }
+
+    private void decode(Slot<T> slot) {
+        Decoder<T> decoder;
+        lock.lock();
+        try {
+            decoder = idleDecoders.poll();
+        } finally {
+            lock.unlock();
+        }
+        long start = System.nanoTime();
+        try {
+            if (decoder == null)
+                decoder = decoders.get();
+            slot.image = decoder.decode(slot.frame);
+        } catch (IOException e) {
+            slot.error = e;
+        } catch (RuntimeException e) {
+            // a broken JPEG may fail deep in the reader
+            slot.error = new IOException(e);
+        } finally {
+            slot.frame.release();
+        }
+        long now = System.nanoTime();
+        T recycled = null;
+        lock.lock();
+        try {
+            running--;
+            frameBytes -= slot.frame.capacity();
+            slot.decodeNanos = now - start;
+            slot.doneNanos = now;
+            slot.done = true;
+            if (decoder != null) {
+                if (closed)
+                    decoder.close();
+                else
+                    idleDecoders.push(decoder);
+            }
+            // dropped while being decoded, or nobody takes it anymore
+            if (slot.dropped || closed) {
+                recycled = slot.image;
+                slot.image = null;
+            }
+            if (closed)
+                return;
+            decodeNanos = average(decodeNanos, slot.decodeNanos);
+            if (intervalNanos > 0) {
+                int needed = (int) Math.ceil(decodeNanos * HEADROOM / intervalNanos);
+                parallelism = Math.max(1, Math.min(Math.min(needed, maxParallelism), windowSize));
+            }
+            dropLate(now);
+            collectReady();
+            startWorkers();
+        } finally {
+            lock.unlock();
+            if (recycled != null)
+                listener.recycle(recycled);
+        }
+        deliver();
+    }
+
+    /**
+     * Passes ready frames to the listener, by one thread at a time, so they keep the order
+     */
+    private void deliver() {
+        while (delivering.compareAndSet(false, true)) {
+            try {
+                for (;;) {
+                    Slot<T> slot;
+                    lock.lock();
+                    try {
+                        slot = ready.poll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (slot == null)
+                        break;
+                    if (slot.dropped) {
+                        droppedCount.increment();
+                        listener.onDropped();
+                    } else if (slot.error != null) {
+                        errorCount.increment();
+                        listener.onError(slot.error);
+                    } else {
+                        decodedCount.increment();
+                        listener.onDecoded(slot.image, slot.decodeNanos);
+                    }
+                }
+            } finally {
+                delivering.set(false);
+            }
+            // a worker may have added frames after the poll and before the flag was reset
+            lock.lock();
+            try {
+                if (ready.isEmpty())
+                    return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Decoder of one worker
+     */
+    public interface Decoder<T> extends Closeable {
+
+        T decode(Frame frame) throws IOException;
+
+        @Override
+        void close();
+
+    }
+
+    /**
+     * Receiver of decoded images, in the order of the stream
+     */
+    public interface Listener<T> {
+
+        void onDecoded(T image, long decodeNanos);
+
+        /**
+         * Called for a frame, which couldn't be decoded
+         */
+        void onError(IOException e);
+
+        /**
+         * Called for a frame dropped as late, or because a newer one came before a worker was free
+         */
+        void onDropped();
+
+        /**
+         * Called for the image of a frame, which was dropped or the decoder was closed while it was being decoded,
+         * so the image may be reused. It's called by the worker, maybe at the same time as the other methods.
+         */
+        void recycle(T image);
+
+    }
+
+    /**
+     * A frame in the window, fields are guarded by the lock, but image and error, which are written by the worker
+     * before it takes the lock
+     */
+    private static final class Slot<T> {
+
+        final Frame frame;
+        T image;
+        IOException error;
+        long decodeNanos;
+        long doneNanos;
+        boolean done;
+        boolean dropped;
+
+        Slot(Frame frame) {
+            this.frame = frame;
+        }
+
+    }
+
+}
@@ -1,32 +1,50 @@
 package ru.synesis.media.player;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.Slider;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.HBoxBuilder;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.StackPaneBuilder;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.VBoxBuilder;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
@@ -37,38 +55,143 @@ import javafx.stage.WindowEvent;
  * 
  * This class is a UI implementation.
  * 
- * @see StreamThread, VideoSource
+ * @see StreamTask, VideoSource
  * 
  * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
  */
 public class Player extends Application {
     
     private static final String TITLE = "Motion JPEG (multipart/x-mixed-replace) Player - %1$s";
+    private static final long DEFAULT_STATS_INTERVAL = 500; /* milliseconds */
+    private static final double ZOOM_STEP = 1.25;
+    private static final double DEFAULT_GRID_FPS = 15;
+    // a still scene is shown once a second when the motion gate is on
+    private static final long MOTION_HOLD = 1000; /* milliseconds */
+    private static final long MOTION_IDLE_INTERVAL = 1000; /* milliseconds */
+    private static final int GRID_IO_THREADS = 2;
+    private static final String POSITION = "Position:\t%1$tF %1$tT.%1$tL";
     
-    private StreamThread streamThread;
+    private StreamTask streamTask;
+    private ArchivePlayback archivePlayback;
+    // a virtual thread per stream on Java 21+, see StreamExecutors
+    private final ExecutorService streamExecutor = StreamExecutors.newPerTaskExecutor("StreamTask");
     private String currentUrl;
     private boolean statsEnabled = true;
+    private long statsIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STATS_INTERVAL);
+    private int decodeParallelism = 1;
+    private float motionThreshold = Float.NaN;
+    private long lastStatsUpdate;
     
     // UI Controls
     private Label labelUrl;
     private Label labelFrames;
     private Label labelEFrames;
+    private Label labelDFrames;
+    private Label labelDupFrames;
     private Label labelTimeUp;
     private Label labelTotalBytes;
     private Label labelBandwidth;
+    private Label labelFps;
+    private Label labelLatency;
     private Stage ownerStage;
     private Scene scene;
     private MenuBar menuBar;
     private ImageView imageView;
+    private HBox archiveBar;
+    private Button buttonPlay;
+    private Slider sliderPosition;
+    // the slider is being moved by the pulse, not by the user
+    private boolean updatingSlider;
+    private final Viewport viewport = new Viewport();
+    // shared by all grid windows, created on the first one
+    private IngestEngine ingestEngine;
+    private DecodeScheduler decodeScheduler;
+    private MetricsHttpServer metricsServer;
  
+    /**
+     * Every pulse shows the latest decoded image, if there is a new one, and refreshes
+     * statistics every statsInterval, so a stream costs at most one UI update per screen refresh.
+     */
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (archivePlayback != null) {
+                handleArchive(archivePlayback, now);
+                return;
+            }
+            StreamTask t = streamTask;
+            if (t == null)
+                return;
+            Image image = t.pollImage();
+            if (image != null)
+                imageView.setImage(image);
+            if (statsEnabled && now - lastStatsUpdate >= statsIntervalNanos) {
+                lastStatsUpdate = now;
+                labelFrames.setText(t.getFrameCount());
+                labelEFrames.setText(t.getErrorFrameCount());
+                labelDFrames.setText(t.getDroppedFrameCount());
+                labelDupFrames.setText(t.getDuplicateFrameCount());
+                labelTimeUp.setText(t.getTimeUp());
+                labelTotalBytes.setText(t.getBytesRead());
+                labelBandwidth.setText(t.getBandwidth());
+                labelFps.setText(t.getFps());
+                labelLatency.setText(t.getLatency());
+            }
+        }
+    };
+
+    private void handleArchive(ArchivePlayback p, long now) {
+        Image image = p.pollImage();
+        if (image != null)
+            imageView.setImage(image);
+        if (!sliderPosition.isValueChanging() && p.getPosition() >= 0) {
+            updatingSlider = true;
+            sliderPosition.setValue(p.getPositionTime());
+            updatingSlider = false;
+        }
+        buttonPlay.setText(p.isPaused() ? "Play" : "Pause");
+        if (statsEnabled && now - lastStatsUpdate >= statsIntervalNanos) {
+            lastStatsUpdate = now;
+            labelFrames.setText(String.format("Frames:\t\t%d of %d", p.getPosition() + 1,
+                    p.getReader().getFrameCount()));
+            labelEFrames.setText(String.format("Error frames:\t%d", p.getErrorFrameCount()));
+            labelDFrames.setText(String.format("Skipped frames:\t%d", p.getSkippedFrameCount()));
+            labelDupFrames.setText("");
+            labelTimeUp.setText(String.format(POSITION, p.getPositionTime()));
+            labelTotalBytes.setText(String.format("Decoded frames:\t%d", p.getDecodedFrameCount()));
+            labelBandwidth.setText(String.format("Speed:\t\t%.0fx", p.getSpeed()));
+            labelFps.setText("");
+            labelLatency.setText("");
+        }
+    }
+
     @Override
     public void start(final Stage stage) throws Exception {
         this.ownerStage = stage;
+        // statistics refresh rate may be set like --statsInterval=1000 (milliseconds)
+        String statsInterval = getParameters().getNamed().get("statsInterval");
+        if (statsInterval != null)
+            statsIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(statsInterval));
+        // a stream, which one core can't decode at its frame rate, like 4K, may be decoded by several workers,
+        // like --decodeThreads=4, otherwise only the latest frame is decoded
+        String decodeThreads = getParameters().getNamed().get("decodeThreads");
+        if (decodeThreads != null)
+            decodeParallelism = Integer.parseInt(decodeThreads);
+        // frames of still scenes aren't decoded, but one a second, like --motion=0.01 (part of the picture changed)
+        String motion = getParameters().getNamed().get("motion");
+        if (motion != null)
+            motionThreshold = Float.parseFloat(motion);
+        // metrics of all streams in Prometheus text format at http://host:port/metrics, like --metricsPort=9404
+        String metricsPort = getParameters().getNamed().get("metricsPort");
+        if (metricsPort != null)
+            metricsServer = new MetricsHttpServer(new InetSocketAddress(Integer.parseInt(metricsPort)),
+                    MetricsRegistry.shared());
         stage.setTitle(String.format(TITLE, ""));
         stage.setOnCloseRequest(new EventHandler<WindowEvent>() {
             @Override
             public void handle(WindowEvent arg0) {
                 stopStreamAndWait();
+                stopArchiveAndWait();
             }
             
         });
@@ -76,7 +199,9 @@ public class Player extends Application {
         menuBar = new MenuBar();
         Menu menuFile = new Menu("File");
         MenuItem menuOpenUrl = new MenuItem("Open URL");
-        menuFile.getItems().add(menuOpenUrl);
+        MenuItem menuOpenGrid = new MenuItem("Open grid");
+        MenuItem menuOpenArchive = new MenuItem("Open archive");
+        menuFile.getItems().addAll(menuOpenUrl, menuOpenGrid, menuOpenArchive);
         Menu menuOptions = new Menu("Options");
         CheckMenuItem checkOptionsMenuItem = new CheckMenuItem("Show statistics");
         checkOptionsMenuItem.setSelected(statsEnabled);
@@ -91,22 +216,53 @@ public class Player extends Application {
         // Main scene
         imageView = new ImageView();
         imageView.getStyleClass().add("imageView");
-        BorderPane borderPaneImView = new BorderPane();
+        final BorderPane borderPaneImView = new BorderPane();
         borderPaneImView.setCenter(imageView);
+        // frames may be decoded smaller than the view, so the view scales them up to its size
+        imageView.setPreserveRatio(true);
+        imageView.fitWidthProperty().bind(borderPaneImView.widthProperty());
+        imageView.fitHeightProperty().bind(borderPaneImView.heightProperty());
+        ChangeListener<Number> sizeListener = new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> ov, Number oldVal, Number newVal) {
+                viewport.setSize(borderPaneImView.getWidth(), borderPaneImView.getHeight());
+            }
+        };
+        borderPaneImView.widthProperty().addListener(sizeListener);
+        borderPaneImView.heightProperty().addListener(sizeListener);
         
         labelUrl = new Label("URL: ");
         labelFrames = new Label("Frames: ");
         labelEFrames = new Label("Error frames: ");
+        labelDFrames = new Label("Dropped frames: ");
+        labelDupFrames = new Label("Duplicate frames: ");
         labelTimeUp = new Label("Time up: ");
         labelTotalBytes = new Label("Total: ");
         labelBandwidth = new Label("Bandwidth: ");
+        labelFps = new Label("Frame rate: ");
+        labelLatency = new Label("Latency p99: ");
         
-        final VBox infoPane = VBoxBuilder.create().children(labelUrl, labelFrames, labelEFrames, labelTimeUp, labelTotalBytes, labelBandwidth).build();
+        final VBox infoPane = VBoxBuilder.create().children(labelUrl, labelFrames, labelEFrames, labelDFrames, labelDupFrames, labelTimeUp, labelTotalBytes, labelBandwidth, labelFps, labelLatency).build();
         infoPane.getStyleClass().add("infoPane");
         infoPane.setVisible(statsEnabled);
 
+        // archive playback controls, shown while an archive is open
+        Button buttonBack = new Button("<|");
+        buttonPlay = new Button("Pause");
+        Button buttonForward = new Button("|>");
+        final ComboBox<String> comboSpeed = new ComboBox<>();
+        comboSpeed.getItems().addAll("1x", "2x", "4x", "8x", "16x");
+        comboSpeed.setValue("1x");
+        sliderPosition = new Slider();
+        HBox.setHgrow(sliderPosition, Priority.ALWAYS);
+        archiveBar = HBoxBuilder.create().children(buttonBack, buttonPlay, buttonForward, comboSpeed, sliderPosition)
+                .alignment(Pos.CENTER_LEFT).padding(new Insets(5)).spacing(7).build();
+        archiveBar.getStyleClass().add("archiveBar");
+        archiveBar.setVisible(false);
+
         BorderPane borderPaneStatsView = new BorderPane();
         borderPaneStatsView.setTop(infoPane);
+        borderPaneStatsView.setBottom(archiveBar);
 
         StackPane stack = StackPaneBuilder.create().children(borderPaneImView, borderPaneStatsView).alignment(Pos.TOP_LEFT).build();
         
@@ -125,15 +281,32 @@ public class Player extends Application {
         scene.setOnMouseClicked(new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent arg0) {
-                if (streamThread != null) {
-                    streamThread.interrupt();
-                    streamThread = null;
+                // the archive is controlled by its bar
+                if (archivePlayback != null)
+                    return;
+                if (streamTask != null) {
+                    streamTask.stop();
+                    streamTask = null;
                 } else {
                     startStream();
                 }
             }
         });
         
+        // mouse wheel zooms in and out around the pointer, only the zoomed in region gets decoded
+        scene.setOnScroll(new EventHandler<ScrollEvent>() {
+            @Override
+            public void handle(ScrollEvent event) {
+                Bounds bounds = imageView.getBoundsInParent();
+                if (bounds.getWidth() <= 0 || bounds.getHeight() <= 0 || event.getDeltaY() == 0)
+                    return;
+                Point2D p = imageView.getParent().sceneToLocal(event.getSceneX(), event.getSceneY());
+                double x = Math.min(1, Math.max(0, (p.getX() - bounds.getMinX()) / bounds.getWidth()));
+                double y = Math.min(1, Math.max(0, (p.getY() - bounds.getMinY()) / bounds.getHeight()));
+                viewport.zoom(event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP, x, y);
+            }
+        });
+        
         checkOptionsMenuItem.selectedProperty().addListener(new ChangeListener<Boolean>() {
             @Override
             public void changed(ObservableValue<? extends Boolean> ov, Boolean oldVal, Boolean newVal) {
@@ -142,6 +315,56 @@ public class Player extends Application {
             }
         });
         
+        buttonBack.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                if (archivePlayback != null)
+                    archivePlayback.step(-1);
+            }
+        });
+        buttonForward.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                if (archivePlayback != null)
+                    archivePlayback.step(1);
+            }
+        });
+        buttonPlay.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                if (archivePlayback != null)
+                    archivePlayback.setPaused(!archivePlayback.isPaused());
+            }
+        });
+        comboSpeed.valueProperty().addListener(new ChangeListener<String>() {
+            @Override
+            public void changed(ObservableValue<? extends String> ov, String oldVal, String newVal) {
+                if (archivePlayback != null)
+                    archivePlayback.setSpeed(Double.parseDouble(newVal.substring(0, newVal.length() - 1)));
+            }
+        });
+        // dragging the slider scrubs through the archive
+        sliderPosition.valueProperty().addListener(new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> ov, Number oldVal, Number newVal) {
+                if (archivePlayback != null && !updatingSlider)
+                    archivePlayback.seek(newVal.longValue());
+            }
+        });
+        
+        menuOpenArchive.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                DirectoryChooser chooser = new DirectoryChooser();
+                chooser.setTitle("Open camera directory of an archive");
+                File dir = chooser.showDialog(ownerStage);
+                if (dir != null) {
+                    comboSpeed.setValue("1x");
+                    Player.this.openArchive(dir);
+                }
+            }
+        });
+        
         menuHelpShow.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent arg0) {
@@ -149,6 +372,55 @@ public class Player extends Application {
             }
         });
         
+        menuOpenGrid.setOnAction(new EventHandler<ActionEvent>() {
+
+            @Override
+            public void handle(ActionEvent arg0) {
+                
+                final TextArea urlsTextArea = new TextArea();
+                urlsTextArea.setPrefColumnCount(40);
+                urlsTextArea.setPrefRowCount(10);
+                Button ok = new Button("Ok");
+                ok.setMinWidth(70);
+                Button cancel = new Button("Cancel");
+                cancel.setMinWidth(70);
+                
+                final Stage dialogStage = new Stage();
+                dialogStage.initOwner(ownerStage);
+                dialogStage.initStyle(StageStyle.UTILITY);
+                dialogStage.initModality(Modality.WINDOW_MODAL);
+                dialogStage.setScene(new Scene(VBoxBuilder.create()
+                    .children(new Text("Enter URLs, one per line:"), urlsTextArea,
+                            HBoxBuilder.create().children(ok, cancel).spacing(7).alignment(Pos.CENTER_RIGHT).build())
+                    .padding(new Insets(10))
+                    .spacing(7)
+                    .build()));
+                
+                cancel.setOnAction(new EventHandler<ActionEvent>() {
+                    @Override
+                    public void handle(ActionEvent arg0) {
+                        dialogStage.close();
+                    }
+                });
+                ok.setOnAction(new EventHandler<ActionEvent>() {
+                    @Override
+                    public void handle(ActionEvent arg0) {
+                        List<String> urls = new ArrayList<>();
+                        for (String line : urlsTextArea.getText().split("\\r?\\n")) {
+                            if (!line.trim().isEmpty())
+                                urls.add(line.trim());
+                        }
+                        dialogStage.close();
+                        if (!urls.isEmpty())
+                            Player.this.openGrid(urls);
+                    }
+                });
+
+                dialogStage.show();
+            }
+            
+        });
+        
         menuOpenUrl.setOnAction(new EventHandler<ActionEvent>() {
 
             @Override
@@ -185,6 +457,7 @@ public class Player extends Application {
                     @Override
                     public void handle(ActionEvent arg0) {
                         currentUrl = urlTextField.getText();
+                        viewport.reset();
                         ownerStage.setTitle(String.format(TITLE, currentUrl));
                         labelUrl.setText("URL:\t\t\t" + currentUrl);
                         Image img = new Image(getClass().getResourceAsStream("/loading_2.gif"));
@@ -200,30 +473,123 @@ public class Player extends Application {
         });
         
         stage.show();
+        pulse.start();
         
     }
     
+    @Override
+    public void stop() throws Exception {
+        pulse.stop();
+        stopStreamAndWait();
+        stopArchiveAndWait();
+        streamExecutor.shutdown();
+        if (ingestEngine != null)
+            ingestEngine.close();
+        if (decodeScheduler != null)
+            decodeScheduler.shutdown();
+        if (metricsServer != null)
+            metricsServer.close();
+    }
+
+    /**
+     * Opens a window with a grid of streams. All grids share one IngestEngine and one DecodeScheduler.
+     */
+    private void openGrid(List<String> urls) {
+        try {
+            if (ingestEngine == null)
+                ingestEngine = new IngestEngine(GRID_IO_THREADS);
+            if (decodeScheduler == null)
+                decodeScheduler = new DecodeScheduler();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // decode rate of a tile may be set like --gridFps=10
+        String gridFps = getParameters().getNamed().get("gridFps");
+        final Stage gridStage = new Stage();
+        final GridView grid = new GridView(gridStage, urls, decodeScheduler,
+                gridFps != null ? Double.parseDouble(gridFps) : DEFAULT_GRID_FPS);
+        if (!Float.isNaN(motionThreshold))
+            grid.setMotionGate(motionThreshold, MOTION_HOLD, MOTION_IDLE_INTERVAL);
+        gridStage.setTitle(String.format(TITLE, urls.size() + " streams"));
+        Scene gridScene = new Scene(grid.getNode(), 1280, 720);
+        gridScene.setFill(Color.BLACK);
+        gridScene.getStylesheets().add("style.css");
+        gridStage.setScene(gridScene);
+        gridStage.setOnHidden(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent arg0) {
+                grid.close();
+            }
+        });
+        gridStage.show();
+        grid.start(ingestEngine);
+    }
+
+    /**
+     * Plays an archive written by ArchiveWriter in the main window instead of the live stream
+     */
+    private void openArchive(File dir) {
+        ArchiveReader reader;
+        try {
+            reader = ArchiveReader.open(dir.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        stopStreamAndWait();
+        stopArchiveAndWait();
+        viewport.reset();
+        ownerStage.setTitle(String.format(TITLE, dir));
+        labelUrl.setText("Archive:\t\t" + dir);
+        updatingSlider = true;
+        sliderPosition.setMin(reader.getStartTime());
+        sliderPosition.setMax(Math.max(reader.getStartTime() + 1, reader.getEndTime()));
+        sliderPosition.setValue(reader.getStartTime());
+        updatingSlider = false;
+        archiveBar.setVisible(true);
+        archivePlayback = new ArchivePlayback(reader);
+        archivePlayback.setViewport(viewport);
+        streamExecutor.execute(archivePlayback);
+    }
+
+    private void stopArchiveAndWait() {
+        if (archivePlayback != null) {
+            archivePlayback.stop();
+            try {
+                archivePlayback.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            archivePlayback = null;
+            archiveBar.setVisible(false);
+        }
+    }
+
     private void stopStreamAndWait() {
-        if (streamThread != null) {
-            System.out.println("Interrupt Stream Thread");
-            streamThread.interrupt();
-            while (streamThread.isAlive()) {
-                try {
-                    Thread.sleep(300);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        if (streamTask != null) {
+            System.out.println("Stop Stream Task");
+            streamTask.stop();
+            try {
+                streamTask.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-            streamThread = null;
+            streamTask = null;
         }
     }
 
     private void startStream() {
         
         stopStreamAndWait();
+        stopArchiveAndWait();
         
-        streamThread = new StreamThread(currentUrl, ownerStage, scene, menuBar, imageView);
-        streamThread.setOnErrorHandler(new StreamEventHandler<StreamEvent>() {
+        streamTask = new StreamTask(currentUrl, ownerStage, scene, menuBar);
+        streamTask.setViewport(viewport);
+        streamTask.setDecodeParallelism(decodeParallelism);
+        if (!Float.isNaN(motionThreshold))
+            streamTask.setMotionGate(new MotionGate(motionThreshold, MOTION_HOLD, MOTION_IDLE_INTERVAL));
+        streamTask.setOnErrorHandler(new StreamEventHandler<StreamEvent>() {
             @Override
             public void handle(final StreamEvent event) {
                 Platform.runLater(new Runnable() {
@@ -244,8 +610,8 @@ public class Player extends Application {
                             @Override
                             public void handle(ActionEvent arg0) {
                                 
-                                if (streamThread != null && streamThread.isAlive() && !streamThread.isInterrupted()) {
-                                    streamThread.interrupt();
+                                if (streamTask != null && streamTask.isRunning() && !streamTask.isStopped()) {
+                                    streamTask.stop();
                                 }
                                 dialogStage.close();
                             }
@@ -255,23 +621,7 @@ public class Player extends Application {
                 });
             }
         });
-        streamThread.setOnStatsHandler(new StreamEventHandler<StreamEvent>() {
-            @Override
-            public void handle(StreamEvent event) {
-                final StreamThread t = event.getStreamThread();
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        labelFrames.setText(t.getFrameCount());
-                        labelEFrames.setText(t.getErrorFrameCount());
-                        labelTimeUp.setText(t.getTimeUp());
-                        labelTotalBytes.setText(t.getBytesRead());
-                        labelBandwidth.setText(t.getBandwidth());
-                    }
-                });
-            }
-        });
-        streamThread.start();
+        streamExecutor.execute(streamTask);
     }
 
     public static void main(String[] args) {
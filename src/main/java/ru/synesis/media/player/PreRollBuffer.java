@@ -0,0 +1,213 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Pre-roll of one stream: a ring of the most recent frames, so "the current picture" is at hand at once,
+ * and a recording started by an alarm begins some seconds before the alarm.</p>
+ * <p>Frames aren't copied, the buffer holds a {@link Frame#retain() reference} to the pooled frame. It's bounded
+ * twice: frames older than the duration are released, and the oldest ones are released while the buffers of
+ * the frames take more bytes than the budget. The latest frame is kept anyway, whatever its size.</p>
+ * <p>Age is counted from the latest frame rather than the clock, so the buffer of a stalled stream keeps its last
+ * seconds until the stream comes back.</p>
+ *   <pre>
+ *   PreRollBuffer preRoll = new PreRollBuffer(10000, 16L &lt;&lt; 20);
+ *   for (Frame frame : src.frames()) {
+ *       preRoll.add(System.currentTimeMillis(), frame.retain());
+ *       ...
+ *   }
+ *   // on alarm
+ *   preRoll.dumpTo(archive, "gate");
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class PreRollBuffer implements Closeable {
+
+    public static final long DEFAULT_DURATION = 10000; /* milliseconds */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final long durationMillis;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock, oldest first
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private boolean closed;
+    private boolean latestOnly;
+    // readable without the lock, e.g. by metrics
+    private volatile long bufferedBytes;
+
+    public PreRollBuffer() {
+        this(DEFAULT_DURATION, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param durationMillis how far back frames are kept, counted from the latest one
+     * @param maxBytes budget of the stream, frames are counted by the size of their pooled buffers
+     */
+    public PreRollBuffer(long durationMillis, long maxBytes) {
+        if (durationMillis < 0 || maxBytes < 0)
+            throw new IllegalArgumentException("Negative pre-roll: " + durationMillis + " ms, " + maxBytes + " bytes");
+        this.durationMillis = durationMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds the newest frame of the stream and evicts the frames, which are out of the limits now.
+     * The buffer takes over the reference of the caller, a frame added to a closed buffer is released.
+     * @param timestamp milliseconds since epoch, must not decrease
+     */
+    public void add(long timestamp, Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                frame.release();
+                return;
+            }
+            entries.add(new Entry(timestamp, frame));
+            long bytes = bufferedBytes + frame.capacity();
+            while (entries.size() > 1) {
+                Entry oldest = entries.peek();
+                if (!latestOnly && bytes <= maxBytes && timestamp - oldest.timestamp <= durationMillis)
+                    break;
+                entries.poll();
+                bytes -= oldest.frame.capacity();
+                oldest.frame.release();
+            }
+            bufferedBytes = bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the latest frame only, the others are released at once, e.g. when {@link MemoryGovernor} sheds load.
+     * The pre-roll builds up again when it's turned off.
+     */
+    public void setLatestOnly(boolean latestOnly) {
+        lock.lock();
+        try {
+            this.latestOnly = latestOnly;
+            if (!latestOnly)
+                return;
+            long bytes = bufferedBytes;
+            while (entries.size() > 1) {
+                Frame frame = entries.poll().frame;
+                bytes -= frame.capacity();
+                frame.release();
+            }
+            bufferedBytes = bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the latest frame, which the caller has to release, or null if there's none yet
+     */
+    public Frame latest() {
+        lock.lock();
+        try {
+            Entry e = entries.peekLast();
+            return e != null ? e.frame.retain() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return timestamp of the latest frame, or 0 if there's none yet
+     */
+    public long getLatestTimestamp() {
+        lock.lock();
+        try {
+            Entry e = entries.peekLast();
+            return e != null ? e.timestamp : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the buffered frames to the archive, oldest first, with the times they came. The frames stay in the
+     * buffer. Frames of the stream, which come later, may be appended by {@link ArchiveWriter#recorder(String)}.
+     * @return number of frames appended
+     */
+    public int dumpTo(ArchiveWriter archive, String camera) {
+        lock.lock();
+        try {
+            for (Entry e : entries) {
+                archive.append(camera, e.timestamp, e.frame.retain());
+            }
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes the buffered frames to the listener, oldest first. The listener owns the frames it gets,
+     * and it's called under the lock of the buffer, so it must not block.
+     * @return number of frames passed
+     */
+    public int dumpTo(FrameListener listener) {
+        lock.lock();
+        try {
+            for (Entry e : entries) {
+                listener.onFrame(e.frame.retain());
+            }
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getFrameCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return bytes of pooled buffers held by the frames
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Releases the frames, later ones are released as they come
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Entry e; (e = entries.poll()) != null;) {
+                e.frame.release();
+            }
+            bufferedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+
+        final long timestamp;
+        final Frame frame;
+
+        Entry(long timestamp, Frame frame) {
+            this.timestamp = timestamp;
+            this.frame = frame;
+        }
+
+    }
+
+}
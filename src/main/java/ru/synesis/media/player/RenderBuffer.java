@@ -0,0 +1,170 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * <p>Long-lived pixels of one view: decoders write frames into reused int RGB buffers, see
+ * {@link ScaledJpegDecoder#decode(Frame, JpegHeader, Viewport, RenderBuffer)}, and on a pulse the FX thread copies
+ * the latest one into a reused {@link WritableImage}. So steady-state rendering allocates neither pixels nor
+ * images, and the texture of the view is updated in place rather than uploaded anew for a new Image.</p>
+ * <p>With one decoder it's double-buffered: one buffer is decoded into while the other one is published or copied.
+ * A published buffer, which wasn't shown before the next one came, goes back for reuse. Buffers and the image are
+ * re-created only when the size of decoded frames changes, e.g. the camera resolution or the view.</p>
+ *   <pre>
+ *   // decode thread
+ *   renderBuffer.publish(decoder.decode(frame, header, viewport, renderBuffer));
+ *   // on every pulse
+ *   Image image = renderBuffer.render();
+ *   if (image != null)
+ *       imageView.setImage(image);
+ *   </pre>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class RenderBuffer {
+
+    private static final int OPAQUE = 0xFF000000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong allocationCount = new AtomicLong();
+    // guarded by lock
+    private final ArrayDeque<BufferedImage> free = new ArrayDeque<>();
+    private BufferedImage ready;
+    private int width;
+    private int height;
+    // buffers of the current size
+    private int bufferCount;
+    // bytes of the buffers, written under lock, readable without it, e.g. by metrics
+    private volatile long bufferBytes;
+    // touched by the FX thread only
+    private WritableImage image;
+    private volatile long imageBytes;
+
+    /**
+     * Takes a buffer of the size to decode into, it's a reused one, unless the size has changed.
+     * Any thread may call it.
+     */
+    public BufferedImage acquire(int width, int height) {
+        lock.lock();
+        try {
+            if (width != this.width || height != this.height) {
+                // buffers of the old size are left to GC
+                free.clear();
+                bufferCount = 0;
+                this.width = width;
+                this.height = height;
+            }
+            BufferedImage buffer = free.poll();
+            if (buffer != null)
+                return buffer;
+            bufferCount++;
+            bufferBytes = 4L * bufferCount * width * height;
+        } finally {
+            lock.unlock();
+        }
+        allocationCount.incrementAndGet();
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Makes the decoded buffer the one shown on the next pulse. A buffer published before, which wasn't shown,
+     * is reused.
+     */
+    public void publish(BufferedImage buffer) {
+        // JPEG decodes into RGB, while the FX format has alpha
+        int[] pixels = pixels(buffer);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] |= OPAQUE;
+        }
+        lock.lock();
+        try {
+            if (ready != null)
+                recycleLocked(ready);
+            ready = buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a buffer, which won't be published, e.g. the frame failed to decode
+     */
+    public void recycle(BufferedImage buffer) {
+        lock.lock();
+        try {
+            recycleLocked(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recycleLocked(BufferedImage buffer) {
+        if (buffer.getWidth() == width && buffer.getHeight() == height)
+            free.push(buffer);
+    }
+
+    /**
+     * Takes the published buffer, which hasn't been shown yet. The caller recycles it when done.
+     * @return the buffer or null
+     */
+    BufferedImage take() {
+        lock.lock();
+        try {
+            BufferedImage buffer = ready;
+            ready = null;
+            return buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the latest published buffer into the image of the view, it's to be called by the FX thread on a pulse
+     * @return the image, which is the same one while the size stays the same, or null if nothing new was published
+     */
+    public WritableImage render() {
+        BufferedImage buffer = take();
+        if (buffer == null)
+            return null;
+        try {
+            int w = buffer.getWidth();
+            int h = buffer.getHeight();
+            if (image == null || (int) image.getWidth() != w || (int) image.getHeight() != h) {
+                image = new WritableImage(w, h);
+                imageBytes = 4L * w * h;
+                allocationCount.incrementAndGet();
+            }
+            image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels(buffer), 0, w);
+            return image;
+        } finally {
+            recycle(buffer);
+        }
+    }
+
+    /**
+     * @return buffers and images allocated, it doesn't grow while the size of frames stays the same
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     * @return bytes of pixels: buffers of the current size, wherever they are, and the image of the view
+     */
+    public long getBufferedBytes() {
+        return bufferBytes + imageBytes;
+    }
+
+    private static int[] pixels(BufferedImage buffer) {
+        return ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+    }
+
+}
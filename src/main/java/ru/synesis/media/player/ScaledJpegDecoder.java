@@ -0,0 +1,140 @@
+package ru.synesis.media.player;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * <p>Viewport-aware JPEG decoder, which produces only the pixels that are visible: it decodes the zoomed in region
+ * of a frame only, and skips source pixels when the view is smaller than the frame.</p>
+ * <p>ImageIO has no DCT scaling, so it's done with ImageReadParam source region and subsampling. Rows below
+ * the region aren't decoded at all, and subsampling cuts pixel memory and color conversion by the square of
+ * the factor.</p>
+ * <p>One instance per stream, it reuses the ImageReader between frames. Not thread safe.</p>
+ *
+ * @see Viewport
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class ScaledJpegDecoder implements Closeable {
+
+    private final ImageReader reader;
+    private final ImageReadParam param;
+    private int subsampling = 1;
+    private int minSubsampling = 1;
+
+    public ScaledJpegDecoder() {
+        this.reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        this.param = reader.getDefaultReadParam();
+    }
+
+    /**
+     * Tells whether the frame may be decoded with less pixels than it has
+     */
+    public static boolean isReduced(JpegHeader header, Viewport viewport) {
+        return viewport.isZoomed() || viewport.subsampling(viewport.sourceRegion(header.getWidth(), header.getHeight())) > 1;
+    }
+
+    /**
+     * Decodes the visible part of a frame
+     * @param header header of the frame, see {@link JpegHeader#parse(byte[], int, int)}
+     * @throws IOException
+     */
+    public BufferedImage decode(Frame frame, JpegHeader header, Viewport viewport) throws IOException {
+        Rectangle region = viewport.sourceRegion(header.getWidth(), header.getHeight());
+        subsampling = Math.max(minSubsampling, viewport.subsampling(region));
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        try (InputStream is = frame.inputStream(); ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
+            reader.setInput(iis, true, true);
+            return reader.read(0, param);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Decodes the visible part of a frame into a buffer of the view, so no pixels are allocated while the size
+     * of decoded frames stays the same
+     * @param viewport the view, or null to decode the frame in full
+     * @return the buffer to {@link RenderBuffer#publish(BufferedImage)}, it's recycled if the decode fails
+     * @throws IOException
+     */
+    public BufferedImage decode(Frame frame, JpegHeader header, Viewport viewport, RenderBuffer buffer)
+            throws IOException {
+        return decode(frame.inputStream(), header, viewport, buffer);
+    }
+
+    /**
+     * Decodes the visible part of a JPEG, e.g. a slice of a mapped archive segment, into a buffer of the view,
+     * see {@link #decode(Frame, JpegHeader, Viewport, RenderBuffer)}. The position of the buffer doesn't change.
+     * @param header header of the JPEG, see {@link JpegHeader#parse(ByteBuffer)}
+     * @throws IOException
+     */
+    public BufferedImage decode(ByteBuffer jpeg, JpegHeader header, Viewport viewport, RenderBuffer buffer)
+            throws IOException {
+        return decode(new ByteBufferInputStream(jpeg.duplicate()), header, viewport, buffer);
+    }
+
+    private BufferedImage decode(InputStream in, JpegHeader header, Viewport viewport, RenderBuffer buffer)
+            throws IOException {
+        Rectangle region = viewport != null ? viewport.sourceRegion(header.getWidth(), header.getHeight())
+                : new Rectangle(header.getWidth(), header.getHeight());
+        subsampling = Math.max(minSubsampling, viewport != null ? viewport.subsampling(region) : 1);
+        BufferedImage destination = buffer.acquire((region.width + subsampling - 1) / subsampling,
+                (region.height + subsampling - 1) / subsampling);
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        try (InputStream is = in; ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
+            reader.setInput(iis, true, true);
+            if (header.getComponentCount() == 3) {
+                param.setDestination(destination);
+                reader.read(0, param);
+            } else {
+                // the reader decodes into RGB from YCbCr only, grayscale is drawn into the buffer
+                Graphics2D g = destination.createGraphics();
+                g.drawImage(reader.read(0, param), 0, 0, null);
+                g.dispose();
+            }
+            return destination;
+        } catch (IOException | RuntimeException e) {
+            buffer.recycle(destination);
+            throw e;
+        } finally {
+            param.setDestination(null);
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Sets the least subsampling factor, e.g. {@link MemoryGovernor#REDUCED_SUBSAMPLING} when memory is short,
+     * it's 1 by default
+     */
+    public void setMinSubsampling(int minSubsampling) {
+        this.minSubsampling = Math.max(1, minSubsampling);
+    }
+
+    /**
+     * @return subsampling factor of the last decoded frame
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    @Override
+    public void close() {
+        reader.dispose();
+    }
+
+}
@@ -0,0 +1,42 @@
+package ru.synesis.media.player;
+
+/**
+ * How much load a stream sheds, as {@link MemoryGovernor} asks it to. Levels are ordered from the cheapest
+ * to give up to the last resort, and every level includes the ones before it.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public enum ShedLevel {
+
+    /**
+     * Memory is within the budget
+     */
+    NONE,
+
+    /**
+     * Keeps the latest frame of a {@link PreRollBuffer} only, and gives idle pooled buffers to GC
+     */
+    DROP_PRE_ROLL,
+
+    /**
+     * Decodes frames with {@link MemoryGovernor#REDUCED_SUBSAMPLING} at least, so decoded pixels take a quarter
+     * of the memory
+     */
+    REDUCE_RESOLUTION,
+
+    /**
+     * Passes every other frame on, the rest are dropped as they're read
+     */
+    SKIP_FRAMES,
+
+    /**
+     * Closes the connection to the camera, a stream which reconnects by itself stays offline until the level goes down
+     */
+    DISCONNECT;
+
+    public boolean atLeast(ShedLevel level) {
+        return compareTo(level) >= 0;
+    }
+
+}
@@ -0,0 +1,137 @@
+package ru.synesis.media.player;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Blocking transport on a plain {@link Socket}. It sends the same minimal HTTP/1.0 request as {@link IngestStream},
+ * so there's no keep-alive, proxy or redirect handling of HttpURLConnection in the way, and reads the response head
+ * itself.</p>
+ * <p>Only plain http is supported.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class SocketTransport implements StreamTransport {
+
+    public static final String NAME = "socket";
+
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+
+    private volatile int connectTimeout = 10000;
+    private volatile int readTimeout;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Sets connect timeout in milliseconds, 0 means no timeout
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Sets read timeout in milliseconds, 0 means no timeout, which is the default like for VideoSource
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public StreamConnection connect(String urlString, String username, String password) throws IOException {
+        URL url = new URL(urlString);
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            throw new IOException("Unsupported protocol: " + url.getProtocol());
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeout);
+            socket.connect(new InetSocketAddress(url.getHost(), url.getPort() < 0 ? url.getDefaultPort() : url.getPort()),
+                    connectTimeout);
+            socket.getOutputStream().write(request(url, username, password).getBytes(StandardCharsets.ISO_8859_1));
+            final InputStream input = new BufferedInputStream(socket.getInputStream());
+            final String contentType = checkHead(readHead(input, url), url);
+            return new StreamConnection() {
+                @Override
+                public String getContentType() {
+                    return contentType;
+                }
+                @Override
+                public InputStream getInputStream() {
+                    return input;
+                }
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the response head up to the blank line, the body is left in the stream
+     */
+    private static String readHead(InputStream in, URL url) throws IOException {
+        String name = MetricsRegistry.streamName(url.toString());
+        ByteArrayOutputStream head = new ByteArrayOutputStream(1024);
+        for (int b, lfs = 0; lfs < 2;) {
+            if ((b = in.read()) < 0)
+                throw new IOException("End of stream in response head: " + name);
+            if (head.size() >= MAX_HEAD_SIZE)
+                throw new IOException("Response head is too large: " + name);
+            head.write(b);
+            lfs = b == '\n' ? lfs + 1 : b == '\r' ? lfs : 0;
+        }
+        return head.toString("ISO-8859-1");
+    }
+
+    /**
+     * @return request of a stream, HTTP/1.0 keeps cameras from chunked transfer encoding
+     */
+    static String request(URL url, String username, String password) {
+        StringBuilder sb = new StringBuilder(256);
+        String file = url.getFile();
+        sb.append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.0\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if (url.getPort() >= 0)
+            sb.append(':').append(url.getPort());
+        sb.append("\r\n");
+        if (username != null)
+            sb.append("Authorization: ").append(StreamTransports.basicAuthorization(username, password)).append("\r\n");
+        sb.append("Accept: multipart/x-mixed-replace, */*\r\n");
+        sb.append("\r\n");
+        return sb.toString();
+    }
+
+    /**
+     * Checks status of a response head
+     * @return value of Content-Type header, or null
+     * @throws IOException if the status isn't 200
+     */
+    static String checkHead(String head, URL url) throws IOException {
+        String[] lines = head.split("\r?\n");
+        String[] status = lines[0].split(" ");
+        if (status.length < 2 || !status[1].equals("200"))
+            throw new IOException("Unexpected response: " + lines[0]);
+        String contentType = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("content-type"))
+                contentType = lines[i].substring(colon + 1).trim();
+        }
+        return contentType;
+    }
+
+}
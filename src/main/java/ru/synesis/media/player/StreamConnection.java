@@ -0,0 +1,24 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.InputStream;
+
+/**
+ * Open connection of a stream, made by a {@link StreamTransport}. The response head is already read.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface StreamConnection extends Closeable {
+
+    /**
+     * @return Content-Type header of the response, or null
+     */
+    String getContentType();
+
+    /**
+     * @return body of the response
+     */
+    InputStream getInputStream();
+
+}
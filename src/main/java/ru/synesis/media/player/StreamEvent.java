@@ -9,6 +9,15 @@ public interface StreamEvent {
     
     String getMessage();
     
-    StreamThread getStreamThread();
+    StreamTask getStreamTask();
+
+    /**
+     * @return the thread, which runs the task, or null if the task is run by an executor
+     * @deprecated the loop of the stream is {@link StreamTask}, use {@link #getStreamTask()}
+     */
+    @Deprecated
+    default StreamThread getStreamThread() {
+        return getStreamTask().getStreamThread();
+    }
 
 }
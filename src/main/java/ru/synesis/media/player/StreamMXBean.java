@@ -0,0 +1,35 @@
+package ru.synesis.media.player;
+
+/**
+ * JMX view of a stream registered in {@link MetricsRegistry}
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface StreamMXBean {
+
+    String getName();
+
+    long getFrames();
+
+    long getDroppedFrames();
+
+    long getDuplicateFrames();
+
+    long getErrorFrames();
+
+    long getBytes();
+
+    double getFps();
+
+    double getBitrate();
+
+    long getReconnects();
+
+    double getDecodeP50Millis();
+
+    double getDecodeP99Millis();
+
+    long getBufferedBytes();
+
+}
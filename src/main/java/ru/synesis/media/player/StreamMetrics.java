@@ -0,0 +1,19 @@
+package ru.synesis.media.player;
+
+/**
+ * A stream which may be monitored from outside the process, see {@link MetricsRegistry}.
+ * Implementations must not take locks in these methods, they're called on every scrape.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface StreamMetrics {
+
+    StreamStats getStats();
+
+    /**
+     * @return bytes of frames which were read, but haven't been decoded or sent yet
+     */
+    long getBufferedBytes();
+
+}
@@ -0,0 +1,234 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Lock-free statistics of a stream: lifetime counters, frame rate and bitrate over a sliding window of
+ * the last {@value #WINDOW_SECONDS} seconds, and latency histograms of the read, decode and render stages.</p>
+ * <p>Counters are LongAdders, so the stream threads never contend with the FX thread which reads them, and time is
+ * taken from the monotonic clock. Getters return primitives and {@link #snapshot(Snapshot)} fills a reusable
+ * object, so a reader allocates nothing.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class StreamStats {
+
+    public static final int WINDOW_SECONDS = 5;
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    // one more slot than the window, so the slot being reset is never counted
+    private static final int SLOTS = WINDOW_SECONDS + 1;
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder errorFrames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder duplicateFrames = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final LatencyHistogram renderLatency = new LatencyHistogram();
+    // per second frames and bytes, slot i holds the second in slotSeconds[i]
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotFrames = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotBytes = new AtomicLongArray(SLOTS);
+    private volatile long startNanos;
+
+    public StreamStats() {
+        for (int i = 0; i < SLOTS; i++) {
+            slotSeconds.set(i, -1);
+        }
+    }
+
+    /**
+     * Starts the uptime and the window, it's called when the stream is connected
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    public boolean isStarted() {
+        return startNanos != 0;
+    }
+
+    /**
+     * Counts a frame read from the stream. It's called by the thread which reads the stream.
+     * @param readNanos time it took to read the frame
+     */
+    public void frameRead(int length, long readNanos) {
+        readLatency.record(readNanos);
+        frameRead(length);
+    }
+
+    /**
+     * Counts a frame read from the stream, when the read time isn't known, e.g. a frame pushed by
+     * {@link IngestEngine}. It's called by one thread at a time.
+     */
+    public void frameRead(int length) {
+        frames.increment();
+        bytes.add(length);
+        long now = System.nanoTime();
+        long second = (now - startNanos) / SECOND;
+        int slot = (int) (second % SLOTS);
+        if (slotSeconds.get(slot) != second) {
+            // a single reader thread moves the window, counts of the old second are dropped
+            slotFrames.set(slot, 0);
+            slotBytes.set(slot, 0);
+            slotSeconds.set(slot, second);
+        }
+        slotFrames.incrementAndGet(slot);
+        slotBytes.addAndGet(slot, length);
+    }
+
+    public void frameError() {
+        errorFrames.increment();
+    }
+
+    /**
+     * Counts a frame which was read, but replaced by a newer one before it was decoded or sent
+     */
+    public void frameDropped() {
+        droppedFrames.increment();
+    }
+
+    /**
+     * Counts a frame which is byte-identical to the previous one, so it wasn't decoded
+     */
+    public void frameDuplicate() {
+        duplicateFrames.increment();
+    }
+
+    public void reconnected() {
+        reconnects.increment();
+    }
+
+    public void frameDecoded(long decodeNanos) {
+        decodeLatency.record(decodeNanos);
+    }
+
+    /**
+     * @param waitNanos time from the end of decode to the pulse which shows the image
+     */
+    public void frameRendered(long waitNanos) {
+        renderLatency.record(waitNanos);
+    }
+
+    public long getFrameCount() {
+        return frames.sum();
+    }
+
+    public long getErrorFrameCount() {
+        return errorFrames.sum();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrames.sum();
+    }
+
+    public long getDuplicateFrameCount() {
+        return duplicateFrames.sum();
+    }
+
+    public long getReconnectCount() {
+        return reconnects.sum();
+    }
+
+    public long getBytesRead() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return uptime in nanoseconds, 0 if not started
+     */
+    public long getUptime() {
+        long start = startNanos;
+        return start == 0 ? 0 : System.nanoTime() - start;
+    }
+
+    /**
+     * @return frames per second over the window
+     */
+    public double getFps() {
+        return windowRate(slotFrames);
+    }
+
+    /**
+     * @return bits per second over the window
+     */
+    public double getBitrate() {
+        return windowRate(slotBytes) * 8;
+    }
+
+    private double windowRate(AtomicLongArray slots) {
+        long start = startNanos;
+        if (start == 0)
+            return 0;
+        long elapsed = System.nanoTime() - start;
+        long second = elapsed / SECOND;
+        long sum = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            long s = slotSeconds.get(i);
+            if (s >= 0 && s > second - WINDOW_SECONDS && s <= second)
+                sum += slots.get(i);
+        }
+        // the window ends with the current second, which has only partly passed
+        double window = Math.min(elapsed, (WINDOW_SECONDS - 1) * SECOND + elapsed % SECOND);
+        return window <= 0 ? 0 : sum * (double) SECOND / window;
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    public LatencyHistogram getRenderLatency() {
+        return renderLatency;
+    }
+
+    /**
+     * Copies all values into the snapshot
+     * @return the same snapshot
+     */
+    public Snapshot snapshot(Snapshot snapshot) {
+        snapshot.frameCount = getFrameCount();
+        snapshot.errorFrameCount = getErrorFrameCount();
+        snapshot.droppedFrameCount = getDroppedFrameCount();
+        snapshot.duplicateFrameCount = getDuplicateFrameCount();
+        snapshot.reconnectCount = getReconnectCount();
+        snapshot.bytesRead = getBytesRead();
+        snapshot.uptime = getUptime();
+        snapshot.fps = getFps();
+        snapshot.bitrate = getBitrate();
+        snapshot.readP99 = readLatency.getPercentile(99);
+        snapshot.decodeP50 = decodeLatency.getPercentile(50);
+        snapshot.decodeP99 = decodeLatency.getPercentile(99);
+        snapshot.renderP99 = renderLatency.getPercentile(99);
+        return snapshot;
+    }
+
+    /**
+     * Values of the statistics at a moment, reused between reads. Latencies are in nanoseconds.
+     */
+    public static class Snapshot {
+        public long frameCount;
+        public long errorFrameCount;
+        public long droppedFrameCount;
+        public long duplicateFrameCount;
+        public long reconnectCount;
+        public long bytesRead;
+        public long uptime;
+        public double fps;
+        public double bitrate;
+        public long readP99;
+        public long decodeP50;
+        public long decodeP99;
+        public long renderP99;
+    }
+
+}
@@ -0,0 +1,602 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.MenuBar;
+import javafx.scene.image.Image;
+import javafx.stage.Stage;
+
+/**
+ * <p>Stream loop for the Player which gets Images from motion jpeg (multipart/x-mixed-replace) stream through VideoSource 
+ * and decodes them for UI, which takes the latest image with {@link #pollImage()}. Frames are decoded into
+ * a {@link RenderBuffer}, so the view keeps showing the same image, updated in place.</p>
+ * <p>It's a Runnable, so it may run on any executor, e.g. a virtual thread per task one (see {@link StreamExecutors}),
+ * or in a {@link StreamThread}. {@link #stop()} closes the connection, so a blocking read returns at once,
+ * and {@link #join()} waits for the loop to exit.</p>
+ * <p>A stream which one core can't decode at its frame rate may be decoded by several workers, see
+ * {@link #setDecodeParallelism(int)}.</p>
+ * <p>With a {@link MotionGate}, see {@link #setMotionGate(MotionGate)}, frames are scored by a {@link MotionStage}
+ * before decode, and frames of a still scene, which the gate doesn't keep, aren't decoded at all.</p>
+ * <p>When memory is short, {@link MemoryGovernor} makes the task decode at a lower resolution, then skip every other
+ * frame, and finally closes the stream with an error.</p>
+ * <p>Also contains methods to get statistical information about a stream like: frames count, bytes count, bandwidth, etc.
+ * They read lock-free {@link StreamStats}, see {@link #getStats()}.</p>
+ * 
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class StreamTask implements Runnable, StreamMetrics, LoadShedder {
+
+    private static final Executor DEFAULT_DECODE_EXECUTOR = StreamExecutors.newPerTaskExecutor("StreamDecoder");
+
+    private Stage stage;
+    private Scene scene;
+    private MenuBar menuBar;
+    private String urlString;
+    private String username;
+    private String password;
+    private StreamEventHandler<StreamEvent> onErrorEventHandler;
+
+    private final StreamStats stats = new StreamStats();
+
+    private volatile boolean stopped;
+    private volatile VideoSource source;
+    private final ReentrantLock runnerLock = new ReentrantLock();
+    // written under runnerLock, the thread may be a pooled one, which runs other tasks later
+    private volatile Thread runner;
+    // set when the task is run by a StreamThread, for StreamEvent.getStreamThread()
+    private volatile StreamThread streamThread;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final CountDownLatch decodeDone = new CountDownLatch(1);
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final RenderBuffer renderBuffer = new RenderBuffer();
+    private Executor decodeExecutor = DEFAULT_DECODE_EXECUTOR;
+    private boolean decodeStarted;
+    private int decodeParallelism = 1;
+    private volatile ParallelDecoder<BufferedImage> parallelDecoder;
+    private MotionGate motionGate;
+    private volatile MotionStage motionStage;
+    private volatile Viewport viewport;
+    private volatile ShedLevel shedLevel = ShedLevel.NONE;
+    // when the published buffer was decoded, for the render latency
+    private volatile long decodedNanos;
+    private String metricsName;
+    // hash of the last frame passed to the mailbox, touched by the reading thread only
+    private long lastHash;
+    private long frameIndex;
+
+    public StreamTask(String urlString, Stage stage, Scene scene, MenuBar menuBar) {
+        this.urlString = urlString;
+        this.stage = stage;
+        this.scene = scene;
+        this.menuBar = menuBar;
+    }
+
+    @Override
+    public void run() {
+        runnerLock.lock();
+        try {
+            runner = Thread.currentThread();
+        } finally {
+            runnerLock.unlock();
+        }
+        VideoSource src = null;
+        try {
+            if (stopped)
+                return;
+            parseURL();
+            // if parseURL has detected user:password in the URL, we initiate a VideoSource with
+            // appropriate username and password
+            if (username != null) {
+                src = new VideoSource(urlString, username, password);
+            } else {
+                src = new VideoSource(urlString);
+            }
+            source = src;
+            // initiate real connection
+            src.connect();
+            if (stopped)
+                return;
+            stats.start();
+            metricsName = MetricsRegistry.shared().register(MetricsRegistry.streamName(urlString), this);
+            // get first image to calculate dimensions for stage,
+            // JPEG markers are enough for that, so no need to decode it
+            Iterator<Frame> frames = src.frames().iterator();
+            if (frames.hasNext()) {
+                Frame first = frames.next();
+                final JpegHeader header = JpegHeader.parse(first.buffer());
+                first.release();
+                if (header != null) {
+                    Platform.runLater(new Runnable() {
+                        public void run() {
+                            double h = menuBar.getHeight() + header.getHeight();
+                            double w = header.getWidth();
+                            stage.setWidth(w);
+                            stage.setHeight(h);
+                        }
+                    });
+                }
+            }
+            if (decodeParallelism > 1) {
+                // frames are decoded in parallel and come back in order, late ones are dropped
+                parallelDecoder = newParallelDecoder();
+            } else {
+                // decode stage takes only the latest frame from the mailbox, so a slow decoder or FX thread
+                // never holds the reader back
+                decodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decodeLoop();
+                    }
+                });
+                decodeStarted = true;
+            }
+            if (motionGate != null) {
+                // frames kept by the gate go on to decode from the thread of the stage
+                motionStage = new MotionStage(new MotionDetector(), motionGate.filter(new FrameListener() {
+                    @Override
+                    public void onFrame(Frame frame) {
+                        queueForDecode(frame);
+                    }
+                    @Override
+                    public void onClose(Exception cause) {
+                    }
+                }));
+            }
+            // main loop, which drains the socket at line rate into the mailbox
+            try {
+
+                while (frames.hasNext()) {
+                    if (shouldStop())
+                        break;
+                    checkShedding();
+                    long readStart = System.nanoTime();
+                    Frame frame = frames.next();
+                    stats.frameRead(frame.length(), System.nanoTime() - readStart);
+                    // truncated or corrupt frames never get to the decoder
+                    JpegHeader header = JpegHeader.parse(frame.buffer());
+                    if (header == null || !header.isComplete()) {
+                        stats.frameError();
+                        frame.release();
+                        continue;
+                    }
+                    // cameras resend the same JPEG on static scenes, it's already shown
+                    long hash = frame.hash();
+                    if (hash == lastHash) {
+                        stats.frameDuplicate();
+                        frame.release();
+                        continue;
+                    }
+                    lastHash = hash;
+                    if (shedLevel.atLeast(ShedLevel.SKIP_FRAMES) && (frameIndex++ & 1) != 0) {
+                        stats.frameDropped();
+                        frame.release();
+                        continue;
+                    }
+                    if (motionStage != null)
+                        motionStage.onFrame(frame);
+                    else
+                        queueForDecode(frame);
+                }
+            } catch (Exception e) {
+                if (e.getCause() instanceof InterruptedException || shouldStop()) {
+                    // do nothing, just stop execution.
+                } else {
+                    // the governor closes the connection, so the read fails
+                    checkShedding();
+                    throw e;
+                }
+            }
+
+            //src.disconnect(); do it in finally
+
+        } catch (Exception e) {
+            if (shouldStop()) {
+                // connection was closed by stop()
+                return;
+            }
+            e.printStackTrace();
+            String stackTrace = null;
+            try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); PrintStream ps = new PrintStream(baos)) {
+                e.printStackTrace(ps);
+                stackTrace = baos.toString();
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            final String message = stackTrace;
+            onErrorEventHandler.handle(new StreamEvent() {
+                @Override
+                public String getMessage() {
+                    return message;
+                }
+                @Override
+                public StreamTask getStreamTask() {
+                    return StreamTask.this;
+                }
+
+            });
+        } finally {
+            if (src != null)
+                src.disconnect();
+            if (metricsName != null)
+                MetricsRegistry.shared().unregister(metricsName);
+            if (motionStage != null)
+                motionStage.onClose(null);
+            mailbox.close();
+            if (parallelDecoder != null)
+                parallelDecoder.close();
+            try {
+                if (decodeStarted)
+                    decodeDone.await();
+            } catch (InterruptedException e) {
+                // stop() interrupts this thread as well, the decode stage exits on its own
+            }
+            runnerLock.lock();
+            try {
+                runner = null;
+                // an interrupt of stop() must not reach the next task of a pooled thread
+                Thread.interrupted();
+            } finally {
+                runnerLock.unlock();
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Passes the frame to the parallel decoder, or to the mailbox of the decode stage
+     */
+    private void queueForDecode(Frame frame) {
+        ParallelDecoder<BufferedImage> d = parallelDecoder;
+        if (d != null)
+            d.submit(frame);
+        else if (mailbox.put(frame))
+            stats.frameDropped();
+    }
+
+    /**
+     * @throws IOException if the governor has disconnected the stream
+     */
+    private void checkShedding() throws IOException {
+        if (shedLevel == ShedLevel.DISCONNECT)
+            throw new IOException("Disconnected by MemoryGovernor, memory is over the budget: "
+                    + MetricsRegistry.streamName(urlString));
+    }
+
+    /**
+     * Decode stage: decodes the latest frame from the mailbox into the render buffer, which is shown on the next
+     * pulse by {@link #pollImage()}
+     */
+    private void decodeLoop() {
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+        try {
+            for (Frame frame; (frame = mailbox.take()) != null;) {
+                long decodeStart = System.nanoTime();
+                try {
+                    BufferedImage image = decode(decoder, frame);
+                    long now = System.nanoTime();
+                    stats.frameDecoded(now - decodeStart);
+                    decodedNanos = now;
+                    renderBuffer.publish(image);
+                } catch (IOException e) {
+                    stats.frameError();
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop execution
+        } finally {
+            decoder.close();
+            decodeDone.countDown();
+        }
+    }
+
+    private ParallelDecoder<BufferedImage> newParallelDecoder() {
+        return new ParallelDecoder<>(decodeParallelism, new Supplier<ParallelDecoder.Decoder<BufferedImage>>() {
+            @Override
+            public ParallelDecoder.Decoder<BufferedImage> get() {
+                final ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+                return new ParallelDecoder.Decoder<BufferedImage>() {
+                    @Override
+                    public BufferedImage decode(Frame frame) throws IOException {
+                        return StreamTask.this.decode(decoder, frame);
+                    }
+                    @Override
+                    public void close() {
+                        decoder.close();
+                    }
+                };
+            }
+        }, new ParallelDecoder.Listener<BufferedImage>() {
+            @Override
+            public void onDecoded(BufferedImage image, long decodeNanos) {
+                stats.frameDecoded(decodeNanos);
+                decodedNanos = System.nanoTime();
+                renderBuffer.publish(image);
+            }
+            @Override
+            public void onError(IOException e) {
+                stats.frameError();
+            }
+            @Override
+            public void onDropped() {
+                stats.frameDropped();
+            }
+            @Override
+            public void recycle(BufferedImage image) {
+                renderBuffer.recycle(image);
+            }
+        });
+    }
+
+    /**
+     * Decodes a frame into a buffer of the render buffer, at the size of the viewport, or in full if there's none
+     * @throws IOException if the frame is broken
+     */
+    private BufferedImage decode(ScaledJpegDecoder decoder, Frame frame) throws IOException {
+        JpegHeader header = JpegHeader.parse(frame.buffer());
+        if (header == null)
+            throw new IOException("Not a JPEG frame");
+        Viewport v = viewport;
+        decoder.setMinSubsampling(shedLevel.atLeast(ShedLevel.REDUCE_RESOLUTION)
+                ? MemoryGovernor.REDUCED_SUBSAMPLING : 1);
+        // only the visible pixels, at the size of the view
+        return decoder.decode(frame, header, v != null && ScaledJpegDecoder.isReduced(header, v) ? v : null,
+                renderBuffer);
+    }
+
+    /**
+     * Stops the loop: closes the connection, so the blocking read returns, and interrupts the thread which runs
+     * the loop. It doesn't wait, see {@link #join()}.
+     */
+    public void stop() {
+        stopped = true;
+        VideoSource src = source;
+        if (src != null)
+            src.disconnect();
+        runnerLock.lock();
+        try {
+            // under the lock, so the thread doesn't move on to another task in between
+            Thread t = runner;
+            if (t != null)
+                t.interrupt();
+        } finally {
+            runnerLock.unlock();
+        }
+    }
+
+    /**
+     * Called by {@link MemoryGovernor}, the stream is closed at {@link ShedLevel#DISCONNECT}. The reading thread
+     * may be blocked, so the connection is closed by another thread, and the read fails.
+     */
+    @Override
+    public void setShedLevel(ShedLevel level) {
+        shedLevel = level;
+        if (level == ShedLevel.DISCONNECT) {
+            VideoSource src = source;
+            if (src != null)
+                src.disconnectLater();
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private boolean shouldStop() {
+        return stopped || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @return true if the loop has started and not yet finished
+     */
+    public boolean isRunning() {
+        return runner != null;
+    }
+
+    /**
+     * Waits for the loop to exit. The task has to be submitted to an executor, otherwise it waits forever.
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException {
+        done.await();
+    }
+
+    StreamThread getStreamThread() {
+        return streamThread;
+    }
+
+    void setStreamThread(StreamThread streamThread) {
+        this.streamThread = streamThread;
+    }
+
+    public void parseURL() throws MalformedURLException {
+        URL url = new URL(urlString);
+        String[] parts = url.getAuthority().split("@");
+        if (parts.length > 1) {
+            String[] up = parts[0].split(":");
+            if (up.length > 0) {
+                username = up[0];
+                password = up[1];
+            }
+        }
+    }
+
+    /**
+     * Sets the executor of the decode stage, by default it's a thread per task one
+     */
+    public void setDecodeExecutor(Executor decodeExecutor) {
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    /**
+     * Sets the most workers which decode frames of the stream at once, it's 1 by default. With more than 1 every
+     * frame is decoded, in parallel, as many at once as the decode time and the frame rate require, rather than
+     * the latest one only, see {@link ParallelDecoder}. It's to be set before the task runs.
+     */
+    public void setDecodeParallelism(int decodeParallelism) {
+        this.decodeParallelism = decodeParallelism;
+    }
+
+    /**
+     * Sets the gate, which decides by motion scores what frames are decoded, e.g. a still scene once a second.
+     * It's off by default, and it's to be set before the task runs.
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        this.motionGate = motionGate;
+    }
+
+    public void setOnErrorHandler(StreamEventHandler<StreamEvent> eventHandler) {
+        this.onErrorEventHandler = eventHandler;
+    }
+
+    /**
+     * Sets the viewport of the view which shows this stream. Frames are then decoded at reduced resolution
+     * when the view is smaller than them, and only the zoomed in region is decoded.
+     */
+    public void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Copies the latest decoded frame, which hasn't been shown yet, into the image of the view. It's to be called
+     * by the FX thread on every pulse of an AnimationTimer, so there is at most one UI update per screen refresh,
+     * no matter how fast the stream is.
+     * @return the image, the same one while the size of frames stays the same, or null if there is no new frame
+     */
+    public Image pollImage() {
+        Image image = renderBuffer.render();
+        if (image != null)
+            stats.frameRendered(System.nanoTime() - decodedNanos);
+        return image;
+    }
+
+    /**
+     * @return statistics of the stream
+     */
+    @Override
+    public StreamStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return bytes of frames waiting for motion scoring or decode, in the mailbox or the parallel decoder, and of
+     *  decoded pixels
+     */
+    @Override
+    public long getBufferedBytes() {
+        ParallelDecoder<BufferedImage> d = parallelDecoder;
+        MotionStage m = motionStage;
+        return mailbox.getBufferedBytes() + (d != null ? d.getBufferedBytes() : 0) + renderBuffer.getBufferedBytes()
+                + (m != null ? m.getBufferedBytes() : 0);
+    }
+
+    public String getTimeUp() {
+        if (!stats.isStarted())
+            return "Time up:\t\t-";
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(stats.getUptime());
+        long days = seconds / 86400;
+        long hours = seconds / 3600 % 24;
+        long minutes = seconds / 60 % 60;
+        if (days <= 0) {
+            return String.format("Time up:\t\t%1$d h %2$d m %3$d s", hours, minutes, seconds % 60);
+        } else {
+            return String.format("Time up:\t\t%1$d d %2$d h %3$d m %4$d s", days, hours, minutes, seconds % 60);
+        }
+    }
+
+    /**
+     * Returns a number of images that couldn't get parsed by Java FX Image class, or were rejected as truncated
+     * or corrupt by JpegHeader
+     * @return
+     */
+    public String getErrorFrameCount() {
+        return String.format("Error frames:\t%d", stats.getErrorFrameCount());
+    }
+
+    /**
+     * Returns a number of images which were read, but not decoded, because a newer image had come before
+     * the decoder got to them
+     * @return
+     */
+    public String getDroppedFrameCount() {
+        return String.format("Dropped frames:\t%d", stats.getDroppedFrameCount());
+    }
+
+    /**
+     * Returns a number of images which were byte-identical to the previous one, so they weren't decoded
+     * @return
+     */
+    public String getDuplicateFrameCount() {
+        return String.format("Duplicate frames:\t%d", stats.getDuplicateFrameCount());
+    }
+
+    /**
+     * Returns total number of images got from camera
+     * @return
+     */
+    public String getFrameCount() {
+        return String.format("Frames:\t\t%d", stats.getFrameCount());
+    }
+
+    /**
+     * Returns total bytes of images (only images, for count convenience)
+     * 
+     * Note! It's basic approximation which doesn't include protocol header's length. Only bytes of jpegs.
+     * @return
+     */
+    public String getBytesRead() {
+        long bytesRead = stats.getBytesRead();
+        if (bytesRead > 1024 * 1024 * 1024) {
+            return String.format("Bytes read:\t%.2f Gb", ((double) bytesRead) / (1024 * 1024 * 1024));
+        } else if (bytesRead > 1024 * 1024) {
+            return String.format("Bytes read:\t%.2f Mb", ((double) bytesRead) / (1024 * 1024));
+        } else {
+            return String.format("Bytes read:\t%.2f Kb", ((double) bytesRead) / 1024);
+        }
+    }
+
+    /**
+     * Returns bandwidth over the last seconds, see {@link StreamStats#WINDOW_SECONDS}.
+     * 
+     * Note! It's basic approximation which doesn't include protocol header's length. Only bytes of jpegs.
+     * @return
+     */
+    public String getBandwidth() {
+        if (!stats.isStarted())
+            return "Bandwidth:\t-";
+        return String.format("Bandwidth:\t%d Kbps", (long) stats.getBitrate() / 1000);
+    }
+
+    /**
+     * Returns frame rate over the last seconds, see {@link StreamStats#WINDOW_SECONDS}.
+     * @return
+     */
+    public String getFps() {
+        return String.format("Frame rate:\t%.1f fps", stats.getFps());
+    }
+
+    /**
+     * Returns 99th percentiles of time to read a frame, to decode it, and from decode to the pulse which shows it.
+     * @return
+     */
+    public String getLatency() {
+        return String.format("Latency p99:\t%.1f / %.1f / %.1f ms", stats.getReadLatency().getPercentileMillis(99),
+                stats.getDecodeLatency().getPercentileMillis(99), stats.getRenderLatency().getPercentileMillis(99));
+    }
+
+}
@@ -0,0 +1,28 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+
+/**
+ * <p>Transport, which opens the HTTP connection of a motion jpeg (multipart/x-mixed-replace) stream for
+ * {@link VideoSource}. Transports differ in how they do I/O, so one may be chosen per deployment and benchmarked
+ * against another, see {@link StreamTransports}.</p>
+ * <p>Implementations are thread safe, one instance opens any number of connections.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public interface StreamTransport {
+
+    /**
+     * @return short name the transport is looked up by, like <code>socket</code>
+     */
+    String getName();
+
+    /**
+     * Sends the request and waits for the response head
+     * @param username user for HTTP Basic authentication, or null
+     * @throws IOException if the connection fails, or the response isn't 200
+     */
+    StreamConnection connect(String url, String username, String password) throws IOException;
+
+}
@@ -0,0 +1,95 @@
+package ru.synesis.media.player;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * <p>Lookup of {@link StreamTransport}s by name. Built in are {@value UrlConnectionTransport#NAME} and
+ * {@value SocketTransport#NAME}, others are found with {@link ServiceLoader}, like the <code>httpclient</code> one,
+ * which is built by the java11 profile into META-INF/versions/11 of a multi-release jar, so it's there on Java 11+
+ * only.</p>
+ * <p>The default transport is {@value UrlConnectionTransport#NAME}, a deployment may choose another one with
+ * the system property {@value #TRANSPORT_PROPERTY}.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public final class StreamTransports {
+
+    public static final String TRANSPORT_PROPERTY = "ru.synesis.media.player.transport";
+
+    private static final List<StreamTransport> TRANSPORTS = load();
+    private static final StreamTransport DEFAULT = lookupDefault();
+
+    private StreamTransports() {
+    }
+
+    /**
+     * @return the transport chosen by {@value #TRANSPORT_PROPERTY}, or {@value UrlConnectionTransport#NAME}
+     */
+    public static StreamTransport getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the transport or null if there's no such one on this JVM
+     */
+    public static StreamTransport get(String name) {
+        for (StreamTransport t : TRANSPORTS) {
+            if (t.getName().equalsIgnoreCase(name))
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * @return names of all transports available on this JVM
+     */
+    public static List<String> getNames() {
+        List<String> names = new ArrayList<>();
+        for (StreamTransport t : TRANSPORTS) {
+            names.add(t.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return value of Authorization header for HTTP Basic authentication
+     */
+    static String basicAuthorization(String username, String password) {
+        String userpass = username + ":" + (password == null ? "" : password);
+        return "Basic " + Base64.getEncoder().encodeToString(userpass.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<StreamTransport> load() {
+        List<StreamTransport> transports = new ArrayList<>();
+        transports.add(new UrlConnectionTransport());
+        transports.add(new SocketTransport());
+        Iterator<StreamTransport> it = ServiceLoader.load(StreamTransport.class).iterator();
+        for (;;) {
+            try {
+                if (!it.hasNext())
+                    break;
+                transports.add(it.next());
+            } catch (ServiceConfigurationError | LinkageError e) {
+                // a provider built for a newer JVM, e.g. httpclient on Java 8: its class isn't found
+                // in a multi-release jar, or has an unsupported version if it's on the class path anyway
+            }
+        }
+        return transports;
+    }
+
+    private static StreamTransport lookupDefault() {
+        String name = System.getProperty(TRANSPORT_PROPERTY);
+        StreamTransport transport = name != null ? get(name) : null;
+        if (name != null && transport == null)
+            System.err.println("Unknown transport " + name + ", available are " + getNames());
+        return transport != null ? transport : TRANSPORTS.get(0);
+    }
+
+}
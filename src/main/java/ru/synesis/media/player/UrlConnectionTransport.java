@@ -0,0 +1,57 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Blocking transport on {@link HttpURLConnection}, the one VideoSource has always used. It's the default,
+ * see {@link StreamTransports}.
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class UrlConnectionTransport implements StreamTransport {
+
+    public static final String NAME = "urlconnection";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public StreamConnection connect(String url, String username, String password) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (username != null) {
+            conn.setRequestProperty("Authorization", StreamTransports.basicAuthorization(username, password));
+        }
+        conn.setReadTimeout(0);
+        conn.connect();
+        int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            String message = conn.getResponseMessage();
+            conn.disconnect();
+            throw new IOException("Unexpected response: " + status + " " + message);
+        }
+        final String contentType = conn.getContentType();
+        final InputStream input = conn.getInputStream();
+        return new StreamConnection() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+            @Override
+            public InputStream getInputStream() {
+                return input;
+            }
+            @Override
+            public void close() throws IOException {
+                conn.disconnect();
+                input.close();
+            }
+        };
+    }
+
+}
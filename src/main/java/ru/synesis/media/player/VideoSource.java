@@ -1,18 +1,12 @@
 package ru.synesis.media.player;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.UUID;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of a connection to motion jpeg (multipart/x-mixed-replace) stream, and using it as an Itarable like this:
@@ -29,6 +23,9 @@ import javax.xml.bind.DatatypeConverter;
  *       }
  *   }
  *   </pre>
+ * For many streams use {@link #frames()}, which takes frame buffers from a pool instead of allocating them,
+ * and {@link ArchiveWriter} to record them.
+ * The connection is opened by a {@link StreamTransport}, see {@link #setTransport(StreamTransport)}.
  * 
  * 
  * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
@@ -37,15 +34,17 @@ import javax.xml.bind.DatatypeConverter;
 public class VideoSource implements Iterable<byte[]> {
     private final static String MULTIPART_MIXED_REPLACE = "multipart/x-mixed-replace";
     private final static String BOUNDARY_PART = "boundary=";
-    private final static String CONTENT_TYPE_HEADER = "content-length";
+    private final static Executor DISCONNECT_EXECUTOR = StreamExecutors.newPerTaskExecutor("VideoSourceDisconnect");
 
     private String urlString;
     private String username;
     private String password;
-    private URL url;
     private String boundaryPart;
-    private HttpURLConnection conn;
+    private StreamTransport transport = StreamTransports.getDefault();
+    private StreamConnection connection;
+    private InputStream input;
     private ImagesIterator iterator;
+    private FramePool framePool = FramePool.shared();
 
     public VideoSource(String url) {
         this.urlString = url;
@@ -57,52 +56,146 @@ public class VideoSource implements Iterable<byte[]> {
         this.password = password;
     }
 
+    /**
+     * Source over a stream which is already open, e.g. a recorded stream or an in-memory one in benchmarks.
+     * It's iterated without {@link #connect()}.
+     * @param contentType Content-Type of the stream with the boundary parameter
+     * @throws IOException if it's not a multipart/x-mixed-replace stream
+     */
+    public static VideoSource fromStream(InputStream input, String contentType) throws IOException {
+        VideoSource src = new VideoSource(null);
+        src.input = input;
+        src.boundaryPart = boundaryPart(contentType);
+        return src;
+    }
+
+    /**
+     * Sets the transport to connect with, by default it's {@link StreamTransports#getDefault()}
+     */
+    public void setTransport(StreamTransport transport) {
+        this.transport = transport;
+    }
+
     public void connect() throws IOException {
-        url = new URL(this.urlString);
-        conn = (HttpURLConnection) this.url.openConnection();
-        if (username != null) {
-            String userpass = username + ":" + (password == null ? "" : password);
-            String encoded = DatatypeConverter.printBase64Binary(userpass.getBytes());
-            String basicAuth = "Basic " + encoded;
-            conn.setRequestProperty ("Authorization", basicAuth);
+        connection = transport.connect(this.urlString, username, password);
+        String contentType = connection.getContentType();
+        //System.out.println("Stream content type header: " + contentType);
+        try {
+            boundaryPart = boundaryPart(contentType);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
         }
-        conn.setReadTimeout(0);
-        conn.connect();
-        String contentType = conn.getContentType();
-        if (contentType != null && !contentType.startsWith(MULTIPART_MIXED_REPLACE))
+        input = connection.getInputStream();
+    }
+
+    /**
+     * Checks Content-Type header of a stream and extracts the boundary parameter from it
+     * @throws IOException if it's not a multipart/x-mixed-replace stream
+     */
+    static String boundaryPart(String contentType) throws IOException {
+        if (contentType == null || !contentType.startsWith(MULTIPART_MIXED_REPLACE) || !contentType.contains(BOUNDARY_PART))
             throw new IOException("Unsupported Content-Type: " + contentType);
 
-        boundaryPart = contentType.substring(contentType.indexOf(BOUNDARY_PART)
+        return contentType.substring(contentType.indexOf(BOUNDARY_PART)
                 + BOUNDARY_PART.length());
-        //System.out.println("Stream content type header: " + contentType);
     }
     
     public void disconnect() {
-        if (this.conn != null)
-            this.conn.disconnect();
+        try {
+            if (this.connection != null)
+                this.connection.close();
+            else if (this.input != null)
+                this.input.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the connection on another thread, for callers which must not block, like a {@link LoadShedder}.
+     * A blocking read of the stream fails once it's closed.
+     */
+    public void disconnectLater() {
+        DISCONNECT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnect();
+            }
+        });
     }
 
+    /**
+     * Sets the pool for frames got through {@link #frames()}, by default it's {@link FramePool#shared()}
+     */
+    public void setFramePool(FramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * Note! Throws IllegalStateException if the source isn't connected, and RuntimeException(IOException) if
+     * the stream can't be read, in the same way as next() of the iterator does.
+     */
     @Override
     public Iterator<byte[]> iterator() {
-        try {
-            if (this.iterator == null) {
-                this.iterator = new ImagesIterator(boundaryPart, conn);
+        if (this.iterator == null) {
+            if (input == null)
+                throw new IllegalStateException("Not connected: " + urlString);
+            try {
+                this.iterator = new ImagesIterator(boundaryPart, input);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-            return this.iterator;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
         }
+        return this.iterator;
+    }
+
+    /**
+     * Iteration over pooled frames, which doesn't allocate a new array per frame. Each frame has to be released
+     * by the caller, like this:
+     *   <pre>
+     *   for (Frame frame : src.frames()) {
+     *       try {
+     *           ...
+     *       } finally {
+     *           frame.release();
+     *       }
+     *   }
+     *   </pre>
+     * It reads the same connection as {@link #iterator()}, so only one of them is to be used.
+     */
+    public Iterable<Frame> frames() {
+        return new Iterable<Frame>() {
+            @Override
+            public Iterator<Frame> iterator() {
+                final ImagesIterator images = (ImagesIterator) VideoSource.this.iterator();
+                return new Iterator<Frame>() {
+                    @Override
+                    public boolean hasNext() {
+                        return images.hasNext();
+                    }
+                    @Override
+                    public Frame next() {
+                        return images.nextFrame(framePool);
+                    }
+                    @Override
+                    public void remove() {
+                        // do nothing
+                    }
+                };
+            }
+        };
     }
     
     public static void main(String... strings) {
         //VideoSource src = new VideoSource("http://88.53.197.250/axis-cgi/mjpg/video.cgi?resolution=320x240");
         //VideoSource src = new VideoSource("http://192.168.5.53/video.cgi?resolution=320x240", "admin", "admin12345");
         VideoSource src = new VideoSource("http://91.85.203.9/axis-cgi/mjpg/video.cgi");
-        try {
+        // appends frames to archive segments, a file per frame brings filesystems to a crawl
+        try (ArchiveWriter archive = new ArchiveWriter(Paths.get("c:/tmp/mjpeg"), 1)) {
             src.connect();
-            for (byte[] img : src) {
-                Files.write(Paths.get("c:/tmp/mjpeg/" + UUID.randomUUID().toString() + ".jpg"), img);
+            for (Frame frame : src.frames()) {
+                archive.append("axis", System.currentTimeMillis(), frame);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -111,122 +204,21 @@ public class VideoSource implements Iterable<byte[]> {
 
     private class ImagesIterator implements Iterator<byte[]> {
         
-        private byte LF = 0x0A;
-        private byte CR = 0x0D;
-
-        private String boundary;
-        
-        private InputStream stream;
-        private boolean hasNext;
-        private HttpURLConnection conn;
+        private MultipartStreamReader reader;
+        // a lock rather than synchronized, so a blocking read doesn't pin a virtual thread to its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean hasNext;
 
-        ImagesIterator(String boundaryPart, HttpURLConnection conn) throws IOException {
-            // Some cameras provide Content-Type header with ; boundary=--myboundary,
-            // then they use it as is without prefixing it with --
-            this.boundary = boundaryPart.startsWith("--") ? boundaryPart : "--" + boundaryPart;
-            this.conn = conn;
-            this.stream = new BufferedInputStream(conn.getInputStream(), 8192);
+        ImagesIterator(String boundaryPart, InputStream in) throws IOException {
+            this.reader = new MultipartStreamReader(in, new MultipartBoundary(boundaryPart));
+            // a camera, which sends a huge Content-Length, fails rather than takes the heap
+            this.reader.setMaxPartSize(MemoryGovernor.shared().getMaxFrameSize());
             this.hasNext = true;
         }
         
-        private String readLine() throws IOException {
-            int counter = 0, capacity = 512;
-            byte[] buffer = new byte[capacity];
-            StringBuilder stringBuffer = new StringBuilder(512);
-            readBuffer:
-            for (;;) {
-                stream.mark(capacity);
-                int bytes = stream.read(buffer, 0, capacity);
-                int i = 0;
-                
-                findCRLF:
-                for (; i < capacity; i++) {
-                    if (buffer[i] == LF) {
-                        stream.reset();
-                        stream.read(buffer, 0, i + 1);
-                        stringBuffer.append(new String(buffer, 0, i));
-                        return stringBuffer.toString().trim();
-                    }
-                }
-                stringBuffer.append(new String(buffer, 0, capacity));
-            }
-            
-        }
-        
-
-        /*
-        private String readLine() throws IOException, InterruptedException {
-            int counter = 0, capacity = 512;
-            byte[] buffer = new byte[capacity];
-            StringBuilder stringBuffer = new StringBuilder(512);
-            for(;;) {
-                
-                synchronized (this) {
-                    if (stream.available() <= 0) {
-                        this.wait(300);
-                        continue;
-                    }
-                }
-
-                byte oneByte = (byte) stream.read();
-                
-                if (oneByte == LF) {
-                    if (counter > 0 && buffer[counter - 1] == CR) {
-                        stringBuffer.append(new String(buffer, 0, counter - 1));
-                    } else {
-                        stringBuffer.append(new String(buffer, 0, counter));
-                    }
-                    return stringBuffer.toString();
-                } else {
-                    if (counter == capacity - 1) {
-                        stringBuffer.append(buffer);
-                        buffer = new byte[capacity];
-                        counter = 0;
-                    }
-                    buffer[counter] = oneByte;
-                }
-                counter++;
-            }
-        }
-        */
-        
-        private void readUntilBoundary() throws IOException, InterruptedException {
-            for(;;) {
-                String s = readLine();
-                if (boundary.equals(s) || hasNext == false) {
-                    break;
-                } else if (s != null && s.equals(boundary + "--")) /* end of stream */{
-                    hasNext = false;
-                    break;
-                }
-            } 
-        }
-        
-        /**
-         * Reads headers from the stream
-         * @return
-         * @throws IOException
-         * @throws InterruptedException 
-         */
-        private Map<String, String> readHeaders() throws IOException, InterruptedException {
-            String line = null;
-            Map<String, String> headers = new HashMap<>();
-            for(;;) {
-                line = readLine();
-                if (line == null || line.trim().length() == 0) {
-                    return headers;
-                } else {
-                    String[] parts = line.split(": ");
-                    headers.put(parts[0].toLowerCase(), parts[1]);
-                }
-            }
-        }
-
         @Override
         public boolean hasNext() {
-            synchronized (this)  {
-                return this.hasNext;
-            }
+            return this.hasNext;
         }
 
         /**
@@ -237,46 +229,69 @@ public class VideoSource implements Iterable<byte[]> {
          */
         @Override
         public byte[] next() {
-            synchronized (this) {
-                byte[] buffer = new byte[0];
+            Frame frame = nextFrame(null);
+            byte[] buffer = frame.array();
+            return frame.length() == buffer.length ? buffer : frame.toByteArray();
+        }
+
+        /**
+         * Reads the next part into a frame taken from the pool
+         * @param pool pool of frame buffers, or null to allocate a buffer of exact frame size
+         * @see #next()
+         */
+        Frame nextFrame(FramePool pool) {
+            lock.lock();
+            try {
                 try {
-                    readUntilBoundary();
-                    Map<String, String> headers = readHeaders();
-                    String contentLength = headers.get(CONTENT_TYPE_HEADER);
-                    int length = 0;
-                    try {
-                        length = Integer.parseInt(contentLength);
-                    } catch (NumberFormatException e) {
-                        return buffer;
+                    if (!reader.nextPart()) {
+                        hasNext = false;
+                        return new Frame(null, new byte[0], 0);
                     }
-                    buffer = new byte[length];
-                    int bytes = 0;
-                    while (bytes < length) {
-                        bytes += stream.read(buffer, bytes, length - bytes);
+                    long length = reader.readHeaders();
+                    if (length < 0) {
+                        // no Content-Length, so the part lasts up to the next boundary
+                        int bytes = reader.readToBoundary();
+                        Frame frame = acquire(pool, bytes);
+                        System.arraycopy(reader.scratch(), 0, frame.array(), 0, bytes);
+                        return frame;
                     }
-                    //System.out.println("Bytes read: " + bytes);
+                    Frame frame = acquire(pool, (int) length);
+                    try {
+                        reader.readFully(frame.array(), 0, frame.length());
+                    } catch (IOException e) {
+                        frame.release();
+                        throw e;
+                    }
+                    frame.setLength(reader.resync(frame.array(), 0, frame.length()));
+                    //System.out.println("Bytes read: " + frame.length());
                     
-                    return buffer;
-                } catch (IOException | InterruptedException e) {
+                    return frame;
+                } catch (IOException e) {
                     // e.printStackTrace();
                     // see StreamThread how it's to be used.
                     throw new RuntimeException(e);
                 }
+            } finally {
+                lock.unlock();
             }
         }
 
+        private Frame acquire(FramePool pool, int length) {
+            return pool != null ? pool.acquireHeap(length) : new Frame(null, new byte[length], length);
+        }
+
         @Override
         public void remove() {
             // do nothing
         }
         
         /**
-         * Closes input stream
+         * Closes input stream. It doesn't take the lock, so it may be called while another thread is blocked in next().
          */
-        synchronized void close() {
+        void close() {
             this.hasNext = false;
             try {
-                this.stream.close();
+                this.reader.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
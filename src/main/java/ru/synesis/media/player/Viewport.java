@@ -0,0 +1,109 @@
+package ru.synesis.media.player;
+
+import java.awt.Rectangle;
+
+/**
+ * <p>What part of a stream is visible and at what size: the size of the view in pixels, and the zoomed in region
+ * in coordinates normalized to [0, 1], so it doesn't depend on the stream resolution.</p>
+ * <p>It's updated by the UI thread and read by a decoder, which uses it to produce only the pixels that are
+ * shown, see {@link ScaledJpegDecoder}.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class Viewport {
+
+    /** Deeper zoom than that gives no details, only bigger pixels */
+    public static final double MAX_ZOOM = 16;
+
+    private static final double[] FULL = { 0, 0, 1, 1 };
+
+    private volatile double width;
+    private volatile double height;
+    // x, y, width, height, replaced as a whole
+    private volatile double[] region = FULL;
+
+    /**
+     * Sets size of the view in pixels, 0 means unknown, so frames are decoded at full resolution
+     */
+    public void setSize(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if a part of the frame is zoomed in
+     */
+    public boolean isZoomed() {
+        return region != FULL;
+    }
+
+    /**
+     * @return visible region as x, y, width, height normalized to [0, 1]
+     */
+    public double[] getRegion() {
+        return region.clone();
+    }
+
+    /**
+     * Zooms in (factor &gt; 1) or out (factor &lt; 1) keeping the point (x, y) of the visible region at the same place
+     * @param x horizontal position in the visible region, from 0 to 1
+     * @param y vertical position in the visible region, from 0 to 1
+     */
+    public void zoom(double factor, double x, double y) {
+        double[] r = region;
+        double w = Math.min(1, Math.max(1 / MAX_ZOOM, r[2] / factor));
+        double h = Math.min(1, Math.max(1 / MAX_ZOOM, r[3] / factor));
+        if (w >= 1 && h >= 1) {
+            region = FULL;
+            return;
+        }
+        double px = r[0] + x * r[2];
+        double py = r[1] + y * r[3];
+        double nx = Math.min(1 - w, Math.max(0, px - x * w));
+        double ny = Math.min(1 - h, Math.max(0, py - y * h));
+        region = new double[] { nx, ny, w, h };
+    }
+
+    /**
+     * Shows the whole frame
+     */
+    public void reset() {
+        region = FULL;
+    }
+
+    /**
+     * @return visible region of a frame in pixels
+     */
+    public Rectangle sourceRegion(int frameWidth, int frameHeight) {
+        double[] r = region;
+        int x = (int) Math.floor(r[0] * frameWidth);
+        int y = (int) Math.floor(r[1] * frameHeight);
+        int w = Math.max(1, Math.min(frameWidth - x, (int) Math.ceil(r[2] * frameWidth)));
+        int h = Math.max(1, Math.min(frameHeight - y, (int) Math.ceil(r[3] * frameHeight)));
+        return new Rectangle(x, y, w, h);
+    }
+
+    /**
+     * @return how many source pixels may be skipped in each direction to still have at least a source pixel
+     *  per view pixel, 1 means full resolution
+     */
+    public int subsampling(Rectangle sourceRegion) {
+        double w = width;
+        double h = height;
+        if (w <= 0 || h <= 0)
+            return 1;
+        // the view keeps aspect ratio, so the side which fills the view decides
+        double scale = Math.min(sourceRegion.width / w, sourceRegion.height / h);
+        return Math.max(1, (int) Math.floor(scale));
+    }
+
+}
@@ -0,0 +1,66 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.Flow;
+
+/**
+ * <p>{@link Flow.Publisher} of frames of a {@link FrameHub}. Every subscriber of this publisher subscribes to
+ * the hub with the policy and capacity given here, so one hub may have a publisher per kind of consumer:</p>
+ *   <pre>
+ *   FrameHub hub = new FrameHub();
+ *   Flow.Publisher&lt;Frame&gt; display = new FramePublisher(hub, OverflowPolicy.KEEP_LATEST, 1);
+ *   Flow.Publisher&lt;Frame&gt; recorder = new FramePublisher(hub, OverflowPolicy.BUFFER, 256);
+ *   </pre>
+ * <p>Frames are shared, not copied, a subscriber has to release every frame it gets in onNext.</p>
+ * <p>It's built by the java11 profile.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class FramePublisher implements Flow.Publisher<Frame> {
+
+    private final FrameHub hub;
+    private final OverflowPolicy policy;
+    private final int capacity;
+
+    public FramePublisher(FrameHub hub, OverflowPolicy policy, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.hub = hub;
+        this.policy = policy;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Frame> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+        hub.subscribe(new FrameSubscriber() {
+            @Override
+            public void onSubscribe(final FrameHub.Subscription subscription) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        subscription.request(n);
+                    }
+                    @Override
+                    public void cancel() {
+                        subscription.cancel();
+                    }
+                });
+            }
+            @Override
+            public void onNext(Frame frame) {
+                subscriber.onNext(frame);
+            }
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        }, policy, capacity);
+    }
+
+}
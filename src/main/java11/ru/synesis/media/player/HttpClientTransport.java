@@ -0,0 +1,258 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Transport on {@link HttpClient} of Java 11. One instance, that is one client, drives any number of streams over
+ * a shared thread pool: {@link #open(String, String, String, FrameListener)} subscribes to the response body and
+ * parses parts by {@link MultipartParser} right from the ByteBuffers the client delivers, so no thread waits
+ * on a stream. {@link #connect(String, String, String)} gives a blocking stream for VideoSource as well.</p>
+ * <p>It's built by the java11 profile and found by {@link StreamTransports} as <code>httpclient</code>.</p>
+ *
+ * @author Arseny Kovalchuk<br/><a href="http://www.linkedin.com/in/arsenykovalchuk/">LinkedIn&reg; Profile</a>
+ *
+ */
+public class HttpClientTransport implements AsyncStreamTransport {
+
+    public static final String NAME = "httpclient";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient client;
+    private final FramePool framePool;
+
+    /**
+     * Client with a daemon thread pool of the size of available processors, it's what ServiceLoader creates
+     */
+    public HttpClientTransport() {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                StreamExecutors.daemonThreadFactory("HttpClientTransport")), FramePool.shared());
+    }
+
+    /**
+     * @param executor pool which runs I/O and parsing of all streams
+     */
+    public HttpClientTransport(Executor executor, FramePool framePool) {
+        this.client = HttpClient.newBuilder()
+                // HTTP/1.1 only, so there's no h2c upgrade a camera may choke on
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(executor)
+                .build();
+        this.framePool = framePool;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public StreamConnection connect(String url, String username, String password) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request(url, username, password), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting: " + MetricsRegistry.streamName(url), e);
+        }
+        final InputStream input = response.body();
+        if (response.statusCode() != 200) {
+            input.close();
+            throw new IOException("Unexpected response: " + response.statusCode());
+        }
+        final String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        return new StreamConnection() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+            @Override
+            public InputStream getInputStream() {
+                return input;
+            }
+            @Override
+            public void close() throws IOException {
+                // cancels the subscription, so the connection is closed
+                input.close();
+            }
+        };
+    }
+
+    @Override
+    public Closeable open(String url, String username, String password, FrameListener listener) throws IOException {
+        final Stream stream = new Stream(url, listener);
+        final CompletableFuture<HttpResponse<Void>> response = client.sendAsync(request(url, username, password),
+                new HttpResponse.BodyHandler<Void>() {
+                    @Override
+                    public HttpResponse.BodySubscriber<Void> apply(HttpResponse.ResponseInfo info) {
+                        return stream.subscriber(info);
+                    }
+                });
+        response.whenComplete((r, e) -> {
+            if (e != null)
+                stream.closeNow(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        });
+        stream.response = response;
+        return stream;
+    }
+
+    private static HttpRequest request(String url, String username, String password) throws IOException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(new URI(url));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Malformed URL: " + url, e);
+        }
+        request.header("Accept", "multipart/x-mixed-replace, */*");
+        if (username != null)
+            request.header("Authorization", StreamTransports.basicAuthorization(username, password));
+        return request.GET().build();
+    }
+
+    /**
+     * A stream opened by {@link #open(String, String, String, FrameListener)}. It subscribes to the body of a 200
+     * response and feeds {@link MultipartParser}, which calls the listener. The client calls the subscriber serially,
+     * and the next buffers are requested once the previous ones are parsed. The parser is closed under a lock
+     * shared with the subscriber, so {@link #close()} releases a frame in progress even if the client never calls
+     * the subscriber again.
+     */
+    private class Stream implements Closeable, Flow.Subscriber<List<ByteBuffer>> {
+
+        private final String url;
+        private final FrameListener listener;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile CompletableFuture<HttpResponse<Void>> response;
+        private volatile Flow.Subscription subscription;
+        private final ReentrantLock lock = new ReentrantLock();
+        // guarded by lock
+        private MultipartParser parser;
+
+        Stream(String url, FrameListener listener) {
+            this.url = url;
+            this.listener = listener;
+        }
+
+        HttpResponse.BodySubscriber<Void> subscriber(HttpResponse.ResponseInfo info) {
+            try {
+                if (info.statusCode() != 200)
+                    throw new IOException("Unexpected response: " + info.statusCode());
+                String contentType = info.headers().firstValue("Content-Type").orElse(null);
+                MultipartParser p = new MultipartParser(new MultipartBoundary(VideoSource.boundaryPart(contentType)),
+                        framePool, listener);
+                p.setMaxPartSize(MemoryGovernor.shared().getMaxFrameSize());
+                lock.lock();
+                try {
+                    parser = p;
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                closeNow(e);
+                return HttpResponse.BodySubscribers.replacing(null);
+            }
+            return HttpResponse.BodySubscribers.fromSubscriber(this, s -> null);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (closed.get())
+                subscription.cancel();
+            else
+                subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            boolean done;
+            lock.lock();
+            try {
+                if (closed.get()) {
+                    parser.close();
+                    return;
+                }
+                for (ByteBuffer buffer : buffers) {
+                    parser.feed(buffer);
+                }
+                done = parser.isDone();
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                parser.close();
+                closeNow(e);
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (done) {
+                subscription.cancel();
+                closeNow(null);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            closeParser();
+            closeNow(t);
+        }
+
+        @Override
+        public void onComplete() {
+            closeParser();
+            closeNow(new EOFException("End of stream: " + MetricsRegistry.streamName(url)));
+        }
+
+        @Override
+        public void close() {
+            // first, so the listener gets null rather than the cancellation
+            closeNow(null);
+            // the client may never call the subscriber after the cancellation
+            closeParser();
+            Flow.Subscription s = subscription;
+            if (s != null)
+                s.cancel();
+            CompletableFuture<HttpResponse<Void>> r = response;
+            if (r != null)
+                r.cancel(true);
+        }
+
+        void closeNow(Throwable cause) {
+            if (!closed.compareAndSet(false, true))
+                return;
+            Exception e = cause == null ? null : cause instanceof Exception ? (Exception) cause : new IOException(cause);
+            listener.onClose(e);
+        }
+
+        private void closeParser() {
+            lock.lock();
+            try {
+                if (parser != null)
+                    parser.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ArchiveReader.
+ */
+public class ArchiveReaderTest extends TestCase {
+
+    private Path dir;
+
+    public ArchiveReaderTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("archive");
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        try (ArchiveWriter archive = new ArchiveWriter(dir, 1)) {
+            archive.setIndexCapacity(10);
+            for (int i = 0; i < 95; i++) {
+                byte[] bytes = ("frame " + i).getBytes(StandardCharsets.ISO_8859_1);
+                Frame frame = pool.acquire(bytes.length);
+                System.arraycopy(bytes, 0, frame.array(), 0, bytes.length);
+                archive.append("cam", 1000 + i * 40, frame);
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes a) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void testFramesAcrossSegments() throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(dir.resolve("cam"))) {
+            assertEquals(95, reader.getFrameCount());
+            assertEquals(1000, reader.getStartTime());
+            assertEquals(1000 + 94 * 40, reader.getEndTime());
+            for (int i = 0; i < 95; i++) {
+                ByteBuffer frame = reader.getFrame(i);
+                assertFalse(frame.hasArray());
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                assertEquals("frame " + i, new String(bytes, StandardCharsets.ISO_8859_1));
+                assertEquals(1000 + i * 40, reader.getTimestamp(i));
+            }
+        }
+    }
+
+    public void testFloor() throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(dir.resolve("cam"))) {
+            assertEquals(-1, reader.floor(999));
+            assertEquals(0, reader.floor(1000));
+            assertEquals(0, reader.floor(1039));
+            // first frames of segments
+            assertEquals(10, reader.floor(1400));
+            assertEquals(9, reader.floor(1399));
+            assertEquals(57, reader.floor(1000 + 57 * 40 + 20));
+            assertEquals(94, reader.floor(Long.MAX_VALUE));
+        }
+    }
+
+    public void testByteBufferInputStream() throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(dir.resolve("cam"))) {
+            ByteBufferInputStream in = new ByteBufferInputStream(reader.getFrame(12));
+            assertEquals(8, in.available());
+            assertEquals('f', in.read());
+            byte[] b = new byte[16];
+            assertEquals(7, in.read(b, 0, b.length));
+            assertEquals("rame 12", new String(b, 0, 7, StandardCharsets.ISO_8859_1));
+            assertEquals(-1, in.read());
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ArchiveWriter and ArchiveIndex.
+ */
+public class ArchiveWriterTest extends TestCase {
+
+    private Path dir;
+
+    public ArchiveWriterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("archive");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes a)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void testSegmentsOfManyCameras() throws IOException {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        try (ArchiveWriter archive = new ArchiveWriter(dir, 2)) {
+            archive.setSegmentSize(1000);
+            archive.setIndexCapacity(16);
+            for (int i = 0; i < 100; i++) {
+                for (int c = 0; c < 3; c++) {
+                    archive.append("cam/" + c, 1000 + i * 40, frame(pool, "camera " + c + " frame " + i));
+                }
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            List<String> frames = new ArrayList<>();
+            List<Long> timestamps = new ArrayList<>();
+            List<Path> segments = segments(dir.resolve("cam_" + c));
+            assertTrue(segments.size() > 1);
+            for (Path idx : segments) {
+                Path data = idx.resolveSibling(idx.getFileName().toString().replace(ArchiveWriter.INDEX_SUFFIX,
+                        ArchiveWriter.DATA_SUFFIX));
+                try (ArchiveIndex index = ArchiveIndex.open(idx);
+                        FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+                    assertTrue(index.size() <= 16);
+                    assertTrue(channel.size() <= 1000);
+                    for (int e = 0; e < index.size(); e++) {
+                        ByteBuffer b = ByteBuffer.allocate(index.getLength(e));
+                        channel.read(b, index.getOffset(e));
+                        frames.add(new String(b.array(), StandardCharsets.ISO_8859_1));
+                        timestamps.add(index.getTimestamp(e));
+                    }
+                }
+            }
+            assertEquals(100, frames.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("camera " + c + " frame " + i, frames.get(i));
+                assertEquals(1000L + i * 40, (long) timestamps.get(i));
+            }
+        }
+        // every frame has been released
+        assertEquals(pool.getMissCount() * FramePool.MIN_CLASS_SIZE, pool.getIdleBytes());
+    }
+
+    public void testSkipDuplicates() throws IOException {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        ArchiveWriter archive = new ArchiveWriter(dir, 1);
+        try {
+            archive.setSkipDuplicates(true);
+            // a static scene for 2 seconds at 25 fps, then a change
+            for (int i = 0; i < 50; i++) {
+                archive.append("cam", 1000 + i * 40, frame(pool, "static"));
+            }
+            archive.append("cam", 3000, frame(pool, "moved"));
+        } finally {
+            archive.close();
+        }
+        // one per DUPLICATE_INTERVAL: at 1000 and 2000
+        assertEquals(3, archive.getFrameCount());
+        assertEquals(48, archive.getDuplicateFrameCount());
+        assertEquals(pool.getMissCount() * FramePool.MIN_CLASS_SIZE, pool.getIdleBytes());
+    }
+
+    public void testMotionGate() throws Exception {
+        ArchiveWriter archive = new ArchiveWriter(dir, 1);
+        try {
+            archive.setMotionGate(0.05f, 0, 0);
+            FrameListener recorder = archive.recorder("gate");
+            assertTrue(recorder instanceof MotionStage);
+            // the first frame, a still one, and a moved one; each is dropped or written before the next one comes
+            int[] boxes = { 0, 0, 200 };
+            for (int box : boxes) {
+                Frame frame = MotionDetectorTest.frame(320, 240, box);
+                frame.retain();
+                recorder.onFrame(frame);
+                long deadline = System.currentTimeMillis() + 5000;
+                while (frame.refCount() > 1 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(1, frame.refCount());
+            }
+            archive.clearMotionGate();
+            assertFalse(archive.recorder("all") instanceof MotionStage);
+        } finally {
+            archive.close();
+        }
+        assertEquals(2, archive.getFrameCount());
+    }
+
+    public void testIndexFloor() throws IOException {
+        Path path = dir.resolve("test.idx");
+        try (ArchiveIndex index = ArchiveIndex.create(path, 4)) {
+            assertEquals(-1, index.floor(100));
+            assertTrue(index.append(100, 0, 10));
+            assertTrue(index.append(200, 10, 10));
+            assertTrue(index.append(200, 20, 10));
+            assertTrue(index.append(300, 30, 10));
+            assertFalse(index.append(400, 40, 10));
+            try (ArchiveIndex reader = ArchiveIndex.open(path)) {
+                assertEquals(4, reader.size());
+                assertEquals(-1, reader.floor(99));
+                assertEquals(0, reader.floor(100));
+                assertEquals(0, reader.floor(199));
+                assertEquals(2, reader.floor(200));
+                assertEquals(3, reader.floor(1000));
+                assertEquals(30, reader.getOffset(3));
+            }
+        }
+    }
+
+    private static Frame frame(FramePool pool, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+        Frame frame = pool.acquire(bytes.length);
+        System.arraycopy(bytes, 0, frame.array(), 0, bytes.length);
+        frame.setLength(bytes.length);
+        return frame;
+    }
+
+    private static List<Path> segments(Path cameraDir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cameraDir, "*" + ArchiveWriter.INDEX_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+}
@@ -0,0 +1,121 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for CameraSimulator and LoadGenerator.
+ */
+public class CameraSimulatorTest extends TestCase {
+
+    private CameraSimulator camera;
+
+    public CameraSimulatorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        camera = new CameraSimulator();
+        camera.setFps(200);
+        camera.setResolution(160, 120);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        camera.close();
+    }
+
+    public void testQuirks() throws IOException {
+        camera.setDashedBoundary(true);
+        camera.setContentLength(false);
+        camera.setBareLineFeeds(true);
+        camera.setJitter(2);
+        camera.setCredentials("admin", "secret");
+        camera.start();
+        VideoSource src = new VideoSource(camera.getUrl(), "admin", "secret");
+        src.connect();
+        try {
+            Iterator<Frame> frames = src.frames().iterator();
+            for (int i = 0; i < 10; i++) {
+                Frame frame = frames.next();
+                try {
+                    JpegHeader header = JpegHeader.parse(frame.array(), 0, frame.length());
+                    assertNotNull(header);
+                    assertTrue(header.isComplete());
+                    assertEquals(160, header.getWidth());
+                    assertEquals(120, header.getHeight());
+                    long sent = CameraSimulator.sentNanos(frame.array(), 0, frame.length());
+                    assertTrue(sent > 0 && sent <= System.nanoTime());
+                } finally {
+                    frame.release();
+                }
+            }
+        } finally {
+            src.disconnect();
+        }
+    }
+
+    public void testUnauthorized() throws IOException {
+        camera.setCredentials("admin", "secret");
+        camera.start();
+        VideoSource src = new VideoSource(camera.getUrl(), "admin", "wrong");
+        try {
+            src.connect();
+            fail("connected with a wrong password");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            src.disconnect();
+        }
+    }
+
+    public void testTruncatedFrames() throws IOException {
+        camera.setTruncateProbability(0.5);
+        camera.start();
+        VideoSource src = new VideoSource(camera.getUrl());
+        src.connect();
+        int complete = 0;
+        int broken = 0;
+        try {
+            Iterator<Frame> frames = src.frames().iterator();
+            for (int i = 0; i < 40; i++) {
+                Frame frame = frames.next();
+                JpegHeader header = JpegHeader.parse(frame.array(), 0, frame.length());
+                if (header != null && header.isComplete())
+                    complete++;
+                else
+                    broken++;
+                frame.release();
+            }
+        } finally {
+            src.disconnect();
+        }
+        // the reader resyncs on the next boundary, so the stream goes on
+        assertTrue(complete > 0);
+        assertTrue(broken > 0);
+    }
+
+    public void testLoadGenerator() throws Exception {
+        camera.start();
+        try (LoadGenerator blocking = new LoadGenerator(camera.getUrl(), null, null);
+                LoadGenerator engine = new LoadGenerator(camera.getUrl(), null, null)) {
+            blocking.startBlocking(4);
+            engine.startEngine(4, 1);
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((blocking.getFrameCount() < 100 || engine.getFrameCount() < 100)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(blocking.getFrameCount() >= 100);
+            assertTrue(engine.getFrameCount() >= 100);
+            assertEquals(0, blocking.getErrorFrameCount());
+            assertEquals(0, blocking.getFailureCount());
+            assertTrue(blocking.getLatency().getCount() > 0);
+            assertTrue(blocking.report().contains("frames/s"));
+        }
+    }
+
+}
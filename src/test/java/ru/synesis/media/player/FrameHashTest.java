@@ -0,0 +1,62 @@
+package ru.synesis.media.player;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for FrameHash.
+ */
+public class FrameHashTest extends TestCase {
+
+    public FrameHashTest(String testName) {
+        super(testName);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] a = new byte[length];
+        new Random(seed).nextBytes(a);
+        return a;
+    }
+
+    public void testSmallFramesAreHashedWhole() {
+        for (int length : new int[] { 0, 1, 7, 8, 9, 1000, FrameHash.FULL_HASH_LIMIT }) {
+            byte[] a = random(length, length);
+            long h = FrameHash.hash(a, 0, length);
+            assertEquals(h, FrameHash.hash(a.clone(), 0, length));
+            for (int i = 0; i < length; i += Math.max(1, length / 16)) {
+                byte[] b = a.clone();
+                b[i] ^= 1;
+                assertFalse("length " + length + " at " + i, h == FrameHash.hash(b, 0, length));
+            }
+        }
+    }
+
+    public void testLargeFrames() {
+        int length = 200 * 1024;
+        byte[] a = random(length + 10, 1);
+        long h = FrameHash.hash(a, 5, length);
+        // the same bytes elsewhere in a buffer, like a pooled one
+        byte[] b = new byte[length + 100];
+        System.arraycopy(a, 5, b, 50, length);
+        assertEquals(h, FrameHash.hash(b, 50, length));
+        // a change of entropy coded data shows up in the tail, or in the length
+        byte[] c = Arrays.copyOfRange(a, 5, 5 + length);
+        c[length - 100] ^= 1;
+        assertFalse(h == FrameHash.hash(c, 0, length));
+        assertFalse(h == FrameHash.hash(a, 5, length - 1));
+        c = Arrays.copyOfRange(a, 5, 5 + length);
+        c[10] ^= 1;
+        assertFalse(h == FrameHash.hash(c, 0, length));
+    }
+
+    public void testFrameCachesHash() {
+        byte[] a = random(1000, 7);
+        Frame f = new Frame(null, a.clone(), 1000);
+        assertEquals(FrameHash.hash(a, 0, 1000), f.hash());
+        f.setLength(500);
+        assertEquals(FrameHash.hash(a, 0, 500), f.hash());
+    }
+
+}
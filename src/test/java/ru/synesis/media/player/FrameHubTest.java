@@ -0,0 +1,228 @@
+package ru.synesis.media.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for FrameHub and its overflow policies.
+ */
+public class FrameHubTest extends TestCase {
+
+    private ExecutorService executor;
+    private FrameHub hub;
+
+    public FrameHubTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        hub = new FrameHub(executor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        hub.close();
+        executor.shutdownNow();
+    }
+
+    private static Frame frame(int n) {
+        Frame f = new Frame(null, new byte[16], 1);
+        f.array()[0] = (byte) n;
+        return f;
+    }
+
+    /**
+     * Waits until the executor ran everything submitted so far
+     */
+    private void sync() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    public void testKeepLatest() throws Exception {
+        Recorder display = new Recorder(0);
+        FrameHub.Subscription s = hub.subscribe(display, OverflowPolicy.KEEP_LATEST, 8);
+        List<Frame> sent = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Frame f = frame(i);
+            sent.add(f.retain());
+            hub.onFrame(f);
+        }
+        sync();
+        assertEquals(1, s.getQueuedCount());
+        assertEquals(4, s.getDroppedCount());
+        s.request(10);
+        sync();
+        assertEquals("[4]", display.values());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, sent.get(i).refCount());
+        }
+        // the subscriber got the very same frame, not a copy
+        assertSame(sent.get(4), display.frames.get(0));
+    }
+
+    public void testDropOldest() throws Exception {
+        Recorder analytics = new Recorder(0);
+        FrameHub.Subscription s = hub.subscribe(analytics, OverflowPolicy.DROP_OLDEST, 3);
+        for (int i = 0; i < 5; i++) {
+            hub.onFrame(frame(i));
+        }
+        s.request(Long.MAX_VALUE);
+        sync();
+        assertEquals("[2, 3, 4]", analytics.values());
+        assertEquals(2, s.getDroppedCount());
+    }
+
+    public void testBufferOverflow() throws Exception {
+        Recorder recorder = new Recorder(0);
+        hub.subscribe(recorder, OverflowPolicy.BUFFER, 2);
+        Frame first = frame(0);
+        first.retain();
+        hub.onFrame(first);
+        hub.onFrame(frame(1));
+        hub.onFrame(frame(2));
+        sync();
+        assertTrue(recorder.error instanceof IllegalStateException);
+        assertEquals("[]", recorder.values());
+        // queued frames were released
+        assertEquals(1, first.refCount());
+        assertEquals(0, hub.getSubscriberCount());
+    }
+
+    public void testBlockUpstream() throws Exception {
+        final Recorder recorder = new Recorder(0);
+        final FrameHub.Subscription s = hub.subscribe(recorder, OverflowPolicy.BLOCK_UPSTREAM, 1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    hub.onFrame(frame(i));
+                }
+                sent.countDown();
+            }
+        };
+        reader.start();
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+        s.request(Long.MAX_VALUE);
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        sync();
+        assertEquals("[0, 1, 2]", recorder.values());
+        assertEquals(0, s.getDroppedCount());
+    }
+
+    public void testSlowSubscriberDoesNotStallFastOne() throws Exception {
+        Recorder slow = new Recorder(0);
+        Recorder fast = new Recorder(Long.MAX_VALUE);
+        FrameHub.Subscription s = hub.subscribe(slow, OverflowPolicy.KEEP_LATEST, 1);
+        hub.subscribe(fast, OverflowPolicy.DROP_OLDEST, 4);
+        sync();
+        for (int i = 0; i < 100; i++) {
+            hub.onFrame(frame(i));
+            sync();
+        }
+        assertEquals(100, fast.frames.size());
+        assertEquals(99, s.getDroppedCount());
+        s.request(1);
+        sync();
+        assertEquals("[99]", slow.values());
+        assertSame(fast.frames.get(99), slow.frames.get(0));
+    }
+
+    public void testCompletion() throws Exception {
+        Recorder recorder = new Recorder(0);
+        FrameHub.Subscription s = hub.subscribe(recorder, OverflowPolicy.BUFFER, 4);
+        hub.onFrame(frame(0));
+        hub.close();
+        sync();
+        // queued frames come before onComplete
+        assertFalse(recorder.completed);
+        s.request(1);
+        sync();
+        assertEquals("[0]", recorder.values());
+        assertTrue(recorder.completed);
+        Recorder late = new Recorder(0);
+        hub.subscribe(late, OverflowPolicy.BUFFER, 4);
+        sync();
+        assertTrue(late.completed);
+    }
+
+    public void testError() throws Exception {
+        Recorder recorder = new Recorder(0);
+        hub.subscribe(recorder, OverflowPolicy.BUFFER, 4);
+        hub.onFrame(frame(0));
+        Exception cause = new Exception("camera has gone");
+        hub.onClose(cause);
+        sync();
+        assertSame(cause, recorder.error);
+        assertFalse(recorder.completed);
+    }
+
+    public void testNonPositiveRequest() throws Exception {
+        Recorder recorder = new Recorder(0);
+        FrameHub.Subscription s = hub.subscribe(recorder, OverflowPolicy.BUFFER, 4);
+        s.request(0);
+        sync();
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+    }
+
+    /**
+     * Subscriber, which keeps frames it got, and requests <code>initial</code> frames on subscribe
+     */
+    private static class Recorder implements FrameSubscriber {
+
+        final List<Frame> frames = Collections.synchronizedList(new ArrayList<Frame>());
+        final long initial;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        Recorder(long initial) {
+            this.initial = initial;
+        }
+
+        String values() {
+            List<Integer> values = new ArrayList<>();
+            synchronized (frames) {
+                for (Frame f : frames) {
+                    values.add((int) f.array()[0]);
+                }
+            }
+            return values.toString();
+        }
+
+        @Override
+        public void onSubscribe(FrameHub.Subscription subscription) {
+            if (initial > 0)
+                subscription.request(initial);
+        }
+
+        @Override
+        public void onNext(Frame frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+    }
+
+}
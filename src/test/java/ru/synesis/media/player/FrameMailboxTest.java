@@ -0,0 +1,45 @@
+package ru.synesis.media.player;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for FrameMailbox.
+ */
+public class FrameMailboxTest extends TestCase {
+
+    public FrameMailboxTest(String testName) {
+        super(testName);
+    }
+
+    public void testLatestFrameWins() throws InterruptedException {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        FrameMailbox mailbox = new FrameMailbox();
+        Frame first = pool.acquire(10);
+        Frame second = pool.acquire(10);
+        mailbox.put(first);
+        mailbox.put(second);
+        assertEquals(0, first.refCount());
+        assertEquals(1, mailbox.getDroppedCount());
+        assertSame(second, mailbox.take());
+        assertNull(mailbox.poll());
+    }
+
+    public void testCloseWakesConsumer() throws InterruptedException {
+        final FrameMailbox mailbox = new FrameMailbox();
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                mailbox.close();
+            }
+        };
+        closer.start();
+        assertNull(mailbox.take());
+        closer.join();
+    }
+
+}
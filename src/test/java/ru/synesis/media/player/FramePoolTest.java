@@ -0,0 +1,75 @@
+package ru.synesis.media.player;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for FramePool and Frame reference counting.
+ */
+public class FramePoolTest extends TestCase {
+
+    public FramePoolTest(String testName) {
+        super(testName);
+    }
+
+    public void testBufferIsReusedWithinSizeClass() {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        Frame first = pool.acquire(100 * 1024);
+        byte[] buffer = first.array();
+        assertEquals(128 * 1024, buffer.length);
+        assertEquals(100 * 1024, first.length());
+        first.release();
+        assertEquals(buffer.length, pool.getIdleBytes());
+
+        Frame second = pool.acquire(70 * 1024);
+        assertSame(buffer, second.array());
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    public void testBufferReturnsOnLastRelease() {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        Frame frame = pool.acquire(1000);
+        frame.retain();
+        frame.release();
+        assertEquals(0, pool.getIdleBytes());
+        frame.release();
+        assertEquals(FramePool.MIN_CLASS_SIZE, pool.getIdleBytes());
+        try {
+            frame.release();
+            fail("released twice");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testIdleBytesAreBounded() {
+        FramePool pool = new FramePool(FramePool.MIN_CLASS_SIZE);
+        Frame a = pool.acquire(10);
+        Frame b = pool.acquire(10);
+        a.release();
+        b.release();
+        assertEquals(FramePool.MIN_CLASS_SIZE, pool.getIdleBytes());
+    }
+
+    public void testUsedBytes() {
+        FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+        Frame small = pool.acquire(1000);
+        Frame large = pool.acquire(FramePool.MAX_CLASS_SIZE + 1);
+        assertEquals(FramePool.MIN_CLASS_SIZE + FramePool.MAX_CLASS_SIZE + 1, pool.getUsedBytes());
+        small.release();
+        large.release();
+        assertEquals(0, pool.getUsedBytes());
+        assertEquals(FramePool.MIN_CLASS_SIZE, pool.getIdleBytes());
+        assertEquals(FramePool.MIN_CLASS_SIZE, pool.trim());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    public void testLargeFramesAreNotPooled() {
+        FramePool pool = new FramePool(Long.MAX_VALUE);
+        Frame frame = pool.acquire(FramePool.MAX_CLASS_SIZE + 1);
+        assertEquals(FramePool.MAX_CLASS_SIZE + 1, frame.array().length);
+        frame.release();
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+}
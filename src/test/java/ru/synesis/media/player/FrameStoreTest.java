@@ -0,0 +1,117 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for FrameStore and off-heap frames.
+ */
+public class FrameStoreTest extends TestCase {
+
+    public FrameStoreTest(String testName) {
+        super(testName);
+    }
+
+    private static Frame copy(FramePool pool, byte[] bytes) {
+        Frame frame = pool.acquire(bytes.length);
+        frame.writeBuffer().put(bytes);
+        return frame;
+    }
+
+    public void testOffHeapFrame() throws IOException {
+        byte[] jpeg = JpegHeaderTest.jpeg(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB));
+        try (FrameStore store = new FrameStore()) {
+            Frame frame = copy(store, jpeg);
+            assertTrue(frame.isDirect());
+            assertEquals(jpeg.length, frame.length());
+            assertTrue(Arrays.equals(jpeg, frame.toByteArray()));
+            assertEquals(FrameHash.hash(jpeg, 0, jpeg.length), frame.hash());
+            ByteBuffer view = frame.buffer();
+            assertTrue(view.isDirect());
+            assertTrue(view.isReadOnly());
+            assertEquals(jpeg.length, view.remaining());
+            JpegHeader header = JpegHeader.parse(view);
+            assertEquals(64, header.getWidth());
+            assertTrue(header.isComplete());
+            try (InputStream in = frame.inputStream()) {
+                byte[] read = new byte[jpeg.length + 1];
+                assertEquals(jpeg.length, in.read(read));
+                assertEquals(jpeg[jpeg.length - 1], read[jpeg.length - 1]);
+            }
+            try {
+                frame.array();
+                fail("off-heap frame has an array");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            frame.release();
+        }
+    }
+
+    public void testBlocksAreReused() {
+        try (FrameStore store = new FrameStore()) {
+            for (int i = 0; i < 100; i++) {
+                Frame a = store.acquire(100 * 1024);
+                Frame b = store.acquire(500 * 1024);
+                a.release();
+                b.release();
+            }
+            assertEquals(FrameStore.SLAB_SIZE, store.getReservedBytes());
+            assertEquals(0, store.getSpillCount());
+            // no heap buffers were taken
+            assertEquals(0, store.getMissCount());
+        }
+    }
+
+    public void testFullStoreSpillsToHeap() {
+        try (FrameStore store = new FrameStore(FrameStore.SLAB_SIZE)) {
+            Frame small = store.acquire(10);
+            Frame large = store.acquire(FramePool.MAX_CLASS_SIZE);
+            // the rest of the slab is less than a large block
+            Frame spilled = store.acquire(FramePool.MAX_CLASS_SIZE);
+            assertTrue(small.isDirect());
+            assertTrue(large.isDirect());
+            assertFalse(spilled.isDirect());
+            assertEquals(1, store.getSpillCount());
+            assertEquals(FrameStore.SLAB_SIZE, store.getReservedBytes());
+            large.release();
+            Frame reused = store.acquire(FramePool.MAX_CLASS_SIZE - 1);
+            assertTrue(reused.isDirect());
+            assertFalse(store.acquire(FramePool.MAX_CLASS_SIZE + 1).isDirect());
+            small.release();
+            spilled.release();
+            reused.release();
+        }
+    }
+
+    public void testRestOfSlabIsNotWasted() {
+        try (FrameStore store = new FrameStore(2L * FrameStore.SLAB_SIZE)) {
+            store.acquire(10);
+            store.acquire(FramePool.MAX_CLASS_SIZE);
+            // a new slab, the rest of the first one goes to smaller classes
+            store.acquire(FramePool.MAX_CLASS_SIZE);
+            assertEquals(2L * FrameStore.SLAB_SIZE, store.getReservedBytes());
+            for (int size = FramePool.MAX_CLASS_SIZE / 2; size > FramePool.MIN_CLASS_SIZE; size /= 2) {
+                assertTrue(store.acquire(size).isDirect());
+            }
+            assertEquals(2L * FrameStore.SLAB_SIZE, store.getReservedBytes());
+            assertEquals(0, store.getSpillCount());
+        }
+    }
+
+    public void testFrameOutlivesClose() {
+        FrameStore store = new FrameStore();
+        Frame frame = copy(store, new byte[] { 1, 2, 3 });
+        store.close();
+        assertEquals(0, store.getReservedBytes());
+        assertFalse(store.acquire(10).isDirect());
+        assertEquals(3, frame.buffer().get(2));
+        frame.release();
+    }
+
+}
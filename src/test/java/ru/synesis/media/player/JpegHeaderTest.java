@@ -0,0 +1,75 @@
+package ru.synesis.media.player;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for JpegHeader.
+ */
+public class JpegHeaderTest extends TestCase {
+
+    public JpegHeaderTest(String testName) {
+        super(testName);
+    }
+
+    public void testColorJpeg() throws IOException {
+        byte[] jpeg = jpeg(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB));
+        JpegHeader header = JpegHeader.parse(jpeg, 0, jpeg.length);
+        assertNotNull(header);
+        assertTrue(header.isComplete());
+        assertEquals(320, header.getWidth());
+        assertEquals(240, header.getHeight());
+        assertEquals(8, header.getPrecision());
+        assertEquals(3, header.getComponentCount());
+        assertEquals("4:2:0", header.getSubsampling());
+        assertEquals(2, header.getQuantTableCount());
+        assertFalse(header.isProgressive());
+    }
+
+    public void testGrayJpeg() throws IOException {
+        byte[] jpeg = jpeg(new BufferedImage(64, 48, BufferedImage.TYPE_BYTE_GRAY));
+        JpegHeader header = JpegHeader.parse(jpeg, 0, jpeg.length);
+        assertEquals(1, header.getComponentCount());
+        assertEquals("4:0:0", header.getSubsampling());
+    }
+
+    public void testTruncatedJpeg() throws IOException {
+        byte[] jpeg = jpeg(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB));
+        JpegHeader header = JpegHeader.parse(jpeg, 0, jpeg.length - 10);
+        assertNotNull(header);
+        assertFalse(header.isComplete());
+        assertNull(JpegHeader.parse(jpeg, 0, 100));
+    }
+
+    public void testPaddedJpeg() throws IOException {
+        byte[] jpeg = jpeg(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB));
+        byte[] padded = Arrays.copyOf(jpeg, jpeg.length + 64);
+        for (int i = jpeg.length; i < padded.length - 32; i += 2) {
+            padded[i] = '\r';
+            padded[i + 1] = '\n';
+        }
+        // zeros are left at the end
+        assertTrue(JpegHeader.parse(padded, 0, padded.length).isComplete());
+        // other trailing bytes are still checked within a few
+        Arrays.fill(padded, jpeg.length, padded.length, (byte) 'x');
+        assertFalse(JpegHeader.parse(padded, 0, padded.length).isComplete());
+    }
+
+    public void testNotJpeg() {
+        byte[] garbage = "--myboundary\r\n".getBytes();
+        assertNull(JpegHeader.parse(garbage, 0, garbage.length));
+    }
+
+    static byte[] jpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+}
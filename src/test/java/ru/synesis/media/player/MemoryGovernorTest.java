@@ -0,0 +1,151 @@
+package ru.synesis.media.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for MemoryGovernor.
+ */
+public class MemoryGovernorTest extends TestCase {
+
+    private static final long CAPACITY = 10L * FramePool.MIN_CLASS_SIZE;
+
+    private final MetricsRegistry registry = new MetricsRegistry(null);
+    private final FramePool pool = new FramePool(0);
+    private final MemoryGovernor governor = new MemoryGovernor(registry, pool, CAPACITY);
+
+    public MemoryGovernorTest(String testName) {
+        super(testName);
+    }
+
+    public void testLevels() {
+        assertEquals(ShedLevel.NONE, MemoryGovernor.level(59, 100));
+        assertEquals(ShedLevel.DROP_PRE_ROLL, MemoryGovernor.level(60, 100));
+        assertEquals(ShedLevel.REDUCE_RESOLUTION, MemoryGovernor.level(75, 100));
+        assertEquals(ShedLevel.SKIP_FRAMES, MemoryGovernor.level(100, 100));
+        assertEquals(ShedLevel.DISCONNECT, MemoryGovernor.level(101, 100));
+    }
+
+    public void testShedsAndRecoversStepByStep() {
+        FakeStream stream = new FakeStream(0);
+        registry.register("cam", stream);
+        List<Frame> frames = acquire(7);
+        assertEquals(ShedLevel.DROP_PRE_ROLL, governor.evaluate());
+        assertEquals(7 * FramePool.MIN_CLASS_SIZE, governor.getUsedBytes());
+        frames.addAll(acquire(2));
+        assertEquals(ShedLevel.SKIP_FRAMES, governor.evaluate());
+        for (Frame frame : frames) {
+            frame.release();
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ShedLevel.NONE, governor.evaluate());
+        }
+        assertEquals(ShedLevel.NONE, governor.evaluate());
+        assertEquals(list(ShedLevel.DROP_PRE_ROLL, ShedLevel.SKIP_FRAMES, ShedLevel.REDUCE_RESOLUTION,
+                ShedLevel.DROP_PRE_ROLL, ShedLevel.NONE), stream.levels);
+        assertEquals(2, governor.getShedCount());
+    }
+
+    public void testDisconnectsLargestStreamFirst() {
+        FakeStream small = new FakeStream(1);
+        FakeStream large = new FakeStream(100);
+        registry.register("small", small);
+        registry.register("large", large);
+        List<Frame> frames = acquire(11);
+        assertEquals(ShedLevel.DISCONNECT, governor.evaluate());
+        assertEquals(ShedLevel.DISCONNECT, large.level());
+        assertEquals(ShedLevel.SKIP_FRAMES, small.level());
+        // still over the cap, the next one goes
+        assertEquals(ShedLevel.DISCONNECT, governor.evaluate());
+        assertEquals(ShedLevel.DISCONNECT, large.level());
+        assertEquals(ShedLevel.DISCONNECT, small.level());
+        for (Frame frame : frames) {
+            frame.release();
+        }
+        governor.evaluate();
+        assertEquals(ShedLevel.SKIP_FRAMES, large.level());
+    }
+
+    public void testStreamCapacity() {
+        FakeStream stream = new FakeStream(200);
+        FakeStream other = new FakeStream(0);
+        governor.setStreamCapacity(100);
+        registry.register("cam", stream);
+        registry.register("other", other);
+        assertEquals(ShedLevel.NONE, governor.evaluate());
+        assertEquals(ShedLevel.DISCONNECT, stream.level());
+        assertTrue(other.levels.isEmpty());
+    }
+
+    public void testAddedPool() {
+        FramePool other = new FramePool(0);
+        governor.addPool(other);
+        Frame frame = other.acquire(9 * FramePool.MIN_CLASS_SIZE);
+        acquire(1);
+        assertEquals(ShedLevel.DISCONNECT, governor.evaluate());
+        assertEquals(17 * FramePool.MIN_CLASS_SIZE, governor.getUsedBytes());
+        governor.removePool(other);
+        assertEquals(ShedLevel.NONE, governor.evaluate());
+        frame.release();
+    }
+
+    public void testFrameStoreCountsReservedMemory() {
+        try (FrameStore store = new FrameStore()) {
+            governor.setCapacity(4L * FrameStore.SLAB_SIZE);
+            governor.addPool(store);
+            store.acquire(10).release();
+            governor.evaluate();
+            assertEquals(FrameStore.SLAB_SIZE, governor.getUsedBytes());
+        }
+    }
+
+    private List<Frame> acquire(int n) {
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            frames.add(pool.acquire(FramePool.MIN_CLASS_SIZE));
+        }
+        return frames;
+    }
+
+    private static List<ShedLevel> list(ShedLevel... levels) {
+        List<ShedLevel> list = new ArrayList<>();
+        for (ShedLevel level : levels) {
+            list.add(level);
+        }
+        return list;
+    }
+
+    private static class FakeStream implements StreamMetrics, LoadShedder {
+
+        final StreamStats stats = new StreamStats();
+        final long bufferedBytes;
+        final List<ShedLevel> levels = new ArrayList<>();
+
+        FakeStream(long bufferedBytes) {
+            this.bufferedBytes = bufferedBytes;
+        }
+
+        ShedLevel level() {
+            return levels.isEmpty() ? ShedLevel.NONE : levels.get(levels.size() - 1);
+        }
+
+        @Override
+        public StreamStats getStats() {
+            return stats;
+        }
+
+        @Override
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+
+        @Override
+        public void setShedLevel(ShedLevel level) {
+            levels.add(level);
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+package ru.synesis.media.player;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for MotionDetector, MotionGate and MotionStage.
+ */
+public class MotionDetectorTest extends TestCase {
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public MotionDetectorTest(String testName) {
+        super(testName);
+    }
+
+    static Frame frame(int width, int height, int boxX) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.WHITE);
+        g.fillRect(boxX, height / 4, width / 4, height / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        byte[] jpeg = out.toByteArray();
+        return new Frame(null, jpeg, jpeg.length);
+    }
+
+    public void testCountChanged() {
+        int[] a = new int[100];
+        int[] b = new int[100];
+        for (int i = 0; i < 100; i++) {
+            a[i] = 100;
+            b[i] = 100 + (i % 4 == 0 ? 25 : 24) * (i % 2 == 0 ? 1 : -1);
+        }
+        // even cells differ by 25, odd ones by 24 either way
+        assertEquals(25, MotionDetector.countChanged(a, b, 100, 24));
+        assertEquals(25, MotionDetector.countChanged(b, a, 100, 24));
+        assertEquals(100, MotionDetector.countChanged(a, b, 100, 23));
+        assertEquals(0, MotionDetector.countChanged(a, a, 100, 0));
+        assertEquals(5, MotionDetector.countChanged(a, b, 20, 24));
+    }
+
+    public void testDetect() throws IOException {
+        try (MotionDetector detector = new MotionDetector()) {
+            assertEquals(1f, detector.detect(frame(640, 480, 0)));
+            assertTrue(detector.getGridWidth() >= MotionDetector.DEFAULT_GRID_WIDTH);
+            assertTrue(detector.getGridWidth() < MotionDetector.DEFAULT_GRID_WIDTH * 2);
+            assertEquals(0f, detector.detect(frame(640, 480, 0)));
+            float moved = detector.detect(frame(640, 480, 320));
+            // the box left a quarter of the width and came to another quarter
+            assertTrue(moved > 0.1f && moved < 0.5f);
+            assertEquals(0f, detector.detect(frame(640, 480, 320)));
+            // a new resolution starts over
+            assertEquals(1f, detector.detect(frame(320, 240, 320)));
+            byte[] broken = new byte[] { (byte) 0xFF, (byte) 0xD8, 0, 0 };
+            assertTrue(Float.isNaN(detector.detect(new Frame(null, broken, broken.length))));
+            // the broken frame didn't replace the previous grid
+            assertEquals(0f, detector.detect(frame(320, 240, 320)));
+        }
+    }
+
+    public void testGate() {
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        MotionGate thinning = new MotionGate(0.05f, 100, 1000);
+        // the first still frame is kept, then one a second
+        assertTrue(thinning.accept(0, 0f));
+        assertFalse(thinning.accept(500 * ms, 0f));
+        assertTrue(thinning.accept(1000 * ms, 0.01f));
+        assertFalse(thinning.accept(1100 * ms, 0f));
+        // motion, and the hold after it
+        assertTrue(thinning.accept(1200 * ms, 0.2f));
+        assertTrue(thinning.accept(1250 * ms, 0f));
+        assertTrue(thinning.accept(1299 * ms, 0f));
+        assertFalse(thinning.accept(1300 * ms, 0f));
+        assertTrue(thinning.accept(2299 * ms, 0f));
+        // an unknown score is motion
+        assertTrue(thinning.accept(2300 * ms, Float.NaN));
+
+        MotionGate dropping = new MotionGate(0.05f, 0, 0);
+        assertFalse(dropping.accept(0, 0f));
+        assertTrue(dropping.accept(ms, 0.05f));
+        assertFalse(dropping.accept(2 * ms, 0f));
+        assertFalse(dropping.accept(10000 * ms, 0f));
+    }
+
+    public void testStage() throws IOException {
+        final List<Frame> kept = new ArrayList<>();
+        final List<Float> scores = new ArrayList<>();
+        FrameListener recorder = new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                kept.add(frame);
+            }
+            @Override
+            public void onClose(Exception cause) {
+            }
+        };
+        MotionStage stage = new MotionStage(INLINE, new MotionDetector(),
+                new MotionGate(0.05f, 0, 0).filter(recorder));
+        stage.addMotionListener(new MotionListener() {
+            @Override
+            public void onMotion(Frame frame, float score) {
+                scores.add(score);
+            }
+        });
+        Frame still = frame(320, 240, 0);
+        still.retain();
+        stage.onFrame(frame(320, 240, 0));
+        stage.onFrame(still);
+        stage.onFrame(frame(320, 240, 200));
+        stage.onClose(null);
+        assertEquals(3, scores.size());
+        assertEquals(0f, scores.get(1));
+        assertEquals(0f, still.getMotionScore());
+        // the still frame was released by the gate
+        assertEquals(1, still.refCount());
+        assertEquals(2, kept.size());
+        assertEquals(1f, kept.get(0).getMotionScore());
+        assertTrue(kept.get(1).getMotionScore() > 0.05f);
+        assertEquals(stage.getLastScore(), kept.get(1).getMotionScore());
+    }
+
+    public void testStageDropsFramesWhileScoring() throws IOException {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Frame> scored = new ArrayList<>();
+        final List<Exception> closed = new ArrayList<>();
+        MotionStage stage = new MotionStage(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, new MotionDetector(), new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                scored.add(frame);
+            }
+            @Override
+            public void onClose(Exception cause) {
+                closed.add(cause);
+            }
+        });
+        Frame first = frame(320, 240, 0);
+        first.retain();
+        Frame second = frame(320, 240, 100);
+        // the thread of the stream only queues frames, a newer one replaces the waiting one
+        stage.onFrame(first);
+        stage.onFrame(second);
+        assertEquals(1, tasks.size());
+        assertEquals(1, first.refCount());
+        assertEquals(1, stage.getDroppedCount());
+        assertTrue(scored.isEmpty());
+        tasks.remove(0).run();
+        assertEquals(1, scored.size());
+        assertSame(second, scored.get(0));
+        assertEquals(1f, second.getMotionScore());
+        Frame waiting = frame(320, 240, 200);
+        waiting.retain();
+        stage.onFrame(waiting);
+        IOException cause = new IOException("closed");
+        stage.onClose(cause);
+        // the frame waiting to be scored is dropped, downstream is closed by the task
+        assertEquals(1, waiting.refCount());
+        assertTrue(closed.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(1, scored.size());
+        assertEquals(1, closed.size());
+        assertSame(cause, closed.get(0));
+    }
+
+}
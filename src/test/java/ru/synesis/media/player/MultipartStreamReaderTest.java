@@ -0,0 +1,145 @@
+package ru.synesis.media.player;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for MultipartStreamReader.
+ */
+public class MultipartStreamReaderTest extends TestCase {
+
+    public MultipartStreamReaderTest(String testName) {
+        super(testName);
+    }
+
+    public void testCrLfWithContentLength() throws IOException {
+        String s = "--myboundary\r\nContent-Type: image/jpeg\r\nContent-Length: 5\r\n\r\nhello\r\n"
+                + "--myboundary\r\ncontent-length:5\r\n\r\nworld\r\n--myboundary--\r\n";
+        assertEquals(Arrays.asList("hello", "world"), readAll("myboundary", s, 16));
+    }
+
+    public void testLfAndPrefixedBoundary() throws IOException {
+        String s = "preamble\n--myboundary\nContent-Length: 5\n\nhello\n--myboundary\nContent-Length: 5\n\nworld\n";
+        assertEquals(Arrays.asList("hello", "world"), readAll("--myboundary", s, 16));
+    }
+
+    public void testWithoutContentLength() throws IOException {
+        String s = "--b\r\nContent-Type: image/jpeg\r\n\r\nfirst frame\r\n--b\r\n\r\nsecond\r\n--b--\r\n";
+        assertEquals(Arrays.asList("first frame", "second"), readAll("b", s, 16));
+    }
+
+    public void testContentLengthTooLong() throws IOException {
+        String s = "--b\r\nContent-Length: 20\r\n\r\nhello\r\n--b\r\nContent-Length: 5\r\n\r\nworld\r\n--b--\r\n";
+        assertEquals(Arrays.asList("hello", "world"), readAll("b", s, 16));
+    }
+
+    public void testContentLengthTooShort() throws IOException {
+        String s = "--b\r\nContent-Length: 3\r\n\r\nhello\r\n--b\r\nContent-Length: 5\r\n\r\nworld\r\n";
+        assertEquals(Arrays.asList("hel", "world"), readAll("b", s, 16));
+    }
+
+    public void testBoundaryLookalikeInBody() throws IOException {
+        String s = "--b\r\n\r\nx--bz--b\r\n--b\r\nContent-Length: 4\r\n\r\n--bX\r\n--b--";
+        assertEquals(Arrays.asList("x--bz--b", "--bX"), readAll("b", s, 16));
+    }
+
+    public void testPartLargerThanMax() throws IOException {
+        String s = "--b\r\nContent-Length: 2000000000\r\n\r\nhello\r\n--b\r\n\r\nhello, world\r\n--b--\r\n";
+        try (MultipartStreamReader reader = new MultipartStreamReader(
+                new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)), new MultipartBoundary("b"), 16)) {
+            reader.setMaxPartSize(8);
+            assertTrue(reader.nextPart());
+            try {
+                reader.readHeaders();
+                fail("Content-Length over the max is accepted");
+            } catch (IOException e) {
+                // expected
+            }
+            assertTrue(reader.nextPart());
+            assertEquals(-1, reader.readHeaders());
+            try {
+                reader.readToBoundary();
+                fail("Part over the max is accepted");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testEndlessHeaderLine() throws IOException {
+        InputStream endless = new SequenceInputStream(
+                new ByteArrayInputStream("--b\r\nX-Junk: ".getBytes(StandardCharsets.ISO_8859_1)), new InputStream() {
+                    @Override
+                    public int read() {
+                        return 'a';
+                    }
+                });
+        try (MultipartStreamReader reader = new MultipartStreamReader(endless, new MultipartBoundary("b"), 16)) {
+            assertTrue(reader.nextPart());
+            try {
+                reader.readHeaders();
+                fail("Endless header line is buffered");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testBodyLongerThanLineLimit() throws IOException {
+        char[] body = new char[4 * MultipartStreamReader.MAX_LINE_SIZE];
+        Arrays.fill(body, 'x');
+        String s = "--b\r\n\r\n" + new String(body) + "\r\n--b--\r\n";
+        assertEquals(Arrays.asList(new String(body)), readAll("b", s, 16));
+    }
+
+    public void testContentLengthParsing() {
+        assertEquals(1234, contentLength("Content-Length: 1234\r"));
+        assertEquals(7, contentLength("CONTENT-LENGTH :\t7 "));
+        assertEquals(-1, contentLength("Content-Type: image/jpeg"));
+        assertEquals(-1, contentLength("Content-Length: 12a"));
+        assertEquals(-1, contentLength("Content-Length: 99999999999"));
+    }
+
+    private static long contentLength(String line) {
+        byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+        return MultipartBoundary.contentLength(b, 0, b.length);
+    }
+
+    /**
+     * Reads all parts, delivering the stream by 3 bytes to exercise buffer refills
+     */
+    private static List<String> readAll(String boundary, String s, int bufferSize) throws IOException {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        List<String> parts = new ArrayList<>();
+        try (MultipartStreamReader reader = new MultipartStreamReader(in, new MultipartBoundary(boundary), bufferSize)) {
+            while (reader.nextPart()) {
+                long length = reader.readHeaders();
+                if (length < 0) {
+                    int bytes = reader.readToBoundary();
+                    parts.add(new String(reader.scratch(), 0, bytes, StandardCharsets.ISO_8859_1));
+                } else {
+                    byte[] body = new byte[(int) length];
+                    reader.readFully(body, 0, body.length);
+                    int bytes = reader.resync(body, 0, body.length);
+                    parts.add(new String(body, 0, bytes, StandardCharsets.ISO_8859_1));
+                }
+            }
+        }
+        return parts;
+    }
+
+}
@@ -0,0 +1,242 @@
+package ru.synesis.media.player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for ParallelDecoder.
+ */
+public class ParallelDecoderTest extends TestCase {
+
+    private static final int BROKEN = 100;
+    private static final int BLOCKED = 101;
+
+    private ExecutorService executor;
+    private ParallelDecoder<Integer> decoder;
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> recycled = Collections.synchronizedList(new ArrayList<Integer>());
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private volatile long decodeMillis;
+
+    public ParallelDecoderTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        decoder = new ParallelDecoder<>(executor, 8, new Supplier<ParallelDecoder.Decoder<Integer>>() {
+            @Override
+            public ParallelDecoder.Decoder<Integer> get() {
+                return new ParallelDecoder.Decoder<Integer>() {
+                    @Override
+                    public Integer decode(Frame frame) throws IOException {
+                        int value = frame.array()[0];
+                        try {
+                            if (value == BLOCKED)
+                                unblock.await();
+                            else
+                                Thread.sleep(decodeMillis);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        if (value == BROKEN)
+                            throw new IOException("broken");
+                        return value;
+                    }
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        }, new ParallelDecoder.Listener<Integer>() {
+            @Override
+            public void onDecoded(Integer image, long decodeNanos) {
+                delivered.add(String.valueOf(image));
+            }
+            @Override
+            public void onError(IOException e) {
+                delivered.add("error");
+            }
+            @Override
+            public void onDropped() {
+                delivered.add("dropped");
+            }
+            @Override
+            public void recycle(Integer image) {
+                recycled.add(image);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        unblock.countDown();
+        decoder.close();
+        executor.shutdownNow();
+    }
+
+    private static Frame frame(int n) {
+        Frame f = new Frame(null, new byte[16], 1);
+        f.array()[0] = (byte) n;
+        return f;
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, delivered.size());
+    }
+
+    public void testStaleFrameDropped() throws Exception {
+        Frame blocked = frame(BLOCKED);
+        blocked.retain();
+        Frame stale = frame(1);
+        stale.retain();
+        decoder.submit(blocked);
+        decoder.submit(stale);
+        // one worker is busy, so the frame waiting for it is replaced by the newer one
+        decoder.submit(frame(2));
+        assertEquals(1, stale.refCount());
+        unblock.countDown();
+        awaitDelivered(3);
+        assertEquals("[dropped, 101, 2]", delivered.toString());
+        assertEquals(1, blocked.refCount());
+        assertEquals(1, decoder.getDroppedCount());
+        assertEquals(2, decoder.getDecodedCount());
+    }
+
+    public void testParallelismFollowsDecodeTime() throws Exception {
+        decodeMillis = 20;
+        for (int i = 0; i < 40; i++) {
+            decoder.submit(frame(i));
+            Thread.sleep(5);
+        }
+        // 20 ms of decode per 5 ms of a frame takes 4 workers and some headroom
+        assertTrue("parallelism " + decoder.getParallelism(), decoder.getParallelism() >= 4);
+        awaitDelivered(40);
+        int decoded = 0;
+        int last = -1;
+        for (String s : delivered) {
+            if (s.equals("dropped"))
+                continue;
+            int value = Integer.parseInt(s);
+            assertTrue(delivered.toString(), value > last);
+            last = value;
+            decoded++;
+        }
+        // only frames before the pool grew may be dropped
+        assertTrue(delivered.toString(), decoded > 30);
+        decodeMillis = 0;
+        for (int i = 0; i < 60; i++) {
+            decoder.submit(frame(i));
+            Thread.sleep(5);
+        }
+        assertEquals(1, decoder.getParallelism());
+    }
+
+    public void testLateFrameDropped() throws Exception {
+        decodeMillis = 20;
+        for (int i = 0; i < 20; i++) {
+            decoder.submit(frame(i));
+            Thread.sleep(5);
+        }
+        awaitDelivered(20);
+        delivered.clear();
+        decoder.setMaxDelay(50);
+        decoder.submit(frame(BLOCKED));
+        Thread.sleep(5);
+        decoder.submit(frame(21));
+        Thread.sleep(5);
+        decoder.submit(frame(22));
+        Thread.sleep(100);
+        assertEquals("[]", delivered.toString());
+        // 21 has waited for longer than the max delay
+        decoder.submit(frame(23));
+        awaitDelivered(3);
+        assertEquals("[dropped, 21, 22]", delivered.toString());
+        unblock.countDown();
+        awaitDelivered(4);
+        assertEquals("23", delivered.get(3));
+    }
+
+    public void testWindow() throws Exception {
+        decodeMillis = 20;
+        for (int i = 0; i < 20; i++) {
+            decoder.submit(frame(i));
+            Thread.sleep(5);
+        }
+        awaitDelivered(20);
+        delivered.clear();
+        decoder.setWindow(2);
+        decoder.submit(frame(BLOCKED));
+        decoder.submit(frame(21));
+        Thread.sleep(50);
+        assertEquals("[]", delivered.toString());
+        // the third frame doesn't fit the window, the oldest one is late
+        decoder.submit(frame(22));
+        awaitDelivered(2);
+        assertEquals("[dropped, 21]", delivered.toString());
+        awaitDelivered(3);
+        assertEquals("22", delivered.get(2));
+    }
+
+    public void testDroppedImageRecycled() throws Exception {
+        decoder.setWindow(1);
+        decoder.submit(frame(BLOCKED));
+        decoder.submit(frame(1));
+        awaitDelivered(1);
+        assertEquals("[dropped]", delivered.toString());
+        // the dropped frame is still being decoded, the other one waits for a worker
+        assertEquals(32, decoder.getBufferedBytes());
+        assertEquals("[]", recycled.toString());
+        // the frame was dropped while being decoded, its image comes back when it's done
+        unblock.countDown();
+        awaitDelivered(2);
+        assertEquals("[dropped, 1]", delivered.toString());
+        assertEquals(0, decoder.getBufferedBytes());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recycled.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals("[" + BLOCKED + "]", recycled.toString());
+    }
+
+    public void testError() throws Exception {
+        decoder.submit(frame(BROKEN));
+        awaitDelivered(1);
+        decoder.submit(frame(1));
+        awaitDelivered(2);
+        assertEquals("[error, 1]", delivered.toString());
+        assertEquals(1, decoder.getErrorCount());
+    }
+
+    public void testClose() throws Exception {
+        decoder.submit(frame(BLOCKED));
+        Frame queued = frame(1);
+        queued.retain();
+        decoder.submit(queued);
+        decoder.close();
+        assertEquals(1, queued.refCount());
+        Frame late = frame(2);
+        late.retain();
+        decoder.submit(late);
+        assertEquals(1, late.refCount());
+        unblock.countDown();
+        Thread.sleep(50);
+        assertEquals("[]", delivered.toString());
+        assertEquals("[" + BLOCKED + "]", recycled.toString());
+    }
+
+}
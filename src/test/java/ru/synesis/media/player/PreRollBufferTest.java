@@ -0,0 +1,109 @@
+package ru.synesis.media.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for PreRollBuffer.
+ */
+public class PreRollBufferTest extends TestCase {
+
+    private final FramePool pool = new FramePool(FramePool.DEFAULT_MAX_IDLE_BYTES);
+
+    public PreRollBufferTest(String testName) {
+        super(testName);
+    }
+
+    public void testEvictsByAge() {
+        PreRollBuffer preRoll = new PreRollBuffer(1000, Long.MAX_VALUE);
+        Frame first = pool.acquire(10);
+        Frame second = pool.acquire(10);
+        Frame third = pool.acquire(10);
+        preRoll.add(1000, first);
+        preRoll.add(1500, second);
+        preRoll.add(2001, third);
+        assertEquals(0, first.refCount());
+        assertEquals(1, second.refCount());
+        assertEquals(2, preRoll.getFrameCount());
+        assertEquals(2001, preRoll.getLatestTimestamp());
+    }
+
+    public void testEvictsByBytes() {
+        Frame first = pool.acquire(10);
+        PreRollBuffer preRoll = new PreRollBuffer(60000, 2L * first.capacity());
+        Frame second = pool.acquire(10);
+        Frame third = pool.acquire(10);
+        preRoll.add(1, first);
+        preRoll.add(2, second);
+        assertEquals(2L * first.capacity(), preRoll.getBufferedBytes());
+        preRoll.add(3, third);
+        assertEquals(0, first.refCount());
+        assertEquals(2, preRoll.getFrameCount());
+        assertEquals(2L * first.capacity(), preRoll.getBufferedBytes());
+    }
+
+    public void testKeepsLatestOverBudget() {
+        PreRollBuffer preRoll = new PreRollBuffer(0, 0);
+        Frame frame = pool.acquire(10);
+        preRoll.add(1, frame);
+        Frame latest = preRoll.latest();
+        assertSame(frame, latest);
+        assertEquals(2, frame.refCount());
+        latest.release();
+        preRoll.close();
+        assertEquals(0, frame.refCount());
+        assertEquals(0, preRoll.getBufferedBytes());
+        assertNull(preRoll.latest());
+    }
+
+    public void testLatestOnly() {
+        PreRollBuffer preRoll = new PreRollBuffer();
+        Frame first = pool.acquire(10);
+        Frame second = pool.acquire(10);
+        Frame third = pool.acquire(10);
+        preRoll.add(1, first);
+        preRoll.add(2, second);
+        preRoll.setLatestOnly(true);
+        assertEquals(0, first.refCount());
+        assertEquals(1, preRoll.getFrameCount());
+        assertEquals(second.capacity(), preRoll.getBufferedBytes());
+        preRoll.add(3, third);
+        assertEquals(0, second.refCount());
+        preRoll.setLatestOnly(false);
+        Frame fourth = pool.acquire(10);
+        preRoll.add(4, fourth);
+        assertEquals(2, preRoll.getFrameCount());
+        preRoll.close();
+    }
+
+    public void testDumpKeepsFrames() {
+        PreRollBuffer preRoll = new PreRollBuffer();
+        Frame first = pool.acquire(10);
+        Frame second = pool.acquire(10);
+        preRoll.add(1, first);
+        preRoll.add(2, second);
+        final List<Frame> dumped = new ArrayList<>();
+        assertEquals(2, preRoll.dumpTo(new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                dumped.add(frame);
+            }
+
+            @Override
+            public void onClose(Exception cause) {
+            }
+        }));
+        assertSame(first, dumped.get(0));
+        assertSame(second, dumped.get(1));
+        assertEquals(2, first.refCount());
+        for (Frame f : dumped) {
+            f.release();
+        }
+        assertEquals(2, preRoll.getFrameCount());
+        preRoll.close();
+        assertEquals(0, second.refCount());
+    }
+
+}
@@ -0,0 +1,132 @@
+package ru.synesis.media.player;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for Viewport and ScaledJpegDecoder.
+ */
+public class ScaledJpegDecoderTest extends TestCase {
+
+    public ScaledJpegDecoderTest(String testName) {
+        super(testName);
+    }
+
+    public void testSubsamplingFollowsViewSize() {
+        Viewport viewport = new Viewport();
+        Rectangle full = viewport.sourceRegion(1920, 1080);
+        assertEquals(new Rectangle(0, 0, 1920, 1080), full);
+        assertEquals(1, viewport.subsampling(full));
+        viewport.setSize(480, 270);
+        assertEquals(4, viewport.subsampling(full));
+        viewport.setSize(1000, 1000);
+        assertEquals(1, viewport.subsampling(full));
+    }
+
+    public void testZoomKeepsRegionInsideFrame() {
+        Viewport viewport = new Viewport();
+        viewport.zoom(4, 1, 1);
+        double[] r = viewport.getRegion();
+        assertEquals(0.75, r[0], 1e-9);
+        assertEquals(0.75, r[1], 1e-9);
+        assertEquals(0.25, r[2], 1e-9);
+        viewport.zoom(0.1, 0.5, 0.5);
+        assertFalse(viewport.isZoomed());
+    }
+
+    public void testDecodesVisiblePixelsOnly() throws IOException {
+        byte[] jpeg = JpegHeaderTest.jpeg(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB));
+        Frame frame = new Frame(null, jpeg, jpeg.length);
+        JpegHeader header = JpegHeader.parse(jpeg, 0, jpeg.length);
+        Viewport viewport = new Viewport();
+        viewport.setSize(160, 120);
+        assertTrue(ScaledJpegDecoder.isReduced(header, viewport));
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+        try {
+            BufferedImage image = decoder.decode(frame, header, viewport);
+            assertEquals(160, image.getWidth());
+            assertEquals(120, image.getHeight());
+            viewport.zoom(2, 0.5, 0.5);
+            image = decoder.decode(frame, header, viewport);
+            assertEquals(160, image.getWidth());
+            assertEquals(2, decoder.getSubsampling());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    public void testDecodesIntoRenderBuffer() throws IOException {
+        BufferedImage source = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 240; y++) {
+            for (int x = 0; x < 320; x++) {
+                source.setRGB(x, y, 0x3060C0);
+            }
+        }
+        byte[] jpeg = JpegHeaderTest.jpeg(source);
+        Frame frame = new Frame(null, jpeg, jpeg.length);
+        JpegHeader header = JpegHeader.parse(jpeg, 0, jpeg.length);
+        RenderBuffer buffer = new RenderBuffer();
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+        try {
+            for (int i = 0; i < 10; i++) {
+                buffer.publish(decoder.decode(frame, header, null, buffer));
+                // a frame which comes before the pulse replaces the unshown one
+                buffer.publish(decoder.decode(frame, header, null, buffer));
+                BufferedImage shown = buffer.take();
+                assertEquals(320, shown.getWidth());
+                int argb = shown.getRaster().getDataBuffer().getElem(160 * 320 + 120);
+                assertEquals(0xFF, argb >>> 24);
+                assertEquals(0x30, argb >> 16 & 0xFF, 2);
+                assertEquals(0xC0, argb & 0xFF, 2);
+                buffer.recycle(shown);
+            }
+            assertNull(buffer.take());
+            // steady state is double-buffered
+            assertEquals(2, buffer.getAllocationCount());
+            assertEquals(2L * 4 * 320 * 240, buffer.getBufferedBytes());
+            Viewport viewport = new Viewport();
+            viewport.setSize(160, 120);
+            buffer.publish(decoder.decode(frame, header, viewport, buffer));
+            assertEquals(160, buffer.take().getWidth());
+            assertEquals(3, buffer.getAllocationCount());
+            // buffers of the old size are left to GC
+            assertEquals(4L * 160 * 120, buffer.getBufferedBytes());
+
+            byte[] gray = JpegHeaderTest.jpeg(new BufferedImage(160, 120, BufferedImage.TYPE_BYTE_GRAY));
+            Frame grayFrame = new Frame(null, gray, gray.length);
+            BufferedImage image = decoder.decode(grayFrame, JpegHeader.parse(gray, 0, gray.length), null, buffer);
+            assertEquals(160, image.getWidth());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    public void testDecodesSliceIntoRenderBuffer() throws IOException {
+        byte[] jpeg = JpegHeaderTest.jpeg(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB));
+        // like a slice of a mapped archive segment
+        ByteBuffer slice = ByteBuffer.allocateDirect(jpeg.length + 10);
+        slice.position(10);
+        slice.put(jpeg).flip().position(10);
+        slice = slice.slice();
+        RenderBuffer buffer = new RenderBuffer();
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder();
+        try {
+            Viewport viewport = new Viewport();
+            viewport.setSize(160, 120);
+            for (int i = 0; i < 5; i++) {
+                buffer.publish(decoder.decode(slice, JpegHeader.parse(slice), viewport, buffer));
+                BufferedImage shown = buffer.take();
+                assertEquals(160, shown.getWidth());
+                buffer.recycle(shown);
+            }
+            assertEquals(1, buffer.getAllocationCount());
+        } finally {
+            decoder.close();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package ru.synesis.media.player;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for StreamStats and LatencyHistogram.
+ */
+public class StreamStatsTest extends TestCase {
+
+    public StreamStatsTest(String testName) {
+        super(testName);
+    }
+
+    public void testBuckets() {
+        for (long v = 0; v < 100000; v += 7) {
+            int bucket = LatencyHistogram.bucket(v);
+            assertTrue(v + " > " + LatencyHistogram.bucketValue(bucket), v <= LatencyHistogram.bucketValue(bucket));
+            if (bucket > 0)
+                assertTrue(v > LatencyHistogram.bucketValue(bucket - 1));
+            // at most 12.5% above the value
+            assertTrue(LatencyHistogram.bucketValue(bucket) <= v + v / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.bucket(TimeUnit.MINUTES.toNanos(10)));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    public void testCountersAndWindow() throws InterruptedException {
+        StreamStats stats = new StreamStats();
+        assertEquals(0.0, stats.getFps());
+        stats.start();
+        for (int i = 0; i < 50; i++) {
+            stats.frameRead(1000, 1000);
+        }
+        stats.frameError();
+        Thread.sleep(200);
+        StreamStats.Snapshot snapshot = stats.snapshot(new StreamStats.Snapshot());
+        assertEquals(50, snapshot.frameCount);
+        assertEquals(1, snapshot.errorFrameCount);
+        assertEquals(50000, snapshot.bytesRead);
+        assertTrue(snapshot.uptime >= TimeUnit.MILLISECONDS.toNanos(200));
+        // 50 frames in about 200 ms
+        assertTrue(String.valueOf(snapshot.fps), snapshot.fps > 100 && snapshot.fps <= 260);
+        assertEquals(snapshot.fps * 8000, snapshot.bitrate, snapshot.bitrate * 0.05);
+    }
+
+}
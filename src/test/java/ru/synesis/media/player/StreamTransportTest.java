@@ -0,0 +1,168 @@
+package ru.synesis.media.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for stream transports against CameraSimulator. The httpclient transport is tested when the JVM has it.
+ */
+public class StreamTransportTest extends TestCase {
+
+    private CameraSimulator camera;
+
+    public StreamTransportTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        camera = new CameraSimulator();
+        camera.setFps(200);
+        camera.setResolution(160, 120);
+        camera.setCredentials("admin", "secret");
+        camera.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        camera.close();
+    }
+
+    public void testBasicAuthorization() {
+        assertEquals("Basic YWRtaW46c2VjcmV0", StreamTransports.basicAuthorization("admin", "secret"));
+        assertEquals("Basic YWRtaW46", StreamTransports.basicAuthorization("admin", null));
+    }
+
+    public void testLookup() {
+        assertEquals(UrlConnectionTransport.NAME, StreamTransports.getDefault().getName());
+        assertTrue(StreamTransports.get("SOCKET") instanceof SocketTransport);
+        assertNull(StreamTransports.get("carrier-pigeon"));
+    }
+
+    public void testBlockingTransports() throws IOException {
+        for (String name : StreamTransports.getNames()) {
+            VideoSource src = new VideoSource(camera.getUrl(), "admin", "secret");
+            src.setTransport(StreamTransports.get(name));
+            src.connect();
+            try {
+                Iterator<Frame> frames = src.frames().iterator();
+                for (int i = 0; i < 5; i++) {
+                    Frame frame = frames.next();
+                    JpegHeader header = JpegHeader.parse(frame.array(), 0, frame.length());
+                    assertNotNull(name, header);
+                    assertTrue(name, header.isComplete());
+                    frame.release();
+                }
+            } finally {
+                src.disconnect();
+            }
+        }
+    }
+
+    public void testUnauthorized() {
+        for (String name : StreamTransports.getNames()) {
+            try {
+                StreamTransports.get(name).connect(camera.getUrl(), "admin", "wrong").close();
+                fail(name + " connected with a wrong password");
+            } catch (IOException e) {
+                assertTrue(name, e.getMessage().contains("401"));
+            }
+        }
+    }
+
+    public void testAsyncTransport() throws Exception {
+        StreamTransport transport = StreamTransports.get("httpclient");
+        if (!(transport instanceof AsyncStreamTransport))
+            return;
+        final AtomicInteger frames = new AtomicInteger();
+        final CountDownLatch received = new CountDownLatch(20);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicReference<Exception> cause = new AtomicReference<>();
+        Closeable stream = ((AsyncStreamTransport) transport).open(camera.getUrl(), "admin", "secret",
+                new FrameListener() {
+                    @Override
+                    public void onFrame(Frame frame) {
+                        JpegHeader header = JpegHeader.parse(frame.array(), 0, frame.length());
+                        if (header != null && header.isComplete())
+                            frames.incrementAndGet();
+                        frame.release();
+                        received.countDown();
+                    }
+                    @Override
+                    public void onClose(Exception e) {
+                        cause.set(e);
+                        closed.countDown();
+                    }
+                });
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        stream.close();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertNull(cause.get());
+        assertTrue(frames.get() >= 20);
+    }
+
+    public void testAsyncCloseReleasesFrameInProgress() throws Exception {
+        StreamTransport transport = StreamTransports.get("httpclient");
+        if (!(transport instanceof AsyncStreamTransport))
+            return;
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        long used = FramePool.shared().getUsedBytes();
+        try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread stalled = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Socket socket = server.accept()) {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\n"
+                                + "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n\r\n"
+                                + "--frame\r\nContent-Type: image/jpeg\r\nContent-Length: 100000\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        out.write(new byte[1000]);
+                        out.flush();
+                        sent.countDown();
+                        // the rest of the part never comes
+                        Thread.sleep(60000);
+                    } catch (IOException | InterruptedException e) {
+                        // closed
+                    }
+                }
+            });
+            stalled.start();
+            Closeable stream = ((AsyncStreamTransport) transport).open(
+                    "http://127.0.0.1:" + server.getLocalPort() + "/video.mjpg", null, null, new FrameListener() {
+                        @Override
+                        public void onFrame(Frame frame) {
+                            frame.release();
+                        }
+                        @Override
+                        public void onClose(Exception e) {
+                            closed.countDown();
+                        }
+                    });
+            assertTrue(sent.await(10, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (FramePool.shared().getUsedBytes() == used && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(FramePool.shared().getUsedBytes() > used);
+            stream.close();
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            assertEquals(used, FramePool.shared().getUsedBytes());
+            stalled.interrupt();
+        }
+    }
+
+}